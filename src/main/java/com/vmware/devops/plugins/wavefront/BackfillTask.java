@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.vmware.devops.plugins.wavefront.exceptions.NullPointerArgumentException;
+import com.vmware.devops.plugins.wavefront.util.MetricFilter;
+
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.listeners.RunListener;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+
+import jenkins.model.Jenkins;
+
+/**
+ * Sends the metrics of past builds with their original timestamps, e.g. after the plugin was
+ * installed on an existing controller or after a proxy outage. The builds of each job are
+ * iterated lazily from the newest to the oldest in the time range and shared by a small pool of
+ * workers, so only the builds currently processed need to be loaded. All workers share one
+ * points per second throttle. Only one backfill runs at a time.
+ */
+public final class BackfillTask implements Runnable {
+    private static final Logger LOGGER = Logger.getLogger(BackfillTask.class.getName());
+    private static BackfillTask current;
+
+    private final List<Pattern> jobPatterns;
+    private final long from;
+    private final long to;
+    private final int threads;
+    private final double pointsPerSecond;
+    private final AtomicLong processedBuilds = new AtomicLong();
+    private final AtomicLong failedBuilds = new AtomicLong();
+    private final AtomicLong sentPoints = new AtomicLong();
+    private final AtomicInteger processedJobs = new AtomicInteger();
+    private volatile String currentJob;
+    private volatile boolean cancelled;
+    private volatile boolean finished;
+
+    BackfillTask(String jobPatterns, long from, long to, int threads, double pointsPerSecond) {
+        this.jobPatterns = parseJobPatterns(jobPatterns);
+        this.from = from;
+        this.to = to;
+        this.threads = Math.max(1, threads);
+        this.pointsPerSecond = pointsPerSecond;
+    }
+
+    /**
+     * Starts a backfill in the background.
+     *
+     * @param jobPatterns     the full names of the jobs, one glob per line
+     * @param from            the start of the time range in milliseconds, inclusive
+     * @param to              the end of the time range in milliseconds, exclusive
+     * @param threads         the number of workers
+     * @param pointsPerSecond the maximum rate of all workers together
+     * @return false if another backfill is still running
+     */
+    public static synchronized boolean start(String jobPatterns, long from, long to, int threads,
+            double pointsPerSecond) {
+        if (current != null && !current.finished) {
+            return false;
+        }
+        current = new BackfillTask(jobPatterns, from, to, threads, pointsPerSecond);
+        Thread thread = new Thread(current, "Wavefront backfill");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    /**
+     * @return the running or last finished backfill, or null if none was started
+     */
+    public static synchronized BackfillTask getCurrent() {
+        return current;
+    }
+
+    static List<Pattern> parseJobPatterns(String jobPatterns) {
+        List<Pattern> patterns = new ArrayList<>();
+        if (jobPatterns != null) {
+            for (String line : jobPatterns.split("\\R+")) {
+                if (!line.trim().isEmpty()) {
+                    patterns.add(Pattern.compile(MetricFilter.globToRegex(line.trim())));
+                }
+            }
+        }
+        return patterns;
+    }
+
+    boolean isSelected(String jobFullName) {
+        for (Pattern pattern : jobPatterns) {
+            if (pattern.matcher(jobFullName).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void run() {
+        RateLimiter limiter = RateLimiter.create(pointsPerSecond);
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "Wavefront backfill worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // build records are only readable by the system, the workers set the same context for themselves
+        try (ACLContext ignored = ACL.as2(ACL.SYSTEM2)) {
+            WavefrontBuildListener listener = RunListener.all().get(WavefrontBuildListener.class);
+            for (Job<?, ?> job : Jenkins.get().allItems(Job.class)) {
+                if (cancelled) {
+                    break;
+                }
+                if (!isSelected(job.getFullName())) {
+                    continue;
+                }
+                currentJob = job.getFullName();
+                backfillJob(job, listener, limiter, pool);
+                processedJobs.incrementAndGet();
+            }
+            LOGGER.log(Level.INFO, "Backfill " + (cancelled ? "cancelled" : "finished") + " after "
+                    + processedBuilds.get() + " builds and " + sentPoints.get() + " points");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Backfill failed", e);
+        } finally {
+            pool.shutdownNow();
+            currentJob = null;
+            finished = true;
+        }
+    }
+
+    private void backfillJob(Job<?, ?> job, WavefrontBuildListener listener, RateLimiter limiter,
+            ExecutorService pool) throws InterruptedException {
+        WavefrontManagement wfManagement = WavefrontManagement.get();
+        MetricFilter filter = wfManagement.getMetricFilter(job);
+        // lazily loads the build records while the workers take them
+        Iterator<? extends Run<?, ?>> builds = job.getBuilds().byTimestamp(from, to).iterator();
+        List<Future<?>> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            workers.add(pool.submit(() -> {
+                // the authentication of the coordinator thread doesn't carry over to the pool
+                try (ACLContext ignored = ACL.as2(ACL.SYSTEM2)) {
+                    Run<?, ?> run;
+                    while (!cancelled && (run = next(builds)) != null) {
+                        backfillRun(run, listener, new MetricEmitter(wfManagement, filter,
+                                run.getStartTimeInMillis() + run.getDuration(), false, limiter));
+                    }
+                }
+            }));
+        }
+        for (Future<?> worker : workers) {
+            try {
+                worker.get();
+            } catch (ExecutionException e) {
+                LOGGER.log(Level.WARNING, "Backfill of " + job.getFullName() + " failed", e.getCause());
+            }
+        }
+    }
+
+    private static Run<?, ?> next(Iterator<? extends Run<?, ?>> builds) {
+        synchronized (builds) {
+            while (builds.hasNext()) {
+                Run<?, ?> run = builds.next();
+                if (!run.isBuilding()) {
+                    return run;
+                }
+            }
+            return null;
+        }
+    }
+
+    private void backfillRun(Run<?, ?> run, WavefrontBuildListener listener, MetricEmitter emitter) {
+        try {
+            listener.sendRunMetrics(run, emitter);
+        } catch (NullPointerArgumentException | RuntimeException e) {
+            failedBuilds.incrementAndGet();
+            LOGGER.log(Level.FINE, "Failed to backfill " + run.getFullDisplayName(), e);
+        }
+        processedBuilds.incrementAndGet();
+        sentPoints.addAndGet(emitter.getSentPoints());
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    public String getCurrentJob() {
+        return currentJob;
+    }
+
+    public int getProcessedJobs() {
+        return processedJobs.get();
+    }
+
+    public long getProcessedBuilds() {
+        return processedBuilds.get();
+    }
+
+    public long getFailedBuilds() {
+        return failedBuilds.get();
+    }
+
+    public long getSentPoints() {
+        return sentPoints.get();
+    }
+}
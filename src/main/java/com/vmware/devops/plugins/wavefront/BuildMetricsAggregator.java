@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.vmware.devops.plugins.wavefront.util.MetricFilter;
+
+/**
+ * Pre-aggregates build durations per job, result and time bucket so that high volume jobs produce a
+ * few points per flush interval instead of one point per build. The accumulators are striped
+ * ({@link LongAdder}, {@link LongAccumulator}) so concurrent build completions do not contend.
+ */
+public class BuildMetricsAggregator {
+    private static final BuildMetricsAggregator INSTANCE = new BuildMetricsAggregator();
+
+    private final ConcurrentMap<Key, Accumulator> accumulators = new ConcurrentHashMap<>();
+    /**
+     * The buckets which ended at or before this time were drained, they mustn't be created again.
+     */
+    private volatile long drainedUntil = Long.MIN_VALUE;
+
+    BuildMetricsAggregator() {
+    }
+
+    public static BuildMetricsAggregator get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Records a completed build into the bucket containing the given timestamp, or into the first bucket which
+     * wasn't drained yet if that bucket was already drained.
+     *
+     * @param jobName      the sanitized job name
+     * @param result       the build result
+     * @param duration     the build duration in milliseconds
+     * @param timestamp    the completion time of the build
+     * @param bucketMillis the size of the time bucket in milliseconds
+     * @param filter       the metric filter of the job, the bucket is sent with the filter of its latest build
+     */
+    public void record(String jobName, String result, long duration, long timestamp, long bucketMillis,
+            MetricFilter filter) {
+        long bucketStart = timestamp - timestamp % bucketMillis;
+        while (true) {
+            long drained = drainedUntil;
+            if (bucketStart + bucketMillis <= drained) {
+                bucketStart = drained - drained % bucketMillis;
+            }
+            Key key = new Key(jobName, result, bucketStart, bucketMillis);
+            // the build is added while the bucket is locked, so a drain either sees it or doesn't remove the bucket
+            Accumulator accumulator = accumulators.compute(key, (k, current) -> {
+                if (current == null && k.bucketStart + k.bucketMillis <= drainedUntil) {
+                    return null; // drained in the meantime
+                }
+                Accumulator added = current != null ? current : new Accumulator();
+                added.add(duration);
+                added.filter = filter;
+                return added;
+            });
+            if (accumulator != null) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes and returns all buckets which have ended before the given time. A bucket is removed atomically
+     * with the builds recorded into it, and builds recorded later into a drained bucket go to the current one,
+     * so every build is sent exactly once.
+     *
+     * @param now the current time in milliseconds
+     * @return the aggregated values of the completed buckets
+     */
+    public synchronized List<Bucket> drainCompletedBuckets(long now) {
+        drainedUntil = Math.max(drainedUntil, now);
+        List<Bucket> result = new ArrayList<>();
+        for (Key key : accumulators.keySet()) {
+            if (key.bucketStart + key.bucketMillis <= now) {
+                Accumulator acc = accumulators.remove(key);
+                if (acc == null) {
+                    continue;
+                }
+                result.add(new Bucket(key.jobName, key.result, key.bucketStart, acc.count.sum(),
+                        acc.durationSum.sum(), acc.durationMax.get(), acc.filter));
+            }
+        }
+        return result;
+    }
+
+    private static final class Key {
+        private final String jobName;
+        private final String result;
+        private final long bucketStart;
+        private final long bucketMillis;
+
+        private Key(String jobName, String result, long bucketStart, long bucketMillis) {
+            this.jobName = jobName;
+            this.result = result;
+            this.bucketStart = bucketStart;
+            this.bucketMillis = bucketMillis;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key that = (Key) o;
+            return bucketStart == that.bucketStart &&
+                    bucketMillis == that.bucketMillis &&
+                    jobName.equals(that.jobName) &&
+                    result.equals(that.result);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(jobName, result, bucketStart, bucketMillis);
+        }
+    }
+
+    private static final class Accumulator {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder durationSum = new LongAdder();
+        private final LongAccumulator durationMax = new LongAccumulator(Long::max, 0);
+        // only set while the bucket is locked by ConcurrentHashMap.compute
+        private MetricFilter filter;
+
+        private void add(long duration) {
+            count.increment();
+            durationSum.add(duration);
+            durationMax.accumulate(duration);
+        }
+    }
+
+    public static class Bucket {
+        private final String jobName;
+        private final String result;
+        private final long bucketStart;
+        private final long count;
+        private final long durationSum;
+        private final long durationMax;
+        private final MetricFilter filter;
+
+        public Bucket(String jobName, String result, long bucketStart, long count, long durationSum,
+                long durationMax, MetricFilter filter) {
+            this.jobName = jobName;
+            this.result = result;
+            this.bucketStart = bucketStart;
+            this.count = count;
+            this.durationSum = durationSum;
+            this.durationMax = durationMax;
+            this.filter = filter;
+        }
+
+        public String getJobName() {
+            return jobName;
+        }
+
+        public String getResult() {
+            return result;
+        }
+
+        public long getBucketStart() {
+            return bucketStart;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getDurationSum() {
+            return durationSum;
+        }
+
+        public long getDurationMax() {
+            return durationMax;
+        }
+
+        /**
+         * @return the metric filter of the job
+         */
+        public MetricFilter getFilter() {
+            return filter;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.workflow.cps.CpsFlowExecution;
+import org.jenkinsci.plugins.workflow.flow.FlowDurabilityHint;
+import org.jenkinsci.plugins.workflow.flow.FlowExecution;
+import org.jenkinsci.plugins.workflow.flow.FlowExecutionList;
+import org.jenkinsci.plugins.workflow.flow.FlowExecutionOwner;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+
+import com.vmware.devops.plugins.wavefront.util.Sanitizer;
+
+import hudson.model.Queue;
+
+/**
+ * The cost of a pipeline run for the controller: the wall-clock time the CPS VM spent interpreting the
+ * program, the number of flow nodes and the size of the persisted program and flow node storage. Sent when a
+ * run completes and on every flush interval for running builds, so long running pipelines are
+ * visible before they end. Walking the flow node storage of every running build on each flush
+ * would be expensive, so the storage size of a running build is only measured again after
+ * {@link #STORAGE_SIZE_REFRESH_MILLIS}.
+ */
+final class CpsOverheadMetrics {
+    private static final Logger LOGGER = Logger.getLogger(CpsOverheadMetrics.class.getName());
+    private static final String BUILD_NUMBER = "Build Number";
+    private static final String DURABILITY = "Durability";
+    private static final String PROGRAM_FILE = "program.dat";
+    private static final String[] STORAGE_DIRECTORIES = {"workflow", "workflow-completed"};
+    // TimingKind names of CpsFlowExecution, the values are wall-clock nanoseconds, the CPU time isn't recorded
+    private static final String[] TIMINGS = {"run", "parse", "classLoad", "saveProgram", "flowNode"};
+    private static final String[] TIMING_METRICS = {"vm-time", "parse-time", "class-load-time", "save-program-time",
+            "flow-node-time"};
+    static final long STORAGE_SIZE_REFRESH_MILLIS = TimeUnit.MINUTES.toMillis(15);
+    // Storage sizes of running builds by the externalizable ID of the run
+    private static final Map<String, StorageSize> STORAGE_SIZES = new ConcurrentHashMap<>();
+    private static final AtomicBoolean TIMINGS_FAILURE_REPORTED = new AtomicBoolean();
+
+    private CpsOverheadMetrics() {
+
+    }
+
+    /**
+     * @param run     the pipeline run
+     * @param tags    the tags of the run, the durability hint is added
+     * @param emitter publishes the metrics
+     */
+    static void send(WorkflowRun run, Map<String, String> tags, MetricEmitter emitter) {
+        STORAGE_SIZES.remove(run.getExternalizableId());
+        send(run, tags, emitter, false, 0);
+    }
+
+    private static void send(WorkflowRun run, Map<String, String> tags, MetricEmitter emitter, boolean running,
+                             long now) {
+        FlowExecution execution = run.getExecution();
+        if (!(execution instanceof CpsFlowExecution)) {
+            return;
+        }
+        String prefix = Sanitizer.sanitizeMetricCategory(Sanitizer.getDecodeJobName(run.getParent().getFullName()))
+                + ".cps.";
+        if (!emitter.isCategoryAllowed(WavefrontManagement.get().getJobMetricsPrefixName() + "." + prefix)) {
+            return;
+        }
+        CpsFlowExecution cpsExecution = (CpsFlowExecution) execution;
+        Map<String, String> cpsTags = new HashMap<>(tags);
+        FlowDurabilityHint durabilityHint = cpsExecution.getDurabilityHint();
+        if (durabilityHint != null) {
+            cpsTags.put(DURABILITY, durabilityHint.name());
+        }
+
+        Map<String, Long> timings = getTimings(cpsExecution);
+        for (int i = 0; i < TIMINGS.length; i++) {
+            Long nanos = timings.get(TIMINGS[i]);
+            if (nanos != null) {
+                emitter.send(prefix + TIMING_METRICS[i], TimeUnit.NANOSECONDS.toMillis(nanos), cpsTags);
+            }
+        }
+        emitter.send(prefix + "flow-nodes", getFlowNodeCount(cpsExecution), cpsTags);
+        File rootDir = run.getRootDir();
+        emitter.send(prefix + "program-size", new File(rootDir, PROGRAM_FILE).length(), cpsTags);
+        long storageSize = running ? getCachedStorageSize(run, now) : getStorageSize(rootDir);
+        emitter.send(prefix + "storage-size", storageSize, cpsTags);
+    }
+
+    /**
+     * Sends the metrics of all running pipelines.
+     *
+     * @param wfManagement the global configuration
+     * @param now          the timestamp of the points
+     */
+    static void sendRunning(WavefrontManagement wfManagement, long now) {
+        Set<String> running = new HashSet<>();
+        for (FlowExecution execution : FlowExecutionList.get()) {
+            try {
+                FlowExecutionOwner owner = execution.getOwner();
+                Queue.Executable executable = owner.getExecutable();
+                if (executable instanceof WorkflowRun) {
+                    WorkflowRun run = (WorkflowRun) executable;
+                    running.add(run.getExternalizableId());
+                    Map<String, String> tags = new HashMap<>();
+                    tags.put(BUILD_NUMBER, run.getId());
+                    send(run, tags, new MetricEmitter(wfManagement, wfManagement.getMetricFilter(run.getParent()),
+                            now, true, null), true, now);
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to get the run of " + execution, e);
+            }
+        }
+        // Runs that ended without completing normally, e.g. deleted while running
+        STORAGE_SIZES.keySet().retainAll(running);
+    }
+
+    private static long getCachedStorageSize(WorkflowRun run, long now) {
+        StorageSize cached = STORAGE_SIZES.get(run.getExternalizableId());
+        if (cached != null && now - cached.measuredAt < STORAGE_SIZE_REFRESH_MILLIS) {
+            return cached.size;
+        }
+        long size = getStorageSize(run.getRootDir());
+        STORAGE_SIZES.put(run.getExternalizableId(), new StorageSize(size, now));
+        return size;
+    }
+
+    private static long getStorageSize(File rootDir) {
+        long size = 0;
+        for (String directory : STORAGE_DIRECTORIES) {
+            size += getSize(new File(rootDir, directory));
+        }
+        return size;
+    }
+
+    /**
+     * Flow node IDs are assigned sequentially, so the highest ID of the current heads is the number of
+     * flow nodes created so far.
+     */
+    static long getFlowNodeCount(FlowExecution execution) {
+        long count = 0;
+        for (FlowNode head : execution.getCurrentHeads()) {
+            try {
+                count = Math.max(count, Long.parseLong(head.getId()));
+            } catch (NumberFormatException e) {
+                LOGGER.log(Level.FINE, "Unexpected flow node ID " + head.getId(), e);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The CPS VM timings are not exposed by an API, they are read from the execution if available.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Long> getTimings(CpsFlowExecution execution) {
+        Map<String, Long> result = new HashMap<>();
+        for (String fieldName : new String[]{"timings", "liveTimings"}) {
+            try {
+                Field field = CpsFlowExecution.class.getDeclaredField(fieldName);
+                field.setAccessible(true);
+                Object timings = field.get(execution);
+                if (timings instanceof Map) {
+                    for (Map.Entry<String, Long> entry : ((Map<String, Long>) timings).entrySet()) {
+                        result.merge(entry.getKey(), entry.getValue(), Math::max);
+                    }
+                }
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                Level level = TIMINGS_FAILURE_REPORTED.compareAndSet(false, true) ? Level.INFO : Level.FINE;
+                LOGGER.log(level, "Failed to read CPS timings " + fieldName, e);
+            }
+        }
+        return result;
+    }
+
+    static long getSize(File file) {
+        if (file.isFile()) {
+            return file.length();
+        }
+        long size = 0;
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                size += getSize(child);
+            }
+        }
+        return size;
+    }
+
+    private static final class StorageSize {
+        private final long size;
+        private final long measuredAt;
+
+        private StorageSize(long size, long measuredAt) {
+            this.size = size;
+            this.measuredAt = measuredAt;
+        }
+    }
+}
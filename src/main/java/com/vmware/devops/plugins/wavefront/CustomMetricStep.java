@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import com.google.common.collect.ImmutableSet;
+import com.vmware.devops.plugins.wavefront.sink.MetricPoint;
+import com.vmware.devops.plugins.wavefront.sink.MetricRouter;
+import com.vmware.devops.plugins.wavefront.util.MetricFilter;
+import com.vmware.devops.plugins.wavefront.util.Sanitizer;
+
+import hudson.model.Run;
+import hudson.model.TaskListener;
+
+/**
+ * Base of the steps which report custom values from a pipeline, e.g. artifact sizes or cache hit
+ * rates. The metrics are named {@code <job-metric-prefix>.custom.<name>} and published through the
+ * shared metric router, with the job name and the optional user tags.
+ */
+public abstract class CustomMetricStep extends Step {
+    static final String CUSTOM = "custom.";
+    private static final String JOB_NAME = "Job Name";
+    private static final String BUILD_NUMBER = "Build Number";
+
+    private String tags = "";
+
+    public String getTags() {
+        return tags;
+    }
+
+    /**
+     * @param tags - Additional point tags, e.g. {@code "region=eu,tier=web"}
+     */
+    @DataBoundSetter
+    public void setTags(String tags) {
+        this.tags = tags;
+    }
+
+    /**
+     * Parses tags in the {@code key=value,key2=value2} format, ignoring entries without a key.
+     *
+     * @param tags the tags
+     * @return the parsed tags
+     */
+    static Map<String, String> parseTags(String tags) {
+        Map<String, String> result = new HashMap<>();
+        if (tags != null) {
+            for (String tag : tags.split(",")) {
+                int separator = tag.indexOf('=');
+                if (separator > 0) {
+                    result.put(tag.substring(0, separator).trim(), tag.substring(separator + 1).trim());
+                }
+            }
+        }
+        return result;
+    }
+
+    static Set<? extends Class<?>> requiredContext() {
+        return ImmutableSet.of(Run.class, TaskListener.class);
+    }
+
+    /**
+     * Publishes a custom metric of a run.
+     *
+     * @param run     the run reporting the metric
+     * @param name    the metric name without the prefix
+     * @param value   the value
+     * @param tags    the user tags
+     * @param counter true for a delta counter, which is summed up across builds
+     * @return false if the metric was not published
+     */
+    static boolean publish(Run<?, ?> run, String name, double value, Map<String, String> tags, boolean counter) {
+        WavefrontManagement wfManagement = WavefrontManagement.get();
+        if (!wfManagement.isMetricsExportEnabled()) {
+            return false;
+        }
+        Map<String, String> pointTags = new HashMap<>(tags);
+        pointTags.put(JOB_NAME, Sanitizer.sanitizeStepMetricCategory(run.getParent().getFullName()));
+        if (!counter) {
+            pointTags.put(BUILD_NUMBER, String.valueOf(run.getNumber()));
+        }
+        String metricName = wfManagement.getJobMetricsPrefixName() + "." + CUSTOM
+                + Sanitizer.sanitizeFullMetricCategory(name);
+        MetricFilter filter = wfManagement.getMetricFilter(run.getParent());
+        if (!filter.isAllowed(metricName, pointTags)) {
+            return false;
+        }
+        MetricPoint point = counter
+                ? MetricPoint.deltaCounter(metricName, value, wfManagement.getProxyHostname(), pointTags)
+                : MetricPoint.metric(metricName, value, System.currentTimeMillis(), wfManagement.getProxyHostname(),
+                        pointTags);
+        MetricRouter.get().publish(point);
+        return true;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import com.vmware.devops.plugins.wavefront.util.P2Quantile;
+
+/**
+ * The duration baseline of a job or of one of its stages, updated incrementally with every build: an
+ * exponentially weighted moving average follows the recent durations and a streaming estimate of the 90th
+ * percentile keeps the normal spread, so a noisy stage isn't reported just for being slower than its average.
+ */
+public class DurationBaseline {
+    static final int MIN_SAMPLES = 5;
+    private static final double ALPHA = 0.1;
+    private static final double QUANTILE = 0.9;
+
+    private double average;
+    private P2Quantile percentile = new P2Quantile(QUANTILE);
+    private int slowBuilds;
+    private boolean regressed;
+    private long lastUpdate;
+
+    /**
+     * Compares a duration with the baseline, then adds it to the baseline.
+     *
+     * @param duration the duration of the build or the stage
+     * @param factor   how many times slower than the average a duration has to be to count as slow
+     * @param builds   the number of consecutive slow builds which make a regression
+     * @param update   the sequence number of this update, used to find baselines which aren't updated anymore
+     * @return the comparison, null while there are too few samples to compare with
+     */
+    public Comparison update(long duration, double factor, int builds, long update) {
+        Comparison comparison = null;
+        if (percentile.getCount() >= MIN_SAMPLES) {
+            boolean slow = duration > factor * average && duration > percentile.getValue();
+            slowBuilds = slow ? slowBuilds + 1 : 0;
+            boolean wasRegressed = regressed;
+            regressed = slow && (wasRegressed || slowBuilds >= builds);
+            comparison = new Comparison(duration, average, regressed, regressed && !wasRegressed);
+        }
+        average = percentile.getCount() == 0 ? duration : average + ALPHA * (duration - average);
+        percentile.add(duration);
+        lastUpdate = update;
+        return comparison;
+    }
+
+    public double getAverage() {
+        return average;
+    }
+
+    public long getLastUpdate() {
+        return lastUpdate;
+    }
+
+    public static class Comparison {
+        private final long duration;
+        private final double baseline;
+        private final boolean regressed;
+        private final boolean started;
+
+        Comparison(long duration, double baseline, boolean regressed, boolean started) {
+            this.duration = duration;
+            this.baseline = baseline;
+            this.regressed = regressed;
+            this.started = started;
+        }
+
+        public long getDuration() {
+            return duration;
+        }
+
+        public double getBaseline() {
+            return baseline;
+        }
+
+        public double getRatio() {
+            return baseline > 0 ? duration / baseline : 0;
+        }
+
+        public boolean isRegressed() {
+            return regressed;
+        }
+
+        /**
+         * @return true if the regression started with this build
+         */
+        public boolean isStarted() {
+            return started;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.XmlFile;
+import hudson.model.Job;
+
+import jenkins.model.Jenkins;
+
+/**
+ * The recent durations of every job and of its stages, kept in a small file in the job directory so the
+ * performance trend of a job is rendered without loading any of its builds.
+ */
+public class DurationHistory {
+    private static final Logger LOGGER = Logger.getLogger(DurationHistory.class.getName());
+    static final String FILE_NAME = "wavefront-durations.xml";
+    static final int CAPACITY = 100;
+    private static final DurationHistory INSTANCE = new DurationHistory();
+
+    DurationHistory() {
+    }
+
+    public static DurationHistory get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param job            the job of the build
+     * @param duration       the duration of the build
+     * @param stageDurations the durations of the stages by stage name, null if they were not collected, then
+     *                       only the duration of the build is recorded
+     */
+    public void record(Job<?, ?> job, long duration, Map<String, Long> stageDurations) {
+        // only the builds of the same job wait for each other
+        synchronized (JobLocks.get(job.getRootDir())) {
+            XmlFile file = getFile(job);
+            Durations durations = load(file);
+            durations.add(duration, stageDurations);
+            try {
+                file.write(durations);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to save the recent durations of " + job.getFullName(), e);
+            }
+        }
+    }
+
+    /**
+     * @return the recent durations of the job, null if none were recorded
+     */
+    public Durations getDurations(Job<?, ?> job) {
+        XmlFile file = getFile(job);
+        return file.exists() ? load(file) : null;
+    }
+
+    boolean hasDurations(Job<?, ?> job) {
+        return new File(job.getRootDir(), FILE_NAME).exists();
+    }
+
+    private static XmlFile getFile(Job<?, ?> job) {
+        return new XmlFile(Jenkins.XSTREAM, new File(job.getRootDir(), FILE_NAME));
+    }
+
+    private static Durations load(XmlFile file) {
+        if (file.exists()) {
+            try {
+                return (Durations) file.read();
+            } catch (IOException | ClassCastException e) {
+                LOGGER.log(Level.WARNING, "Failed to load the recent durations from " + file + ", starting over", e);
+            }
+        }
+        return new Durations();
+    }
+
+    /**
+     * The recent durations of a job and of its stages, the stages in the order they first ran.
+     */
+    public static class Durations {
+        private long builds;
+        private DurationRing build = new DurationRing(CAPACITY);
+        private Map<String, DurationRing> stages = new LinkedHashMap<>();
+
+        void add(long duration, Map<String, Long> stageDurations) {
+            if (stageDurations == null) {
+                // builds without stage durations don't count towards dropping the removed stages
+                build.add(duration, builds);
+                return;
+            }
+            builds++;
+            build.add(duration, builds);
+            for (Map.Entry<String, Long> stage : stageDurations.entrySet()) {
+                stages.computeIfAbsent(stage.getKey(), name -> new DurationRing(CAPACITY))
+                        .add(stage.getValue(), builds);
+            }
+            // the stage was removed from the pipeline when none of the recent builds ran it
+            stages.values().removeIf(ring -> builds - ring.getLastUpdate() >= CAPACITY);
+        }
+
+        public DurationRing getBuild() {
+            return build;
+        }
+
+        public Map<String, DurationRing> getStages() {
+            return Collections.unmodifiableMap(stages);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.util.Arrays;
+
+/**
+ * The most recent durations of a job or of one of its stages, in a fixed-size ring of primitives which
+ * overwrites the oldest duration once it is full.
+ */
+public class DurationRing {
+    private final long[] durations;
+    private int next;
+    private int size;
+    private long lastUpdate;
+
+    public DurationRing(int capacity) {
+        this.durations = new long[capacity];
+    }
+
+    /**
+     * @param duration the duration to add
+     * @param update   the sequence number of this update, used to find rings which aren't updated anymore
+     */
+    public void add(long duration, long update) {
+        durations[next] = duration;
+        next = (next + 1) % durations.length;
+        size = Math.min(size + 1, durations.length);
+        lastUpdate = update;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getLastUpdate() {
+        return lastUpdate;
+    }
+
+    /**
+     * @return the latest duration, -1 if there is none
+     */
+    public long getLast() {
+        return size > 0 ? durations[(next - 1 + durations.length) % durations.length] : -1;
+    }
+
+    /**
+     * @param quantile the quantile, between 0 and 1
+     * @return the duration at the quantile with the nearest rank method, -1 if there is none
+     */
+    public long getPercentile(double quantile) {
+        if (size == 0) {
+            return -1;
+        }
+        long[] sorted = size == durations.length ? durations.clone() : Arrays.copyOf(durations, size);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(quantile * size) - 1;
+        return sorted[Math.max(0, rank)];
+    }
+}
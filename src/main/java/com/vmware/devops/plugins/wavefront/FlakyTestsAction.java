@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.XmlFile;
+import hudson.model.Action;
+import hudson.model.Job;
+
+import jenkins.model.Jenkins;
+
+/**
+ * Shows the most flaky tests of a job over its recent builds on the job page. The list is saved with every build
+ * which has test results, so the page doesn't read the test history or any build.
+ */
+public class FlakyTestsAction implements Action {
+    private static final Logger LOGGER = Logger.getLogger(FlakyTestsAction.class.getName());
+    static final String FILE_NAME = "wavefront-flaky-tests.xml";
+    static final int TOP_TESTS = 20;
+
+    private final Job<?, ?> job;
+
+    public FlakyTestsAction(Job<?, ?> job) {
+        this.job = job;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return "/plugin/wavefront/images/wavefront-plugin-logo.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Flaky Tests";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "wavefront-flaky-tests";
+    }
+
+    public Job<?, ?> getJob() {
+        return job;
+    }
+
+    /**
+     * @return the most flaky tests, most flaky first
+     */
+    @SuppressWarnings("unchecked")
+    public List<TestHistory.FlakyTest> getTests() {
+        XmlFile file = getFile(job);
+        if (file.exists()) {
+            try {
+                return (List<TestHistory.FlakyTest>) file.read();
+            } catch (IOException | ClassCastException e) {
+                LOGGER.log(Level.WARNING, "Failed to load the flaky tests from " + file, e);
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    static void save(Job<?, ?> job, List<TestHistory.FlakyTest> tests) throws IOException {
+        getFile(job).write(new ArrayList<>(tests));
+    }
+
+    static boolean hasTests(Job<?, ?> job) {
+        return new File(job.getRootDir(), FILE_NAME).exists();
+    }
+
+    private static XmlFile getFile(Job<?, ?> job) {
+        return new XmlFile(Jenkins.XSTREAM, new File(job.getRootDir(), FILE_NAME));
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.vmware.devops.plugins.wavefront.util.LongDoubleMap;
+
+/**
+ * Selects the packages of a JaCoCo report whose coverage is sent, at most a given number of them per build.
+ * The packages whose line coverage changed the most since the previous build come first, then the largest ones,
+ * so that a steady job sends its largest packages and a package whose coverage drops shows up right away. The
+ * packages are offered one at a time and only the selected ones are kept, in a heap bounded by the limit. The line
+ * coverage of every package is stored in a small binary file in the job directory, keyed by a 64-bit hash of the
+ * package name.
+ */
+public class JacocoPackageCoverage {
+    static final String FILE_NAME = "wavefront-jacoco-packages.bin";
+    private static final int VERSION = 1;
+    private static final Comparator<Package> RANK = Comparator.comparingDouble(Package::getChange)
+            .thenComparingInt(Package::getLines)
+            .thenComparing(Package::getName, Comparator.reverseOrder());
+
+    private final LongDoubleMap previous;
+    private final LongDoubleMap next;
+    private final int limit;
+    private final PriorityQueue<Package> top;
+
+    /**
+     * @param previous the line coverage of the packages in the previous build, null if there is none
+     * @param limit    the maximum number of selected packages
+     */
+    JacocoPackageCoverage(LongDoubleMap previous, int limit) {
+        this.previous = previous;
+        this.next = new LongDoubleMap(previous != null ? previous.size() : 0);
+        this.limit = limit;
+        this.top = new PriorityQueue<>(limit + 1, RANK);
+    }
+
+    /**
+     * Loads the line coverage of the packages in the previous build of the job.
+     *
+     * @param jobDir the job directory
+     * @param limit  the maximum number of selected packages
+     */
+    public static JacocoPackageCoverage load(File jobDir, int limit) throws IOException {
+        File file = new File(jobDir, FILE_NAME);
+        if (!file.exists()) {
+            return new JacocoPackageCoverage(null, limit);
+        }
+        try (InputStream in = Files.newInputStream(file.toPath());
+             DataInputStream data = new DataInputStream(new BufferedInputStream(in))) {
+            if (data.readInt() != VERSION) {
+                return new JacocoPackageCoverage(null, limit);
+            }
+            int size = data.readInt();
+            LongDoubleMap coverages = new LongDoubleMap(size);
+            for (int i = 0; i < size; i++) {
+                coverages.put(data.readLong(), data.readDouble());
+            }
+            return new JacocoPackageCoverage(coverages, limit);
+        }
+    }
+
+    /**
+     * @param limit the maximum number of selected packages
+     * @return a selection which doesn't know the previous build
+     */
+    public static JacocoPackageCoverage empty(int limit) {
+        return new JacocoPackageCoverage(null, limit);
+    }
+
+    /**
+     * Saves the line coverage of the offered packages to the job directory. The coverage is loaded and saved
+     * holding the {@link JobLocks lock of the job}.
+     */
+    public void save(File jobDir) throws IOException {
+        File file = new File(jobDir, FILE_NAME);
+        Path tmp = Files.createTempFile(jobDir.toPath(), FILE_NAME, ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp);
+                 DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out))) {
+                data.writeInt(VERSION);
+                long[] hashes = next.keys();
+                data.writeInt(hashes.length);
+                for (long hash : hashes) {
+                    data.writeLong(hash);
+                    data.writeDouble(next.get(hash));
+                }
+            }
+            Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * @param name                the package name
+     * @param instructionCoverage the instruction coverage in percent
+     * @param branchCoverage      the branch coverage in percent
+     * @param lineCoverage        the line coverage in percent
+     * @param lines               the number of lines of the package
+     */
+    public void offer(String name, double instructionCoverage, double branchCoverage, double lineCoverage,
+            int lines) {
+        long hash = TestDurationIndex.hash(name);
+        double last = previous != null ? previous.get(hash) : Double.NaN;
+        next.put(hash, lineCoverage);
+        if (limit <= 0) {
+            return;
+        }
+        double change = Double.isNaN(last) ? 0 : Math.abs(lineCoverage - last);
+        Package lowest = top.peek();
+        if (top.size() >= limit && (change < lowest.change || change == lowest.change && lines < lowest.lines)) {
+            return;
+        }
+        top.add(new Package(name, instructionCoverage, branchCoverage, lineCoverage, lines, change));
+        if (top.size() > limit) {
+            top.poll();
+        }
+    }
+
+    /**
+     * @return the selected packages, the highest ranked first
+     */
+    public List<Package> getTopPackages() {
+        List<Package> packages = new ArrayList<>(top);
+        packages.sort(Collections.reverseOrder(RANK));
+        return packages;
+    }
+
+    public static class Package {
+        private final String name;
+        private final double instructionCoverage;
+        private final double branchCoverage;
+        private final double lineCoverage;
+        private final int lines;
+        private final double change;
+
+        Package(String name, double instructionCoverage, double branchCoverage, double lineCoverage, int lines,
+                double change) {
+            this.name = name;
+            this.instructionCoverage = instructionCoverage;
+            this.branchCoverage = branchCoverage;
+            this.lineCoverage = lineCoverage;
+            this.lines = lines;
+            this.change = change;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public double getInstructionCoverage() {
+            return instructionCoverage;
+        }
+
+        public double getBranchCoverage() {
+            return branchCoverage;
+        }
+
+        public double getLineCoverage() {
+            return lineCoverage;
+        }
+
+        public int getLines() {
+            return lines;
+        }
+
+        /**
+         * @return the absolute change of the line coverage in percent since the previous build
+         */
+        public double getChange() {
+            return change;
+        }
+    }
+}
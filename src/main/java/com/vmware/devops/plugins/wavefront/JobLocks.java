@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.io.File;
+
+/**
+ * Serializes the updates of the files a job keeps in its directory, such as the test duration index, so
+ * builds of the same job which complete at the same time don't overwrite each other's updates. The jobs
+ * share a fixed number of locks by the hash of their directory, whatever the number of jobs.
+ */
+final class JobLocks {
+    private static final int STRIPES = 64;
+    private static final Object[] LOCKS = new Object[STRIPES];
+
+    static {
+        for (int i = 0; i < STRIPES; i++) {
+            LOCKS[i] = new Object();
+        }
+    }
+
+    private JobLocks() {
+
+    }
+
+    /**
+     * @param jobDir the job directory
+     * @return the lock to hold while a file of the job is loaded, updated and saved. A thread mustn't hold the
+     * lock of another job at the same time.
+     */
+    static Object get(File jobDir) {
+        return LOCKS[Math.floorMod(jobDir.getAbsolutePath().hashCode(), STRIPES)];
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.workflow.cps.nodes.StepAtomNode;
+import org.jenkinsci.plugins.workflow.flow.GraphListener;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.Queue;
+
+/**
+ * Sends the test metrics of each junit step of a pipeline when the step ends, instead of all of them when the
+ * build completes. A step has ended when the next node of the flow graph is added after it. The listener isn't
+ * synchronous, so it doesn't hold up the pipeline.
+ */
+@Extension
+public class JunitStepGraphListener implements GraphListener {
+    private static final Logger LOGGER = Logger.getLogger(JunitStepGraphListener.class.getName());
+    private static final String JUNIT_STEP = "junit";
+
+    @Override
+    public void onNewHead(FlowNode node) {
+        for (FlowNode parent : node.getParents()) {
+            if (parent instanceof StepAtomNode && JUNIT_STEP.equals(StepDurations.getFunctionName(parent))) {
+                try {
+                    Queue.Executable executable = node.getExecution().getOwner().getExecutable();
+                    if (executable instanceof WorkflowRun) {
+                        ExtensionList.lookupSingleton(WavefrontBuildListener.class)
+                                .sendJunitStepMetrics((WorkflowRun) executable, parent.getId());
+                    }
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Failed to find the build of " + node, e);
+                }
+            }
+        }
+    }
+}
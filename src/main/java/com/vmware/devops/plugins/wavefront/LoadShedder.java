@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+/**
+ * Keeps track of whether optional metric extraction should be skipped because the controller is
+ * under heap, CPU or queue pressure. Shedding starts as soon as one of the thresholds is crossed and
+ * stops only after every value has dropped below its threshold by the hysteresis margin, so the
+ * mode does not flap around a threshold.
+ */
+public class LoadShedder {
+    private static final LoadShedder INSTANCE = new LoadShedder();
+
+    private volatile boolean shedding = false;
+
+    LoadShedder() {
+    }
+
+    public static LoadShedder get() {
+        return INSTANCE;
+    }
+
+    public static boolean isShedding() {
+        return INSTANCE.shedding;
+    }
+
+    public boolean isSheddingLoad() {
+        return shedding;
+    }
+
+    /**
+     * Evaluates the current controller load against the thresholds.
+     *
+     * @param heapUsage   used heap in percent of the max heap
+     * @param cpuUsage    process CPU load in percent
+     * @param queueLength number of buildable items in the queue
+     * @param thresholds  the configured thresholds
+     * @return true if the shedding mode changed
+     */
+    public synchronized boolean update(double heapUsage, double cpuUsage, int queueLength,
+            Thresholds thresholds) {
+        boolean newMode;
+        if (shedding) {
+            newMode = heapUsage >= thresholds.getHeapThreshold() - thresholds.getHysteresis()
+                    || cpuUsage >= thresholds.getCpuThreshold() - thresholds.getHysteresis()
+                    || queueLength >= thresholds.getQueueThreshold()
+                    * (100 - thresholds.getHysteresis()) / 100.0;
+        } else {
+            newMode = heapUsage >= thresholds.getHeapThreshold()
+                    || cpuUsage >= thresholds.getCpuThreshold()
+                    || queueLength >= thresholds.getQueueThreshold();
+        }
+        boolean changed = newMode != shedding;
+        shedding = newMode;
+        return changed;
+    }
+
+    /**
+     * Leaves the shedding mode, e.g. when load shedding gets disabled from the configuration.
+     *
+     * @return true if the shedding mode changed
+     */
+    public synchronized boolean reset() {
+        boolean changed = shedding;
+        shedding = false;
+        return changed;
+    }
+
+    public static double toPercent(double used, double max) {
+        if (used < 0 || max <= 0) {
+            return 0;
+        }
+        return used * 100 / max;
+    }
+
+    public static class Thresholds {
+        private final int heapThreshold;
+        private final int cpuThreshold;
+        private final int queueThreshold;
+        private final int hysteresis;
+
+        public Thresholds(int heapThreshold, int cpuThreshold, int queueThreshold, int hysteresis) {
+            this.heapThreshold = heapThreshold;
+            this.cpuThreshold = cpuThreshold;
+            this.queueThreshold = queueThreshold;
+            this.hysteresis = hysteresis;
+        }
+
+        public static Thresholds from(WavefrontManagement wfManagement) {
+            return new Thresholds(wfManagement.getLoadSheddingHeapThreshold(),
+                    wfManagement.getLoadSheddingCpuThreshold(),
+                    wfManagement.getLoadSheddingQueueThreshold(),
+                    wfManagement.getLoadSheddingHysteresis());
+        }
+
+        public int getHeapThreshold() {
+            return heapThreshold;
+        }
+
+        public int getCpuThreshold() {
+            return cpuThreshold;
+        }
+
+        public int getQueueThreshold() {
+            return queueThreshold;
+        }
+
+        public int getHysteresis() {
+            return hysteresis;
+        }
+    }
+}
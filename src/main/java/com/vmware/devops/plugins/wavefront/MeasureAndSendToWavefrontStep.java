@@ -24,12 +24,12 @@
 
 package com.vmware.devops.plugins.wavefront;
 
-import java.io.IOException;
+import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import org.jenkinsci.plugins.workflow.steps.BodyExecutionCallback.TailCall;
 import org.jenkinsci.plugins.workflow.steps.GeneralNonBlockingStepExecution;
@@ -41,6 +41,9 @@ import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 
 import com.google.common.collect.ImmutableSet;
+import com.vmware.devops.plugins.wavefront.sink.MetricPoint;
+import com.vmware.devops.plugins.wavefront.sink.MetricRouter;
+import com.vmware.devops.plugins.wavefront.util.MetricFilter;
 import com.vmware.devops.plugins.wavefront.util.Sanitizer;
 
 import hudson.EnvVars;
@@ -52,14 +55,13 @@ import hudson.model.Run;
 import hudson.model.TaskListener;
 
 public class MeasureAndSendToWavefrontStep extends Step {
-    private static final Logger LOGGER = Logger.getLogger(MeasureAndSendToWavefrontStep.class.getName());
     private String metricName;
-    private long startTime;
+    private String tags = "";
+    private boolean distribution = false;
 
     @DataBoundConstructor
     public MeasureAndSendToWavefrontStep(String metricName) {
         this.metricName = metricName;
-        startTime = System.currentTimeMillis();
     }
 
     public String getMetricName() {
@@ -71,8 +73,28 @@ public class MeasureAndSendToWavefrontStep extends Step {
         this.metricName = metricName;
     }
 
-    public long getStartTime() {
-        return startTime;
+    public String getTags() {
+        return tags;
+    }
+
+    /**
+     * @param tags - Additional point tags, e.g. {@code "region=eu,tier=web"}
+     */
+    @DataBoundSetter
+    public void setTags(String tags) {
+        this.tags = tags;
+    }
+
+    public boolean isDistribution() {
+        return distribution;
+    }
+
+    /**
+     * @param distribution - Fold the durations into one distribution per build instead of sending a point per call
+     */
+    @DataBoundSetter
+    public void setDistribution(boolean distribution) {
+        this.distribution = distribution;
     }
 
     @Override
@@ -96,48 +118,99 @@ public class MeasureAndSendToWavefrontStep extends Step {
         }
 
         private void doStart() throws Exception {
+            String name = Sanitizer.sanitizeStepMetricCategory(step.getMetricName());
+            TimerPath parent = getContext().get(TimerPath.class);
+            TimerPath path = new TimerPath(parent == null ? name : parent.getPath() + "." + name);
             getContext().newBodyInvoker()
-                    .withCallback(new Callback(step.getStartTime(), step.getMetricName()))
+                    .withContext(path)
+                    .withCallback(new Callback(path.getPath(), CustomMetricStep.parseTags(step.getTags()),
+                            step.isDistribution()))
                     .start();
         }
     }
 
+    /**
+     * The name of the enclosing timer, so nested timers produce hierarchical names.
+     */
+    static final class TimerPath implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final String path;
+
+        TimerPath(String path) {
+            this.path = path;
+        }
+
+        String getPath() {
+            return path;
+        }
+    }
+
     private static class Callback extends TailCall {
         private static final String JOB_NAME = "Job Name";
         private static final String BUILD_NUMBER = "Build Number";
+        // nanoTime is only comparable within one JVM
+        private static final String JVM_ID = UUID.randomUUID().toString();
         private static final long serialVersionUID = 1L;
-        private long startTime;
-        private String metricName;
-
-        public Callback(long startTime, String metricName) {
-            this.startTime = startTime;
+        // metricName and startTime keep their names so callbacks of running builds still resume
+        private final String metricName;
+        private final long startTime;
+        private final HashMap<String, String> tags;
+        private final boolean distribution;
+        private final long startNanos;
+        private final String jvmId;
+
+        Callback(String metricName, Map<String, String> tags, boolean distribution) {
             this.metricName = metricName;
+            this.tags = new HashMap<>(tags);
+            this.distribution = distribution;
+            this.startTime = System.currentTimeMillis();
+            this.startNanos = System.nanoTime();
+            this.jvmId = JVM_ID;
+        }
+
+        /**
+         * @return the duration of the body in milliseconds, measured with the monotonic clock unless
+         *         the build was resumed in another JVM
+         */
+        private double getDurationMillis() {
+            if (JVM_ID.equals(jvmId)) {
+                return (System.nanoTime() - startNanos) / (double) TimeUnit.MILLISECONDS.toNanos(1);
+            }
+            return Math.max(0, System.currentTimeMillis() - startTime);
         }
 
         @Override
         protected void finished(StepContext context) throws Exception {
-            long durationMetricValue = System.currentTimeMillis() - startTime;
-            String jobName = Sanitizer.sanitizeStepMetricCategory(context.get(Run.class).getParent().getFullName());
-            String buildNumber = String.valueOf(context.get(Run.class).getNumber());
-
-            Map<String, String> tags = new HashMap<>();
-            tags.put(JOB_NAME, jobName);
-            tags.put(BUILD_NUMBER, buildNumber);
-
-            String sanitizedName = Sanitizer.sanitizeStepMetricCategory(metricName);
-            String metricName = "step." + sanitizedName;
-
-            sendMetricsToWavefront(metricName, durationMetricValue, tags, WavefrontManagement.get().getProxyHostname());
+            double durationMetricValue = getDurationMillis();
+            WavefrontManagement wfManagement = WavefrontManagement.get();
+            if (!wfManagement.isMetricsExportEnabled()) {
+                return;
+            }
+            Run run = context.get(Run.class);
+            String jobName = Sanitizer.sanitizeStepMetricCategory(run.getParent().getFullName());
+            String buildNumber = String.valueOf(run.getNumber());
+
+            Map<String, String> pointTags = tags == null ? new HashMap<>() : new HashMap<>(tags);
+            pointTags.put(JOB_NAME, jobName);
+            pointTags.put(BUILD_NUMBER, buildNumber);
+
+            String stepMetricName = "step." + metricName;
+            if (distribution) {
+                TimerDistributions.get().record(run.getExternalizableId(), stepMetricName, pointTags,
+                        durationMetricValue);
+                return;
+            }
+            sendMetricsToWavefront(stepMetricName, durationMetricValue, pointTags, wfManagement.getProxyHostname(),
+                    wfManagement.getMetricFilter(run.getParent()));
         }
 
-        private void sendMetricsToWavefront(String metricName, double metricValue, Map<String, String> tags, String source) {
+        private void sendMetricsToWavefront(String metricName, double metricValue, Map<String, String> tags, String source,
+                                            MetricFilter filter) {
             String name = WavefrontManagement.get().getJobMetricsPrefixName() + "." + metricName;
-            try {
-                WavefrontMonitor.getWavefrontSender().sendMetric(name, metricValue, System.currentTimeMillis(),
-                        source, tags);
-            } catch (IOException e) {
-                LOGGER.log(Level.WARNING, "Failed to send metrics from wavefrontTimedCall step to Wavefront", e);
+            if (!filter.isAllowed(name, tags)) {
+                return;
             }
+            MetricRouter.get().publish(MetricPoint.metric(name, metricValue, System.currentTimeMillis(), source, tags));
         }
     }
 
@@ -170,4 +243,4 @@ public class MeasureAndSendToWavefrontStep extends Step {
             return true;
         }
     }
-}
\ No newline at end of file
+}
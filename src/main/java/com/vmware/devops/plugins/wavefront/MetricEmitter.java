@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.vmware.devops.plugins.wavefront.sink.MetricPoint;
+import com.vmware.devops.plugins.wavefront.sink.MetricRouter;
+import com.vmware.devops.plugins.wavefront.util.MetricFilter;
+
+/**
+ * Publishes the metrics extracted from a single run. It applies the metric filter of the job and
+ * stamps every point with the same timestamp: the completion time for live builds, the original
+ * build time when past builds are backfilled.
+ */
+final class MetricEmitter {
+    private static final Logger LOGGER = Logger.getLogger(MetricEmitter.class.getName());
+
+    private final String prefix;
+    private final String source;
+    private final MetricFilter filter;
+    private final long timestamp;
+    private final boolean live;
+    private final RateLimiter rateLimiter;
+    private long sentPoints;
+
+    MetricEmitter(WavefrontManagement wfManagement, MetricFilter filter, long timestamp, boolean live,
+            RateLimiter rateLimiter) {
+        this.prefix = wfManagement.getJobMetricsPrefixName();
+        this.source = wfManagement.getProxyHostname();
+        this.filter = filter;
+        this.timestamp = timestamp;
+        this.live = live;
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * @param metricName the metric name without the job metrics prefix
+     * @param value      the value
+     * @param tags       the point tags, copied by the point
+     */
+    void send(String metricName, double value, Map<String, String> tags) {
+        String name = prefix + "." + metricName;
+        if (!filter.isAllowed(name, tags)) {
+            return;
+        }
+        if (name.length() >= 255) {
+            LOGGER.log(Level.WARNING,
+                    "The metric has not been sent to wavefront, name is too long: " + name);
+        }
+        if (rateLimiter != null) {
+            rateLimiter.acquire();
+        }
+        publish(MetricPoint.metric(name, value, timestamp, source, tags));
+        sentPoints++;
+    }
+
+    /**
+     * @param metricName the metric name without the job metrics prefix
+     * @param values     the centroid values
+     * @param counts     the number of values of each centroid
+     * @param tags       the point tags, copied by the point
+     */
+    void sendDistribution(String metricName, double[] values, int[] counts, Map<String, String> tags) {
+        String name = prefix + "." + metricName;
+        if (!filter.isAllowed(name, tags)) {
+            return;
+        }
+        if (rateLimiter != null) {
+            rateLimiter.acquire();
+        }
+        publish(MetricPoint.distribution(name, values, counts, timestamp, source, tags));
+        sentPoints++;
+    }
+
+    /**
+     * Sends a tracing span. Spans aren't metrics, so the metric filter doesn't apply to them.
+     *
+     * @param parentId the id of the parent span, null for the root span of a trace
+     */
+    void sendSpan(String name, long startMillis, long durationMillis, UUID traceId, UUID spanId, UUID parentId,
+            Map<String, String> tags) {
+        if (rateLimiter != null) {
+            rateLimiter.acquire();
+        }
+        publish(MetricPoint.span(name, startMillis, durationMillis, source, traceId, spanId, parentId, tags));
+        sentPoints++;
+    }
+
+    /**
+     * Sends an event at the timestamp of the run. Events aren't metrics, so the metric filter doesn't apply to them.
+     */
+    void sendEvent(String name, Map<String, String> annotations) {
+        publish(MetricPoint.event(name, timestamp, timestamp + 1, source, annotations));
+        sentPoints++;
+    }
+
+    private void publish(MetricPoint point) {
+        MetricRouter.get().publish(live ? point : point.asBackfilled());
+    }
+
+    /**
+     * @param categoryPrefix the full name prefix of the category
+     * @return false if all metrics of the category are denied
+     */
+    boolean isCategoryAllowed(String categoryPrefix) {
+        return filter.isCategoryAllowed(categoryPrefix);
+    }
+
+    /**
+     * @return the metric filter of the job
+     */
+    MetricFilter getFilter() {
+        return filter;
+    }
+
+    long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return false when past builds are backfilled, which must not feed live-only state
+     */
+    boolean isLive() {
+        return live;
+    }
+
+    long getSentPoints() {
+        return sentPoints;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import hudson.Util;
+import hudson.model.Action;
+import hudson.model.Job;
+
+/**
+ * Shows the median and 95th percentile duration of the recent builds of a job and of its stages on the job page.
+ */
+public class PerformanceTrendAction implements Action {
+    private final Job<?, ?> job;
+
+    public PerformanceTrendAction(Job<?, ?> job) {
+        this.job = job;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return "/plugin/wavefront/images/wavefront-plugin-logo.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Performance Trend";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "wavefront-performance-trend";
+    }
+
+    public Job<?, ?> getJob() {
+        return job;
+    }
+
+    /**
+     * @return the build followed by its stages, empty if no duration was recorded
+     */
+    public List<Row> getRows() {
+        List<Row> rows = new ArrayList<>();
+        DurationHistory.Durations durations = DurationHistory.get().getDurations(job);
+        if (durations != null) {
+            rows.add(new Row("Build", durations.getBuild()));
+            for (Map.Entry<String, DurationRing> stage : durations.getStages().entrySet()) {
+                rows.add(new Row(stage.getKey(), stage.getValue()));
+            }
+        }
+        return rows;
+    }
+
+    public static class Row {
+        private final String name;
+        private final DurationRing durations;
+
+        Row(String name, DurationRing durations) {
+            this.name = name;
+            this.durations = durations;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getBuilds() {
+            return durations.size();
+        }
+
+        public String getMedian() {
+            return Util.getTimeSpanString(durations.getPercentile(0.5));
+        }
+
+        public String getPercentile95() {
+            return Util.getTimeSpanString(durations.getPercentile(0.95));
+        }
+
+        public String getLast() {
+            return Util.getTimeSpanString(durations.getLast());
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The stages and parallel branches of a pipeline run, nested as in the pipeline. It is filled while
+ * the flow graph is walked for the stage metrics and answers which chain of stages and branches
+ * determined the duration of the run, and how unbalanced each {@code parallel} block was.
+ * <p>
+ * Blocks run one after the other unless they are branches of the same {@code parallel} step, so the
+ * critical path contains every stage and, of each {@code parallel} step, the longest branch with
+ * its own critical path.
+ */
+final class PipelineBlockTree {
+    private final Block root = new Block(null);
+    private final Map<String, Block> blocks = new HashMap<>();
+
+    /**
+     * Adds a stage or a parallel branch. Blocks may be added in any order, inner blocks usually come
+     * first when the flow graph is walked backwards.
+     *
+     * @param id         the ID of the start node of the block
+     * @param parentId   the ID of the enclosing stage or branch, null at the top level
+     * @param parallelId the ID of the {@code parallel} step of a branch, null for stages
+     * @param name       the name of the stage or branch
+     * @param start      the start time in milliseconds
+     * @param duration   the duration in milliseconds
+     */
+    void add(String id, String parentId, String parallelId, String name, long start, long duration) {
+        Block block = blocks.computeIfAbsent(id, Block::new);
+        block.name = name;
+        block.parallelId = parallelId;
+        block.start = start;
+        block.duration = duration;
+        Block parent = parentId == null ? root : blocks.computeIfAbsent(parentId, Block::new);
+        parent.children.add(block);
+    }
+
+    /**
+     * @return the stages and branches on the critical path, outer blocks before the blocks they contain
+     */
+    List<Block> getCriticalPath() {
+        List<Block> path = new ArrayList<>();
+        appendCriticalPath(root, path);
+        return path;
+    }
+
+    /**
+     * @return the sum of the durations of the top level blocks on the critical path
+     */
+    long getCriticalPathLength() {
+        return appendCriticalPath(root, new ArrayList<>());
+    }
+
+    private long appendCriticalPath(Block block, List<Block> path) {
+        long length = 0;
+        for (List<Block> step : getSteps(block)) {
+            Block critical = step.get(0);
+            for (Block candidate : step) {
+                if (candidate.duration > critical.duration) {
+                    critical = candidate;
+                }
+            }
+            path.add(critical);
+            appendCriticalPath(critical, path);
+            length += critical.duration;
+        }
+        return length;
+    }
+
+    /**
+     * @return the statistics of every {@code parallel} step, named after the enclosing stage or branch
+     */
+    List<ParallelStats> getParallelStats() {
+        List<ParallelStats> result = new ArrayList<>();
+        addParallelStats(root, result);
+        return result;
+    }
+
+    private void addParallelStats(Block block, List<ParallelStats> result) {
+        int index = 0;
+        for (List<Block> step : getSteps(block)) {
+            if (step.get(0).parallelId != null) {
+                index++;
+                String name = block.name == null ? "pipeline" : block.name;
+                result.add(new ParallelStats(index == 1 ? name : name + "-" + index, step));
+            }
+            for (Block child : step) {
+                addParallelStats(child, result);
+            }
+        }
+    }
+
+    /**
+     * Groups the children of a block into the steps which run one after the other: a stage, or all
+     * branches of a {@code parallel} step.
+     */
+    private static List<List<Block>> getSteps(Block block) {
+        Map<String, List<Block>> steps = new LinkedHashMap<>();
+        for (Block child : block.children) {
+            String key = child.parallelId != null ? child.parallelId : child.id;
+            steps.computeIfAbsent(key, k -> new ArrayList<>()).add(child);
+        }
+        List<List<Block>> result = new ArrayList<>(steps.values());
+        result.sort(Comparator.comparingLong(PipelineBlockTree::getStart));
+        return result;
+    }
+
+    private static long getStart(List<Block> step) {
+        long start = Long.MAX_VALUE;
+        for (Block block : step) {
+            start = Math.min(start, block.start);
+        }
+        return start;
+    }
+
+    static final class Block {
+        private final String id;
+        private final List<Block> children = new ArrayList<>();
+        private String name;
+        private String parallelId;
+        private long start;
+        private long duration;
+
+        private Block(String id) {
+            this.id = id;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        boolean isBranch() {
+            return parallelId != null;
+        }
+
+        long getDuration() {
+            return duration;
+        }
+    }
+
+    static final class ParallelStats {
+        private final String name;
+        private final int branches;
+        private final long max;
+        private final long min;
+        private final double mean;
+        private final double concurrency;
+
+        private ParallelStats(String name, List<Block> branches) {
+            this.name = name;
+            this.branches = branches.size();
+            long maxDuration = 0;
+            long minDuration = Long.MAX_VALUE;
+            long sum = 0;
+            long start = Long.MAX_VALUE;
+            long end = Long.MIN_VALUE;
+            for (Block branch : branches) {
+                maxDuration = Math.max(maxDuration, branch.duration);
+                minDuration = Math.min(minDuration, branch.duration);
+                sum += branch.duration;
+                start = Math.min(start, branch.start);
+                end = Math.max(end, branch.start + branch.duration);
+            }
+            this.max = maxDuration;
+            this.min = minDuration;
+            this.mean = (double) sum / branches.size();
+            this.concurrency = end > start ? (double) sum / (end - start) : branches.size();
+        }
+
+        String getName() {
+            return name;
+        }
+
+        int getBranches() {
+            return branches;
+        }
+
+        long getMax() {
+            return max;
+        }
+
+        long getMin() {
+            return min;
+        }
+
+        double getMean() {
+            return mean;
+        }
+
+        /**
+         * @return the longest branch relative to the mean, 1 when all branches take the same time
+         */
+        double getSkew() {
+            return mean > 0 ? max / mean : 1;
+        }
+
+        /**
+         * @return the average number of branches running at the same time
+         */
+        double getConcurrency() {
+            return concurrency;
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Latest values of the metrics sent to Wavefront, exposed in the Prometheus text format for teams
+ * which scrape instead of push. Values are kept in concurrent maps with volatile and striped
+ * fields, so recording never takes a lock, and the exposition is written series by series to the
+ * response. When the number of series reaches the limit, the least recently updated tenth of them is
+ * evicted, so series of jobs which stopped building make room for new ones.
+ */
+public class PrometheusRegistry {
+    private static final Logger LOGGER = Logger.getLogger(PrometheusRegistry.class.getName());
+    private static final PrometheusRegistry INSTANCE = new PrometheusRegistry();
+
+    public static final int MAX_SERIES = 10000;
+    private static final int EVICTED_SERIES = MAX_SERIES / 10;
+    // build and stage durations in milliseconds
+    static final double[] DURATION_BUCKETS = {1000, 5000, 10000, 30000, 60000, 120000, 300000, 600000,
+            1800000, 3600000, 7200000};
+    // tags which would create a new series for every build
+    private static final String BUILD_NUMBER = "Build Number";
+
+    private final ConcurrentMap<String, Family> families = new ConcurrentHashMap<>();
+    private final AtomicInteger seriesCount = new AtomicInteger();
+    private final AtomicBoolean limitReported = new AtomicBoolean();
+    // orders the updates of the series
+    private final AtomicLong updates = new AtomicLong();
+    private final Set<String> typeConflicts = ConcurrentHashMap.newKeySet();
+
+    PrometheusRegistry() {
+    }
+
+    public static PrometheusRegistry get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Sets the latest value of a gauge.
+     *
+     * @param metricName the Wavefront metric name
+     * @param tags       the point tags, may be null
+     * @param value      the value
+     */
+    public void set(String metricName, Map<String, String> tags, double value) {
+        Series series = getSeries(metricName, false, tags);
+        if (series != null) {
+            series.value = value;
+            series.lastUpdate = updates.incrementAndGet();
+        }
+    }
+
+    /**
+     * Adds an observation to a histogram.
+     *
+     * @param metricName the Wavefront metric name
+     * @param tags       the point tags, may be null
+     * @param value      the observed value
+     */
+    public void observe(String metricName, Map<String, String> tags, double value) {
+        Series series = getSeries(metricName, true, tags);
+        if (series != null) {
+            series.histogram.observe(value);
+            series.lastUpdate = updates.incrementAndGet();
+        }
+    }
+
+    public int getSeriesCount() {
+        return seriesCount.get();
+    }
+
+    private Series getSeries(String metricName, boolean histogram, Map<String, String> tags) {
+        String name = sanitizeName(metricName);
+        Family family = families.computeIfAbsent(name, n -> new Family(name, histogram));
+        if (family.histogram != histogram) {
+            if (typeConflicts.add(name)) {
+                LOGGER.log(Level.WARNING, "Not exposing " + metricName + " as a " + (histogram ? "histogram" : "gauge")
+                        + " on the Prometheus endpoint, it is already exposed as a "
+                        + (family.histogram ? "histogram" : "gauge"));
+            }
+            return null;
+        }
+        String labels = formatLabels(tags);
+        Series series = family.series.get(labels);
+        if (series == null) {
+            if (seriesCount.get() >= MAX_SERIES) {
+                evictLeastRecentlyUpdated();
+            }
+            Series created = new Series(labels, histogram);
+            created.lastUpdate = updates.incrementAndGet();
+            series = family.series.putIfAbsent(labels, created);
+            if (series == null) {
+                seriesCount.incrementAndGet();
+                series = created;
+            }
+        }
+        return series;
+    }
+
+    private synchronized void evictLeastRecentlyUpdated() {
+        if (seriesCount.get() < MAX_SERIES) {
+            return; // evicted by another thread in the meantime
+        }
+        List<Map.Entry<Family, Series>> all = new ArrayList<>(seriesCount.get());
+        for (Family family : families.values()) {
+            for (Series series : family.series.values()) {
+                all.add(new AbstractMap.SimpleEntry<>(family, series));
+            }
+        }
+        all.sort(Comparator.comparingLong(entry -> entry.getValue().lastUpdate));
+        int evicted = 0;
+        for (Map.Entry<Family, Series> entry : all) {
+            if (evicted >= EVICTED_SERIES) {
+                break;
+            }
+            if (entry.getKey().series.remove(entry.getValue().labels, entry.getValue())) {
+                seriesCount.decrementAndGet();
+                evicted++;
+            }
+        }
+        Level level = limitReported.compareAndSet(false, true) ? Level.WARNING : Level.FINE;
+        LOGGER.log(level, "Prometheus endpoint reached the limit of " + MAX_SERIES + " series, evicted the "
+                + evicted + " least recently updated series");
+    }
+
+    /**
+     * Writes all series in the Prometheus text exposition format.
+     *
+     * @param writer the writer of the response
+     * @throws IOException if writing fails
+     */
+    public void writeTo(Writer writer) throws IOException {
+        for (Family family : families.values()) {
+            if (family.series.isEmpty()) {
+                continue;
+            }
+            writer.write("# TYPE ");
+            writer.write(family.name);
+            writer.write(family.histogram ? " histogram\n" : " gauge\n");
+            for (Series series : family.series.values()) {
+                if (family.histogram) {
+                    series.histogram.writeTo(writer, family.name, series.labels);
+                } else {
+                    writeSample(writer, family.name, "", series.labels, null, series.value);
+                }
+            }
+        }
+        writer.flush();
+    }
+
+    private static void writeSample(Writer writer, String name, String suffix, String labels, String extraLabel,
+            double value) throws IOException {
+        writer.write(name);
+        writer.write(suffix);
+        if (!labels.isEmpty() || extraLabel != null) {
+            writer.write('{');
+            writer.write(labels);
+            if (extraLabel != null) {
+                if (!labels.isEmpty()) {
+                    writer.write(',');
+                }
+                writer.write(extraLabel);
+            }
+            writer.write('}');
+        }
+        writer.write(' ');
+        writer.write(formatValue(value));
+        writer.write('\n');
+    }
+
+    static String formatValue(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    static String sanitizeName(String name) {
+        StringBuilder sb = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == ':'
+                    || (i > 0 && c >= '0' && c <= '9');
+            sb.append(valid ? c : '_');
+        }
+        return sb.toString();
+    }
+
+    static String formatLabels(Map<String, String> tags) {
+        if (tags == null || tags.isEmpty()) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> tag : new TreeMap<>(tags).entrySet()) {
+            if (BUILD_NUMBER.equals(tag.getKey()) || tag.getValue() == null) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(sanitizeName(tag.getKey()).replace(':', '_')).append("=\"");
+            String value = tag.getValue();
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '\\' || c == '"') {
+                    sb.append('\\').append(c);
+                } else if (c == '\n') {
+                    sb.append("\\n");
+                } else {
+                    sb.append(c);
+                }
+            }
+            sb.append('"');
+        }
+        return sb.toString();
+    }
+
+    private static final class Family {
+        private final String name;
+        private final boolean histogram;
+        private final ConcurrentMap<String, Series> series = new ConcurrentHashMap<>();
+
+        private Family(String name, boolean histogram) {
+            this.name = name;
+            this.histogram = histogram;
+        }
+    }
+
+    private static final class Series {
+        private final String labels;
+        private final Histogram histogram;
+        private volatile double value;
+        private volatile long lastUpdate;
+
+        private Series(String labels, boolean histogram) {
+            this.labels = labels;
+            this.histogram = histogram ? new Histogram() : null;
+        }
+    }
+
+    private static final class Histogram {
+        private final LongAdder[] buckets = new LongAdder[DURATION_BUCKETS.length];
+        private final LongAdder count = new LongAdder();
+        private final DoubleAdder sum = new DoubleAdder();
+
+        private Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        private void observe(double value) {
+            for (int i = 0; i < DURATION_BUCKETS.length; i++) {
+                if (value <= DURATION_BUCKETS[i]) {
+                    buckets[i].increment();
+                    break;
+                }
+            }
+            count.increment();
+            sum.add(value);
+        }
+
+        private void writeTo(Writer writer, String name, String labels) throws IOException {
+            long cumulative = 0;
+            for (int i = 0; i < DURATION_BUCKETS.length; i++) {
+                cumulative += buckets[i].sum();
+                writeSample(writer, name, "_bucket", labels, "le=\"" + formatValue(DURATION_BUCKETS[i]) + "\"",
+                        cumulative);
+            }
+            long total = count.sum();
+            writeSample(writer, name, "_bucket", labels, "le=\"+Inf\"", total);
+            writeSample(writer, name, "_sum", labels, null, sum.sum());
+            writeSample(writer, name, "_count", labels, null, total);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.XmlFile;
+import hudson.model.Job;
+
+import jenkins.model.Jenkins;
+
+/**
+ * Detects duration regressions of jobs and of their stages. The baselines of a job are kept in a small file in
+ * the job directory and updated with every completed build, so no past build has to be loaded to compare with.
+ */
+public class RegressionDetector {
+    private static final Logger LOGGER = Logger.getLogger(RegressionDetector.class.getName());
+    static final String FILE_NAME = "wavefront-baselines.xml";
+    /**
+     * Stage baselines which haven't been updated by this many builds belong to removed stages and are dropped.
+     */
+    private static final int MAX_IDLE_BUILDS = 100;
+    private static final RegressionDetector INSTANCE = new RegressionDetector();
+
+    RegressionDetector() {
+    }
+
+    public static RegressionDetector get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Compares the durations of a build and of its stages with the baselines of the job, then updates them.
+     *
+     * @param job              the job of the build
+     * @param duration         the duration of the build
+     * @param stageDurations   the durations of the stages by stage name, null if they were not collected, e.g.
+     *                         for builds which are not sampled, then only the build baseline is updated
+     * @param thresholdPercent how many percent slower than the baseline counts as slow
+     * @param builds           the number of consecutive slow builds which make a regression
+     * @return the comparisons by stage name, the build itself under a null key
+     */
+    public Map<String, DurationBaseline.Comparison> update(Job<?, ?> job, long duration,
+            Map<String, Long> stageDurations, int thresholdPercent, int builds) {
+        // only the builds of the same job wait for each other
+        synchronized (JobLocks.get(job.getRootDir())) {
+            XmlFile file = getFile(job);
+            Baselines baselines = load(file);
+            Map<String, DurationBaseline.Comparison> comparisons = baselines.update(duration, stageDurations,
+                    1 + thresholdPercent / 100.0, builds);
+            try {
+                file.write(baselines);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to save the duration baselines of " + job.getFullName(), e);
+            }
+            return comparisons;
+        }
+    }
+
+    private static XmlFile getFile(Job<?, ?> job) {
+        return new XmlFile(Jenkins.XSTREAM, new File(job.getRootDir(), FILE_NAME));
+    }
+
+    private static Baselines load(XmlFile file) {
+        if (file.exists()) {
+            try {
+                return (Baselines) file.read();
+            } catch (IOException | ClassCastException e) {
+                LOGGER.log(Level.WARNING, "Failed to load the duration baselines from " + file + ", starting over", e);
+            }
+        }
+        return new Baselines();
+    }
+
+    /**
+     * All the baselines of a job.
+     */
+    static class Baselines {
+        private long builds;
+        private DurationBaseline build = new DurationBaseline();
+        private Map<String, DurationBaseline> stages = new HashMap<>();
+
+        Map<String, DurationBaseline.Comparison> update(long duration, Map<String, Long> stageDurations,
+                double factor, int slowBuilds) {
+            // builds without stage durations don't count towards dropping the baselines of removed stages
+            if (stageDurations != null) {
+                builds++;
+            }
+            Map<String, DurationBaseline.Comparison> comparisons = new LinkedHashMap<>();
+            DurationBaseline.Comparison comparison = build.update(duration, factor, slowBuilds, builds);
+            if (comparison != null) {
+                comparisons.put(null, comparison);
+            }
+            if (stageDurations == null) {
+                return comparisons;
+            }
+            for (Map.Entry<String, Long> stage : stageDurations.entrySet()) {
+                comparison = stages.computeIfAbsent(stage.getKey(), name -> new DurationBaseline())
+                        .update(stage.getValue(), factor, slowBuilds, builds);
+                if (comparison != null) {
+                    comparisons.put(stage.getKey(), comparison);
+                }
+            }
+            stages.values().removeIf(baseline -> builds - baseline.getLastUpdate() > MAX_IDLE_BUILDS);
+            return comparisons;
+        }
+    }
+}
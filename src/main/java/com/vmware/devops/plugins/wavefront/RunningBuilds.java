@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The builds which are running right now, registered when they start or, for pipelines resumed after
+ * a restart, when they are loaded, and removed when they complete, so running builds can be reported on
+ * every flush interval instead of only once they end.
+ */
+public class RunningBuilds {
+    private static final RunningBuilds INSTANCE = new RunningBuilds();
+
+    private final ConcurrentMap<String, RunningBuild> builds = new ConcurrentHashMap<>();
+    private Set<String> reportedJobs = Collections.emptySet();
+    private Set<String> reportedLabels = Collections.emptySet();
+
+    RunningBuilds() {
+    }
+
+    public static RunningBuilds get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param runId       the externalizable id of the run
+     * @param jobName     the sanitized job name
+     * @param label       the label the job is assigned to, null if none
+     * @param buildNumber the build number
+     * @param startMillis the start time of the build
+     */
+    public void started(String runId, String jobName, String label, String buildNumber, long startMillis) {
+        builds.put(runId, new RunningBuild(runId, jobName, label, buildNumber, startMillis));
+    }
+
+    public void completed(String runId) {
+        builds.remove(runId);
+    }
+
+    public Collection<RunningBuild> getBuilds() {
+        return Collections.unmodifiableCollection(builds.values());
+    }
+
+    /**
+     * @return the number of running builds per job, including a zero for the jobs which had running
+     * builds when this was called last time, so their gauges drop to zero
+     */
+    public synchronized Map<String, Integer> countByJob() {
+        Map<String, Integer> counts = count(reportedJobs, false);
+        reportedJobs = getRunning(counts);
+        return counts;
+    }
+
+    /**
+     * @return the number of running builds per label, see {@link #countByJob()}
+     */
+    public synchronized Map<String, Integer> countByLabel() {
+        Map<String, Integer> counts = count(reportedLabels, true);
+        reportedLabels = getRunning(counts);
+        return counts;
+    }
+
+    private static Set<String> getRunning(Map<String, Integer> counts) {
+        Set<String> running = new HashSet<>();
+        for (Map.Entry<String, Integer> count : counts.entrySet()) {
+            if (count.getValue() > 0) {
+                running.add(count.getKey());
+            }
+        }
+        return running;
+    }
+
+    private Map<String, Integer> count(Set<String> reported, boolean byLabel) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (RunningBuild build : builds.values()) {
+            String key = byLabel ? build.getLabel() : build.getJobName();
+            if (key != null) {
+                counts.merge(key, 1, Integer::sum);
+            }
+        }
+        for (String key : reported) {
+            counts.putIfAbsent(key, 0);
+        }
+        return counts;
+    }
+
+    /**
+     * @param limit the maximum number of builds
+     * @return the builds which have been running for the longest time, longest first
+     */
+    public List<RunningBuild> getLongestRunning(int limit) {
+        List<RunningBuild> result = new ArrayList<>(builds.values());
+        result.sort(Comparator.comparingLong(RunningBuild::getStartMillis));
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    /**
+     * @param durations the durations of recent builds
+     * @return the median, or -1 if there are no durations
+     */
+    static long median(List<Long> durations) {
+        if (durations.isEmpty()) {
+            return -1;
+        }
+        List<Long> sorted = new ArrayList<>(durations);
+        Collections.sort(sorted);
+        int middle = sorted.size() / 2;
+        return sorted.size() % 2 == 1 ? sorted.get(middle) : (sorted.get(middle - 1) + sorted.get(middle)) / 2;
+    }
+
+    public static final class RunningBuild {
+        private final String runId;
+        private final String jobName;
+        private final String label;
+        private final String buildNumber;
+        private final long startMillis;
+        private volatile long medianDuration = -1;
+        private final AtomicBoolean reported = new AtomicBoolean();
+
+        RunningBuild(String runId, String jobName, String label, String buildNumber, long startMillis) {
+            this.runId = runId;
+            this.jobName = jobName;
+            this.label = label;
+            this.buildNumber = buildNumber;
+            this.startMillis = startMillis;
+        }
+
+        public String getRunId() {
+            return runId;
+        }
+
+        public String getJobName() {
+            return jobName;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public String getBuildNumber() {
+            return buildNumber;
+        }
+
+        public long getStartMillis() {
+            return startMillis;
+        }
+
+        public long getElapsed(long now) {
+            return Math.max(0, now - startMillis);
+        }
+
+        /**
+         * @return the median duration of the recent builds of the job, -1 if not known yet
+         */
+        public long getMedianDuration() {
+            return medianDuration;
+        }
+
+        public void setMedianDuration(long medianDuration) {
+            this.medianDuration = medianDuration;
+        }
+
+        /**
+         * @param now    the current time
+         * @param factor the multiple of the median duration
+         * @return true if the build has been running longer than the factor times the median duration
+         */
+        public boolean isOverdue(long now, int factor) {
+            return factor > 0 && medianDuration > 0 && getElapsed(now) > factor * medianDuration;
+        }
+
+        /**
+         * @return true the first time it is called, so a long running build is reported once
+         */
+        public boolean markReported() {
+            return reported.compareAndSet(false, true);
+        }
+    }
+}
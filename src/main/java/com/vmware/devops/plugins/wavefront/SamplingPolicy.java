@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.model.Result;
+import hudson.model.Run;
+
+/**
+ * Decides deterministically whether the detailed metrics (pipeline stages, JUnit and JaCoCo reports)
+ * of a build are sent. One in {@code rate} builds of a job is sampled, based on the build number, and
+ * builds which did not succeed can always be sampled so outliers are kept.
+ */
+public final class SamplingPolicy {
+    private static final Logger LOGGER = Logger.getLogger(SamplingPolicy.class.getName());
+
+    public static final SamplingPolicy ALL = new SamplingPolicy(1, true);
+
+    private final int rate;
+    private final boolean alwaysSampleNonSuccessful;
+
+    /**
+     * @param rate                      one in rate builds is sampled, rates below 1 sample every build
+     * @param alwaysSampleNonSuccessful whether the builds which did not succeed are always sampled
+     */
+    public SamplingPolicy(int rate, boolean alwaysSampleNonSuccessful) {
+        this.rate = Math.max(1, rate);
+        this.alwaysSampleNonSuccessful = alwaysSampleNonSuccessful;
+    }
+
+    /**
+     * Resolves the policy of a run. The job property has precedence over the folder policies from
+     * the global configuration.
+     *
+     * @param run          the completed run
+     * @param wfManagement the global configuration
+     * @return the sampling policy for the run
+     */
+    public static SamplingPolicy forRun(Run run, WavefrontManagement wfManagement) {
+        WavefrontJobProperty jobProperty = (WavefrontJobProperty) run.getParent()
+                .getProperty(WavefrontJobProperty.class);
+        if (jobProperty != null && jobProperty.isEnableSampling()) {
+            return new SamplingPolicy(jobProperty.getSamplingRate(), jobProperty.isAlwaysSampleNonSuccessful());
+        }
+        return forFolder(wfManagement.getFolderSamplingPolicies(), run.getParent().getFullName());
+    }
+
+    /**
+     * Finds the folder policy with the longest folder path containing the job. Policies are given
+     * one per line in the form {@code folder/path=rate}.
+     *
+     * @param policies    the configured folder policies
+     * @param jobFullName the full name of the job
+     * @return the matching policy or {@link #ALL} if no folder matches
+     */
+    public static SamplingPolicy forFolder(String policies, String jobFullName) {
+        if (policies == null || policies.trim().isEmpty()) {
+            return ALL;
+        }
+        SamplingPolicy result = ALL;
+        int longestMatch = -1;
+        for (String line : policies.split("\\R+")) {
+            int separator = line.lastIndexOf('=');
+            if (separator <= 0) {
+                continue;
+            }
+            String folder = line.substring(0, separator).trim();
+            while (folder.endsWith("/")) {
+                folder = folder.substring(0, folder.length() - 1);
+            }
+            if (folder.length() > longestMatch && jobFullName.startsWith(folder + "/")) {
+                int rate = parseRate(line.substring(separator + 1));
+                if (rate > 0) {
+                    result = new SamplingPolicy(rate, true);
+                    longestMatch = folder.length();
+                } else {
+                    LOGGER.log(Level.WARNING, "Invalid sampling rate in folder policy: " + line);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param policies the folder policies, one per line in the form {@code folder/path=rate}
+     * @return the error message for the first invalid policy, null if all policies are valid
+     */
+    public static String validate(String policies) {
+        if (policies == null) {
+            return null;
+        }
+        for (String line : policies.split("\\R+")) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            int separator = line.lastIndexOf('=');
+            if (separator <= 0) {
+                return "Invalid folder policy '" + line.trim() + "', expected folder/path=rate";
+            }
+            if (parseRate(line.substring(separator + 1)) < 1) {
+                return "Invalid sampling rate in folder policy '" + line.trim() + "', expected a number of at least 1";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the rate, 0 if it isn't a number
+     */
+    private static int parseRate(String rate) {
+        try {
+            return Integer.parseInt(rate.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @param run the completed run
+     * @return true if the detailed metrics of the run should be sent
+     */
+    public boolean isSampled(Run run) {
+        if (isSampledAsNonSuccessful(run)) {
+            return true;
+        }
+        return rate > 0 && run.getNumber() % rate == 0;
+    }
+
+    /**
+     * The rate which the points of a sampled run represent, so that dashboards can rescale them.
+     * Non successful runs are always sampled and hence represent only themselves.
+     *
+     * @param run the completed run
+     * @return the sample rate to attach to the points of the run
+     */
+    public int getEffectiveRate(Run run) {
+        if (isSampledAsNonSuccessful(run)) {
+            return 1;
+        }
+        return rate;
+    }
+
+    private boolean isSampledAsNonSuccessful(Run run) {
+        Result result = run.getResult();
+        return alwaysSampleNonSuccessful && result != null && result != Result.SUCCESS;
+    }
+
+    public int getRate() {
+        return rate;
+    }
+
+    public boolean isAlwaysSampleNonSuccessful() {
+        return alwaysSampleNonSuccessful;
+    }
+}
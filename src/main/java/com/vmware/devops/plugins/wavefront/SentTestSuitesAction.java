@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.model.InvisibleAction;
+import hudson.model.Run;
+
+/**
+ * The junit steps of a running build whose test suites were already sent when the step ended, saved with the
+ * build so the suites aren't sent again when it completes, even after a restart.
+ */
+public class SentTestSuitesAction extends InvisibleAction {
+    private static final Logger LOGGER = Logger.getLogger(SentTestSuitesAction.class.getName());
+
+    private final Set<String> nodeIds = new HashSet<>();
+    private boolean completed;
+
+    /**
+     * @param run    the running build
+     * @param nodeId the flow node id of the junit step
+     * @return false if the suites of the step were already sent or the build completed, so they mustn't be sent
+     */
+    public static boolean markSent(Run<?, ?> run, String nodeId) {
+        SentTestSuitesAction action;
+        synchronized (SentTestSuitesAction.class) {
+            action = run.getAction(SentTestSuitesAction.class);
+            if (action == null) {
+                action = new SentTestSuitesAction();
+                run.addAction(action);
+            }
+        }
+        if (!action.add(nodeId)) {
+            return false;
+        }
+        try {
+            run.save();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save the sent test suites of " + run.getFullDisplayName(), e);
+        }
+        return true;
+    }
+
+    /**
+     * Marks the build as completed, so the suites of the remaining junit steps are sent with the build.
+     *
+     * @return the flow node ids of the junit steps whose suites were already sent
+     */
+    public static Set<String> complete(Run<?, ?> run) {
+        SentTestSuitesAction action = run.getAction(SentTestSuitesAction.class);
+        return action != null ? action.complete() : Collections.emptySet();
+    }
+
+    private synchronized boolean add(String nodeId) {
+        return !completed && nodeIds.add(nodeId);
+    }
+
+    private synchronized Set<String> complete() {
+        completed = true;
+        return new HashSet<>(nodeIds);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.jenkinsci.plugins.workflow.actions.BodyInvocationAction;
+import org.jenkinsci.plugins.workflow.actions.TimingAction;
+import org.jenkinsci.plugins.workflow.cps.nodes.StepStartNode;
+import org.jenkinsci.plugins.workflow.graph.BlockStartNode;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+
+/**
+ * Splits the duration of stages into active and waiting time. Waiting is attributed to every
+ * enclosing stage by reason:
+ * <ul>
+ * <li>executor - from the start of a {@code node} step until its body runs on the allocated executor</li>
+ * <li>lock - from the start of a {@code lock} step until its body runs with the resource</li>
+ * <li>input - the whole {@code input} step</li>
+ * <li>sleep - the whole {@code sleep} step</li>
+ * <li>condition - the whole {@code waitUntil} step</li>
+ * </ul>
+ * Nodes are fed in the order of a backwards walk over the flow graph, so the waiting time of a stage
+ * is complete when its start node is reached.
+ */
+final class StageWaitTimes {
+    enum Reason {
+        EXECUTOR,
+        LOCK,
+        INPUT,
+        SLEEP,
+        CONDITION;
+
+        String getMetricName() {
+            return name().toLowerCase(Locale.ENGLISH);
+        }
+    }
+
+    private final Map<String, long[]> waitingByStage = new HashMap<>();
+
+    /**
+     * @param node         the next node of the backwards walk
+     * @param stepDuration the duration of the node if it is a step without a body, see {@link StepDurations}
+     */
+    void visit(FlowNode node, Long stepDuration) {
+        if (stepDuration != null) {
+            Reason reason = getAtomReason(node);
+            if (reason != null) {
+                record(getStageIds(node), reason, stepDuration);
+            }
+        } else if (node instanceof StepStartNode && node.getAction(BodyInvocationAction.class) != null) {
+            long start = TimingAction.getStartTime(node);
+            for (FlowNode step : node.getParents()) {
+                Reason reason = getBodyReason(step);
+                if (reason != null) {
+                    record(getStageIds(step), reason, start - TimingAction.getStartTime(step));
+                }
+            }
+        }
+    }
+
+    /**
+     * @param node     the start node of a block
+     * @param duration the duration of the block
+     */
+    void visitBlock(BlockStartNode node, long duration) {
+        if (node.getAction(BodyInvocationAction.class) == null
+                && "waitUntil".equals(StepDurations.getFunctionName(node))) {
+            record(getStageIds(node), Reason.CONDITION, duration);
+        }
+    }
+
+    /**
+     * Removes the waiting time of a stage, once all its nodes have been visited.
+     *
+     * @param stageId  the ID of the start node of the stage
+     * @param duration the duration of the stage
+     * @return the active and waiting times of the stage
+     */
+    Breakdown remove(String stageId, long duration) {
+        return new Breakdown(duration, waitingByStage.remove(stageId));
+    }
+
+    void record(List<String> stageIds, Reason reason, long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        for (String stageId : stageIds) {
+            waitingByStage.computeIfAbsent(stageId, k -> new long[Reason.values().length])[reason.ordinal()] += millis;
+        }
+    }
+
+    private static List<String> getStageIds(FlowNode node) {
+        List<String> stageIds = new ArrayList<>();
+        for (BlockStartNode block : node.iterateEnclosingBlocks()) {
+            if (WavefrontBuildListener.isStageNode(block)) {
+                stageIds.add(block.getId());
+            }
+        }
+        return stageIds;
+    }
+
+    private static Reason getAtomReason(FlowNode node) {
+        String functionName = StepDurations.getFunctionName(node);
+        if ("input".equals(functionName)) {
+            return Reason.INPUT;
+        } else if ("sleep".equals(functionName)) {
+            return Reason.SLEEP;
+        }
+        return null;
+    }
+
+    private static Reason getBodyReason(FlowNode node) {
+        String functionName = StepDurations.getFunctionName(node);
+        if ("node".equals(functionName)) {
+            return Reason.EXECUTOR;
+        } else if ("lock".equals(functionName)) {
+            return Reason.LOCK;
+        }
+        return null;
+    }
+
+    static final class Breakdown {
+        private final long duration;
+        private final long[] waiting;
+
+        Breakdown(long duration, long[] waiting) {
+            this.duration = duration;
+            this.waiting = waiting != null ? waiting : new long[Reason.values().length];
+        }
+
+        long getWaiting(Reason reason) {
+            return waiting[reason.ordinal()];
+        }
+
+        /**
+         * @return the total waiting time, at most the duration of the stage as waits in parallel branches overlap
+         */
+        long getWaiting() {
+            long total = 0;
+            for (long millis : waiting) {
+                total += millis;
+            }
+            return Math.min(total, duration);
+        }
+
+        long getActive() {
+            return Math.max(0, duration - getWaiting());
+        }
+    }
+}
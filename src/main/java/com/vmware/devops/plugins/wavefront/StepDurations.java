@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jenkinsci.plugins.workflow.actions.TimingAction;
+import org.jenkinsci.plugins.workflow.cps.nodes.StepAtomNode;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.graph.StepNode;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+
+/**
+ * Computes the durations of steps without a body during a backwards walk over the flow graph. Such a
+ * step ends when the node after it starts, which the walk visits first, so only the start times of
+ * the nodes after the steps not visited yet are kept.
+ */
+final class StepDurations {
+    private final Map<String, Long> nextNodeStarts = new HashMap<>();
+
+    /**
+     * @param node the next node of the backwards walk
+     * @return the duration of the node if it is a step without a body which has ended, null otherwise
+     */
+    Long visit(FlowNode node) {
+        long start = TimingAction.getStartTime(node);
+        Long duration = null;
+        if (node instanceof StepAtomNode) {
+            Long end = nextNodeStarts.remove(node.getId());
+            if (end != null) {
+                duration = Math.max(0, end - start);
+            }
+        }
+        for (FlowNode parent : node.getParents()) {
+            if (parent instanceof StepAtomNode) {
+                nextNodeStarts.merge(parent.getId(), start, Math::min);
+            }
+        }
+        return duration;
+    }
+
+    /**
+     * @return the pipeline function name of a step node, e.g. {@code sh}, null for other nodes
+     */
+    static String getFunctionName(FlowNode node) {
+        if (node instanceof StepNode) {
+            StepDescriptor descriptor = ((StepNode) node).getDescriptor();
+            return descriptor != null ? descriptor.getFunctionName() : null;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import com.vmware.devops.plugins.wavefront.util.LongDoubleMap;
+
+/**
+ * The last sent duration of every passed test of a job, keyed by a 64-bit hash of the sanitized test name.
+ * A passed test is only sent again when its duration moved away from the last sent one by more than the
+ * tolerance, and every test is sent on each full refresh. The index is stored in a small binary file in
+ * the job directory.
+ */
+public class TestDurationIndex {
+    static final String FILE_NAME = "wavefront-test-durations.bin";
+    /**
+     * Changes below this many milliseconds are noise, whatever the tolerance.
+     */
+    static final double MIN_CHANGE_MILLIS = 10;
+    private static final int VERSION = 1;
+
+    private final LongDoubleMap previous;
+    private final LongDoubleMap next;
+    private final double tolerance;
+    private final boolean refresh;
+    private final int builds;
+
+    /**
+     * @param previous         the durations sent for the previous builds, null if there are none
+     * @param builds           the number of builds since the last full refresh
+     * @param tolerancePercent the change in percent below which a duration is not sent again
+     * @param refreshBuilds    the number of builds between full refreshes
+     */
+    TestDurationIndex(LongDoubleMap previous, int builds, int tolerancePercent, int refreshBuilds) {
+        this.refresh = previous == null || builds + 1 >= refreshBuilds;
+        this.previous = previous;
+        this.next = new LongDoubleMap(previous != null ? previous.size() : 0);
+        this.tolerance = tolerancePercent / 100.0;
+        this.builds = refresh ? 0 : builds + 1;
+    }
+
+    /**
+     * Loads the index of the job.
+     *
+     * @param jobDir           the job directory
+     * @param tolerancePercent the change in percent below which a duration is not sent again
+     * @param refreshBuilds    the number of builds between full refreshes
+     */
+    public static TestDurationIndex load(File jobDir, int tolerancePercent, int refreshBuilds) throws IOException {
+        File file = new File(jobDir, FILE_NAME);
+        if (!file.exists()) {
+            return new TestDurationIndex(null, 0, tolerancePercent, refreshBuilds);
+        }
+        try (InputStream in = Files.newInputStream(file.toPath());
+             DataInputStream data = new DataInputStream(new BufferedInputStream(in))) {
+            if (data.readInt() != VERSION) {
+                return new TestDurationIndex(null, 0, tolerancePercent, refreshBuilds);
+            }
+            int builds = data.readInt();
+            int size = data.readInt();
+            LongDoubleMap durations = new LongDoubleMap(size);
+            for (int i = 0; i < size; i++) {
+                durations.put(data.readLong(), data.readDouble());
+            }
+            return new TestDurationIndex(durations, builds, tolerancePercent, refreshBuilds);
+        }
+    }
+
+    /**
+     * Saves the durations of the tests checked with {@link #isChanged(String, double)} to the job directory.
+     * The index is loaded and saved holding the {@link JobLocks lock of the job}.
+     */
+    public void save(File jobDir) throws IOException {
+        File file = new File(jobDir, FILE_NAME);
+        Path tmp = Files.createTempFile(jobDir.toPath(), FILE_NAME, ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp);
+                 DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out))) {
+                data.writeInt(VERSION);
+                data.writeInt(builds);
+                long[] hashes = next.keys();
+                data.writeInt(hashes.length);
+                for (long hash : hashes) {
+                    data.writeLong(hash);
+                    data.writeDouble(next.get(hash));
+                }
+            }
+            Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Compares the duration of a passed test with its last sent duration and records it for the next build.
+     * The result only depends on the loaded index, so comparing again when the build completes records the
+     * decision taken for a test sent when its junit step ended.
+     *
+     * @param testName the sanitized test name
+     * @param duration the duration in milliseconds
+     * @return true if the duration has to be sent
+     */
+    public boolean isChanged(String testName, double duration) {
+        long hash = hash(testName);
+        double last = previous != null ? previous.get(hash) : Double.NaN;
+        boolean changed = refresh || Double.isNaN(last)
+                || Math.abs(duration - last) > Math.max(MIN_CHANGE_MILLIS, last * tolerance);
+        next.put(hash, changed ? duration : last);
+        return changed;
+    }
+
+    /**
+     * @return true if every test is sent for this build
+     */
+    public boolean isRefresh() {
+        return refresh;
+    }
+
+    /**
+     * @return the FNV-1a hash of the name, never 0
+     */
+    static long hash(String name) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < name.length(); i++) {
+            hash ^= name.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash != 0 ? hash : 1;
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.vmware.devops.plugins.wavefront.util.LongIntMap;
+
+/**
+ * The outcomes and the average duration of every test of a job over its last builds with test results. The
+ * outcomes are two bit sets per test, one bit per build: whether the test ran and whether it failed, so the
+ * window is at most 64 builds and the history of a test takes a few dozen bytes. Recording a build is linear
+ * in the number of tests, and the history is stored in a binary file in the job directory.
+ */
+public class TestHistory {
+    static final String FILE_NAME = "wavefront-test-history.bin";
+    static final int MAX_WINDOW = 64;
+    /**
+     * A test is slow when it takes this many times its average duration.
+     */
+    static final double SLOW_FACTOR = 2;
+    /**
+     * Slowdowns below this many milliseconds are noise.
+     */
+    static final double MIN_SLOWDOWN_MILLIS = 100;
+    /**
+     * The number of runs a test needs before its average is trusted.
+     */
+    static final int MIN_RUNS = 5;
+    private static final double ALPHA = 0.2;
+    private static final int VERSION = 1;
+    private static final byte SLOW = 1;
+
+    private final long mask;
+    private final int topSize;
+    private final LongIntMap previousSlots;
+    private final long[] previousRuns;
+    private final long[] previousFailures;
+    private final float[] previousAverages;
+    private final byte[] previousFlags;
+    private final boolean[] recorded;
+    // the tests which are new in this build, by the slot they were added at
+    private final LongIntMap added = new LongIntMap(16);
+
+    private long[] hashes;
+    private long[] runs;
+    private long[] failures;
+    private float[] averages;
+    private byte[] flags;
+    private int size;
+
+    private int flakyCount;
+    private int newlySlowCount;
+    private final PriorityQueue<FlakyTest> top = new PriorityQueue<>(Comparator.comparingDouble(FlakyTest::getScore));
+
+    private TestHistory(int window, int topSize, long[] previousHashes, long[] previousRuns,
+            long[] previousFailures, float[] previousAverages, byte[] previousFlags) {
+        this.mask = window >= MAX_WINDOW ? -1L : (1L << window) - 1;
+        this.topSize = topSize;
+        this.previousSlots = new LongIntMap(previousHashes.length);
+        for (int i = 0; i < previousHashes.length; i++) {
+            previousSlots.put(previousHashes[i], i);
+        }
+        this.previousRuns = previousRuns;
+        this.previousFailures = previousFailures;
+        this.previousAverages = previousAverages;
+        this.previousFlags = previousFlags;
+        this.recorded = new boolean[previousHashes.length];
+        int capacity = Math.max(16, previousHashes.length);
+        this.hashes = new long[capacity];
+        this.runs = new long[capacity];
+        this.failures = new long[capacity];
+        this.averages = new float[capacity];
+        this.flags = new byte[capacity];
+    }
+
+    /**
+     * @param window  the number of builds to keep, up to {@link #MAX_WINDOW}
+     * @param topSize the number of most flaky tests to keep the names of
+     */
+    static TestHistory empty(int window, int topSize) {
+        return new TestHistory(window, topSize, new long[0], new long[0], new long[0], new float[0], new byte[0]);
+    }
+
+    /**
+     * Loads the history of the job, to record a new build.
+     *
+     * @param jobDir  the job directory
+     * @param window  the number of builds to keep, up to {@link #MAX_WINDOW}
+     * @param topSize the number of most flaky tests to keep the names of
+     */
+    public static TestHistory load(File jobDir, int window, int topSize) throws IOException {
+        File file = new File(jobDir, FILE_NAME);
+        if (!file.exists()) {
+            return empty(window, topSize);
+        }
+        try (InputStream in = Files.newInputStream(file.toPath());
+             DataInputStream data = new DataInputStream(new BufferedInputStream(in))) {
+            if (data.readInt() != VERSION) {
+                return empty(window, topSize);
+            }
+            int size = data.readInt();
+            long[] hashes = new long[size];
+            long[] runs = new long[size];
+            long[] failures = new long[size];
+            float[] averages = new float[size];
+            byte[] flags = new byte[size];
+            for (int i = 0; i < size; i++) {
+                hashes[i] = data.readLong();
+                runs[i] = data.readLong();
+                failures[i] = data.readLong();
+                averages[i] = data.readFloat();
+                flags[i] = data.readByte();
+            }
+            return new TestHistory(window, topSize, hashes, runs, failures, averages, flags);
+        }
+    }
+
+    /**
+     * Records the outcome of a test which ran in the new build. Skipped tests aren't recorded.
+     *
+     * @param testName the sanitized test name
+     * @param duration the duration in milliseconds
+     * @param failed   whether the test failed
+     */
+    public void record(String testName, double duration, boolean failed) {
+        long hash = TestDurationIndex.hash(testName);
+        int previous = previousSlots.get(hash);
+        long testRuns = 1;
+        long testFailures = failed ? 1 : 0;
+        double average = duration;
+        byte testFlags = 0;
+        if (previous < 0) {
+            if (added.get(hash) >= 0) {
+                return;
+            }
+            added.put(hash, size);
+        } else {
+            if (recorded[previous]) {
+                return;
+            }
+            recorded[previous] = true;
+            testRuns = (previousRuns[previous] << 1 | testRuns) & mask;
+            testFailures = (previousFailures[previous] << 1 | testFailures) & mask;
+            average = previousAverages[previous];
+            if (!failed && Long.bitCount(previousRuns[previous]) >= MIN_RUNS && duration > SLOW_FACTOR * average
+                    && duration - average > MIN_SLOWDOWN_MILLIS) {
+                testFlags = SLOW;
+                if ((previousFlags[previous] & SLOW) == 0) {
+                    newlySlowCount++;
+                }
+            }
+            // failed runs often stop early, they would drag the average down
+            if (!failed) {
+                average += ALPHA * (duration - average);
+            }
+        }
+        add(hash, testRuns, testFailures, (float) average, testFlags);
+
+        double score = getFlakiness(testRuns, testFailures);
+        if (score > 0) {
+            flakyCount++;
+            if (top.size() < topSize || score > top.peek().getScore()) {
+                top.add(new FlakyTest(testName, score, Long.bitCount(testFailures), Long.bitCount(testRuns)));
+                if (top.size() > topSize) {
+                    top.poll();
+                }
+            }
+        }
+    }
+
+    private void add(long hash, long testRuns, long testFailures, float average, byte testFlags) {
+        if (size == hashes.length) {
+            int capacity = size * 2;
+            hashes = Arrays.copyOf(hashes, capacity);
+            runs = Arrays.copyOf(runs, capacity);
+            failures = Arrays.copyOf(failures, capacity);
+            averages = Arrays.copyOf(averages, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+        }
+        hashes[size] = hash;
+        runs[size] = testRuns;
+        failures[size] = testFailures;
+        averages[size] = average;
+        flags[size] = testFlags;
+        size++;
+    }
+
+    /**
+     * Saves the history with the new build. Tests which didn't run in the new build are kept until they haven't
+     * run for the whole window. The history is loaded and saved holding the {@link JobLocks lock of the job}.
+     */
+    public void save(File jobDir) throws IOException {
+        long[] previousHashes = previousSlots.keys();
+        for (long hash : previousHashes) {
+            int previous = previousSlots.get(hash);
+            long testRuns = (previousRuns[previous] << 1) & mask;
+            if (!recorded[previous] && testRuns != 0) {
+                add(hash, testRuns, (previousFailures[previous] << 1) & mask, previousAverages[previous],
+                        previousFlags[previous]);
+            }
+        }
+        File file = new File(jobDir, FILE_NAME);
+        Path tmp = Files.createTempFile(jobDir.toPath(), FILE_NAME, ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp);
+                 DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out))) {
+                data.writeInt(VERSION);
+                data.writeInt(size);
+                for (int i = 0; i < size; i++) {
+                    data.writeLong(hashes[i]);
+                    data.writeLong(runs[i]);
+                    data.writeLong(failures[i]);
+                    data.writeFloat(averages[i]);
+                    data.writeByte(flags[i]);
+                }
+            }
+            Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * @return the number of recorded tests which are flaky over the window
+     */
+    public int getFlakyCount() {
+        return flakyCount;
+    }
+
+    /**
+     * @return the number of recorded tests which are slow in the new build but weren't in their previous run
+     */
+    public int getNewlySlowCount() {
+        return newlySlowCount;
+    }
+
+    /**
+     * @return the most flaky of the recorded tests, most flaky first
+     */
+    public List<FlakyTest> getTopFlakyTests() {
+        List<FlakyTest> tests = new ArrayList<>(top);
+        tests.sort(Comparator.comparingDouble(FlakyTest::getScore).reversed());
+        return tests;
+    }
+
+    /**
+     * The flakiness of a test is the share of its consecutive runs with a different outcome. A test which broke
+     * or was fixed once changed its outcome only once, so it isn't flaky.
+     *
+     * @param testRuns     the builds the test ran in, the latest in the lowest bit
+     * @param testFailures the builds the test failed in
+     * @return the flakiness between 0 and 1
+     */
+    static double getFlakiness(long testRuns, long testFailures) {
+        int count = Long.bitCount(testRuns);
+        if (count < 3) {
+            return 0;
+        }
+        int flips = 0;
+        boolean first = true;
+        boolean lastFailed = false;
+        for (long remaining = testRuns; remaining != 0; remaining &= remaining - 1) {
+            boolean testFailed = (testFailures & Long.lowestOneBit(remaining)) != 0;
+            if (!first && testFailed != lastFailed) {
+                flips++;
+            }
+            first = false;
+            lastFailed = testFailed;
+        }
+        return flips < 2 ? 0 : (double) flips / (count - 1);
+    }
+
+    public static class FlakyTest {
+        private final String name;
+        private final double score;
+        private final int failures;
+        private final int runs;
+
+        FlakyTest(String name, double score, int failures, int runs) {
+            this.name = name;
+            this.score = score;
+            this.failures = failures;
+            this.runs = runs;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        public int getFailures() {
+            return failures;
+        }
+
+        public int getRuns() {
+            return runs;
+        }
+    }
+}
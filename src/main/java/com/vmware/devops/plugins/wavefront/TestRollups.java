@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rolls the test cases of a report up to their classes and to the packages of the classes, down to a maximum
+ * package depth. The packages are a trie of name segments, so each case is added with one walk down its class
+ * name and the rollups of every level are complete after a single pass over the report.
+ */
+public class TestRollups {
+    private final int depth;
+    private final Node root = new Node(null);
+    private final Map<String, Rollup> classes = new HashMap<>();
+
+    /**
+     * @param depth the number of package levels to roll up, 1 for the top level packages only
+     */
+    public TestRollups(int depth) {
+        this.depth = depth;
+    }
+
+    /**
+     * @param className the fully qualified class name of the test case
+     * @param duration  the duration in milliseconds
+     * @param failed    whether the test case failed
+     */
+    public void add(String className, double duration, boolean failed) {
+        classes.computeIfAbsent(className, Rollup::new).add(duration, failed);
+        Node node = root;
+        int start = 0;
+        // the last segment is the simple class name, not a package
+        for (int level = 0, end = className.indexOf('.'); level < depth && end > 0;
+                level++, start = end + 1, end = className.indexOf('.', start)) {
+            Node parent = node;
+            node = parent.children.computeIfAbsent(className.substring(start, end),
+                    segment -> new Node(parent.rollup == null ? segment : parent.rollup.name + "." + segment));
+            node.rollup.add(duration, failed);
+        }
+    }
+
+    /**
+     * @return the rollups of the packages, parents before their children
+     */
+    public List<Rollup> getPackages() {
+        List<Rollup> packages = new ArrayList<>();
+        collect(root, packages);
+        return packages;
+    }
+
+    private static void collect(Node node, List<Rollup> packages) {
+        for (Node child : node.children.values()) {
+            packages.add(child.rollup);
+            collect(child, packages);
+        }
+    }
+
+    public Iterable<Rollup> getClasses() {
+        return classes.values();
+    }
+
+    private static final class Node {
+        private final Rollup rollup;
+        private final Map<String, Node> children = new HashMap<>();
+
+        private Node(String name) {
+            this.rollup = name != null ? new Rollup(name) : null;
+        }
+    }
+
+    public static class Rollup {
+        private final String name;
+        private int count;
+        private int failCount;
+        private double duration;
+        private double maxDuration;
+
+        Rollup(String name) {
+            this.name = name;
+        }
+
+        void add(double testDuration, boolean failed) {
+            count++;
+            if (failed) {
+                failCount++;
+            }
+            duration += testDuration;
+            maxDuration = Math.max(maxDuration, testDuration);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public int getFailCount() {
+            return failCount;
+        }
+
+        /**
+         * @return the total duration of the test cases in milliseconds
+         */
+        public double getDuration() {
+            return duration;
+        }
+
+        public double getMaxDuration() {
+            return maxDuration;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Values of {@code wavefrontTimedCall} timers folded into one distribution per build, timer and
+ * tags, so a timer inside a loop produces a single point per build instead of one per iteration.
+ * Separate instances fold the durations of pipeline steps per step type.
+ * Values are rounded to three significant digits (at most 0.5% off), which bounds the number of
+ * centroids to 900 per power of ten, and the distributions are sent when the build completes.
+ */
+public class TimerDistributions {
+    private static final TimerDistributions INSTANCE = new TimerDistributions();
+    static final int SIGNIFICANT_DIGITS = 3;
+
+    private final ConcurrentMap<String, ConcurrentMap<Key, Distribution>> runs = new ConcurrentHashMap<>();
+
+    TimerDistributions() {
+    }
+
+    public static TimerDistributions get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param runId      the externalizable id of the run
+     * @param metricName the metric name without the job metrics prefix
+     * @param tags       the point tags
+     * @param value      the measured value
+     */
+    public void record(String runId, String metricName, Map<String, String> tags, double value) {
+        runs.computeIfAbsent(runId, id -> new ConcurrentHashMap<>())
+                .computeIfAbsent(new Key(metricName, tags), key -> new Distribution())
+                .add(value);
+    }
+
+    /**
+     * Removes the distributions of a run.
+     *
+     * @param runId the externalizable id of the run
+     * @return the distributions recorded for the run
+     */
+    public List<Entry> drain(String runId) {
+        Map<Key, Distribution> distributions = runs.remove(runId);
+        if (distributions == null) {
+            return Collections.emptyList();
+        }
+        List<Entry> result = new ArrayList<>(distributions.size());
+        for (Map.Entry<Key, Distribution> e : distributions.entrySet()) {
+            result.add(e.getValue().toEntry(e.getKey()));
+        }
+        return result;
+    }
+
+    static double round(double value) {
+        if (value == 0 || Double.isNaN(value) || Double.isInfinite(value)) {
+            return value;
+        }
+        double scale = Math.pow(10, SIGNIFICANT_DIGITS - 1 - (int) Math.floor(Math.log10(Math.abs(value))));
+        return Math.round(value * scale) / scale;
+    }
+
+    private static final class Key {
+        private final String metricName;
+        private final Map<String, String> tags;
+
+        Key(String metricName, Map<String, String> tags) {
+            this.metricName = metricName;
+            this.tags = new HashMap<>(tags);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return metricName.equals(key.metricName) && tags.equals(key.tags);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(metricName, tags);
+        }
+    }
+
+    private static final class Distribution {
+        private final TreeMap<Double, Integer> centroids = new TreeMap<>();
+
+        synchronized void add(double value) {
+            centroids.merge(round(value), 1, Integer::sum);
+        }
+
+        synchronized Entry toEntry(Key key) {
+            double[] values = new double[centroids.size()];
+            int[] counts = new int[centroids.size()];
+            int i = 0;
+            for (Map.Entry<Double, Integer> centroid : centroids.entrySet()) {
+                values[i] = centroid.getKey();
+                counts[i] = centroid.getValue();
+                i++;
+            }
+            return new Entry(key.metricName, key.tags, values, counts);
+        }
+    }
+
+    /**
+     * The distribution of a timer in one run.
+     */
+    public static final class Entry {
+        private final String metricName;
+        private final Map<String, String> tags;
+        private final double[] values;
+        private final int[] counts;
+
+        Entry(String metricName, Map<String, String> tags, double[] values, int[] counts) {
+            this.metricName = metricName;
+            this.tags = tags;
+            this.values = values;
+            this.counts = counts;
+        }
+
+        public String getMetricName() {
+            return metricName;
+        }
+
+        public Map<String, String> getTags() {
+            return tags;
+        }
+
+        public double[] getValues() {
+            return values.clone();
+        }
+
+        public int[] getCounts() {
+            return counts.clone();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+
+import org.jenkinsci.plugins.workflow.actions.LabelAction;
+import org.jenkinsci.plugins.workflow.actions.TimingAction;
+import org.jenkinsci.plugins.workflow.cps.nodes.StepAtomNode;
+import org.jenkinsci.plugins.workflow.graph.BlockStartNode;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+
+import hudson.model.Result;
+
+/**
+ * Turns a pipeline run into a trace. The run is the root span, stages and parallel branches are the
+ * children of their enclosing stage or branch and, optionally, steps are spans as well.
+ * <p>
+ * Span IDs are derived from the run and the flow node, so parents are known without keeping their
+ * spans around: every span is published as soon as the walk over the flow graph has closed it, and
+ * the sinks send them to the proxy in batches.
+ */
+final class TraceBuilder {
+    static final String APPLICATION = "Jenkins";
+    static final String STAGE = "stage";
+    static final String PARALLEL = "parallel";
+    static final String STEP = "step";
+    private static final String SPAN_TYPE = "Span Type";
+    private static final String STATUS = "Status";
+    private static final String BUILD_NUMBER = "Build Number";
+    private static final String FAILURE = "FAILURE";
+
+    private final WorkflowRun run;
+    private final String runId;
+    private final UUID traceId;
+    private final UUID rootSpanId;
+    private final Map<String, String> tags = new HashMap<>();
+    private final boolean stepSpans;
+    private final MetricEmitter emitter;
+
+    /**
+     * @param service   the service of the spans, the name of the job
+     * @param stepSpans whether every step is a span as well
+     */
+    TraceBuilder(WorkflowRun run, String service, boolean stepSpans, MetricEmitter emitter) {
+        this.run = run;
+        this.runId = run.getExternalizableId();
+        this.traceId = traceId(runId);
+        this.rootSpanId = spanId(runId, null);
+        this.stepSpans = stepSpans;
+        this.emitter = emitter;
+        tags.put("application", APPLICATION);
+        tags.put("service", service);
+        tags.put(BUILD_NUMBER, run.getId());
+    }
+
+    static UUID traceId(String runId) {
+        return UUID.nameUUIDFromBytes(runId.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param nodeId the ID of the flow node, null for the root span of the run
+     */
+    static UUID spanId(String runId, String nodeId) {
+        String name = runId + "#" + (nodeId == null ? "run" : nodeId);
+        return UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8));
+    }
+
+    void sendRootSpan() {
+        Result result = run.getResult();
+        Map<String, String> spanTags = spanTags(null, result != null ? result.toString() : null);
+        emitter.sendSpan(tags.get("service"), run.getStartTimeInMillis(), run.getDuration(), traceId, rootSpanId,
+                null, spanTags);
+    }
+
+    /**
+     * Called for every node of the backwards walk over the flow graph. Sends the span of a step without
+     * a body.
+     *
+     * @param stepDuration the duration of the node if it is a step without a body, see {@link StepDurations}
+     * @param status       computes the status of a step node
+     */
+    void visit(FlowNode node, Long stepDuration, Function<FlowNode, String> status) {
+        if (!stepSpans || !(node instanceof StepAtomNode)) {
+            return;
+        }
+        long start = TimingAction.getStartTime(node);
+        // the last step of a run ends with the run
+        long duration = stepDuration != null ? stepDuration
+                : Math.max(0, run.getStartTimeInMillis() + run.getDuration() - start);
+        emitter.sendSpan(node.getDisplayFunctionName(), start, duration, traceId, spanId(runId, node.getId()),
+                parentSpanId(node), spanTags(STEP, status.apply(node)));
+    }
+
+    /**
+     * @param type one of {@link #STAGE} and {@link #PARALLEL}
+     */
+    void sendBlockSpan(String name, String type, BlockStartNode start, long duration, String status) {
+        emitter.sendSpan(name, TimingAction.getStartTime(start), duration, traceId, spanId(runId, start.getId()),
+                parentSpanId(start), spanTags(type, status));
+    }
+
+    private UUID parentSpanId(FlowNode node) {
+        for (BlockStartNode block : node.iterateEnclosingBlocks()) {
+            // stages and parallel branches, the blocks which are spans
+            if (block.getAction(LabelAction.class) != null) {
+                return spanId(runId, block.getId());
+            }
+        }
+        return rootSpanId;
+    }
+
+    private Map<String, String> spanTags(String type, String status) {
+        Map<String, String> spanTags = new HashMap<>(tags);
+        if (type != null) {
+            spanTags.put(SPAN_TYPE, type);
+        }
+        if (status != null) {
+            spanTags.put(STATUS, status);
+            if (FAILURE.equals(status)) {
+                spanTags.put("error", "true");
+            }
+        }
+        return spanTags;
+    }
+}
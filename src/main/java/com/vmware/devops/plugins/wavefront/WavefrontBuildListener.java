@@ -27,12 +27,18 @@ package com.vmware.devops.plugins.wavefront;
 import java.io.IOException;
 import java.util.AbstractMap;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -45,6 +51,8 @@ import org.jenkinsci.plugins.workflow.actions.TimingAction;
 import org.jenkinsci.plugins.workflow.graph.BlockEndNode;
 import org.jenkinsci.plugins.workflow.graph.BlockStartNode;
 import org.jenkinsci.plugins.workflow.graph.FlowGraphWalker;
+import org.jenkinsci.plugins.workflow.flow.FlowExecution;
+import org.jenkinsci.plugins.workflow.flow.FlowExecutionList;
 import org.jenkinsci.plugins.workflow.graph.FlowNode;
 import org.jenkinsci.plugins.workflow.job.WorkflowRun;
 
@@ -52,16 +60,28 @@ import com.vmware.devops.plugins.wavefront.exceptions.NullPointerArgumentExcepti
 import com.vmware.devops.plugins.wavefront.util.Sanitizer;
 
 import hudson.Extension;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
 import hudson.model.Action;
+import hudson.model.Executor;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.OneOffExecutor;
 import hudson.model.ParameterValue;
 import hudson.model.ParametersAction;
+import hudson.model.Queue;
 import hudson.model.Result;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.model.listeners.RunListener;
 import hudson.plugins.jacoco.JacocoBuildAction;
+import hudson.plugins.jacoco.JacocoHealthReportThresholds;
+import hudson.plugins.jacoco.model.Coverage;
+import hudson.plugins.jacoco.report.CoverageReport;
+import hudson.plugins.jacoco.report.PackageReport;
+import hudson.tasks.junit.CaseResult;
+import hudson.tasks.junit.SuiteResult;
 import hudson.tasks.junit.TestResultAction;
-import hudson.tasks.test.TestResult;
 
 @Extension
 public class WavefrontBuildListener extends RunListener<Run> {
@@ -73,7 +93,17 @@ public class WavefrontBuildListener extends RunListener<Run> {
     private static final String PASSED = "Passed";
     private static final String FAILED = "Failed";
     private static final String SKIPPED = "Skipped";
+    private static final String SAMPLE_RATE = "Sample Rate";
+    private static final String STAGE_NAME = "Stage Name";
+    private static final String DURATION = ".duration";
     private static final String PARAMETER_FIELD_PREFIX = "p_";
+    private static final String REGRESSION = "regression";
+    /**
+     * The names of the job level coverage metrics after the job name: the percentage, minimum, maximum, covered
+     * and total of each coverage type, in the order of the coverages sent for a build.
+     */
+    private static final String[][] COVERAGE_METRIC_NAMES = coverageMetricNames("instructions-coverage",
+            "branch-coverage", "complexity-coverage", "line-coverage", "method-coverage", "class-coverage");
     public static final Integer MAX_ALLOWED_JOB_PARAMETER_POINT_TAGS = 10;
     public static final Integer MAX_ALLOWED_POINT_TAGS = 20;
     private WavefrontManagement wfManagement;
@@ -83,7 +113,7 @@ public class WavefrontBuildListener extends RunListener<Run> {
     }
 
     /**
-     * Called when a build is completed.
+     * Called when a build is started.
      * @param run
      *         - A Run object representing a particular execution of Job.
      * @param listener
@@ -91,39 +121,157 @@ public class WavefrontBuildListener extends RunListener<Run> {
      *         operation.
      */
     @Override
-    public final void onCompleted(final Run run, @Nonnull final TaskListener listener) {
-        if (run != null && getWavefrontManagement().getProxyHostname() != null
-                && !getWavefrontManagement().getProxyHostname().equals("")) {
+    public final void onStarted(final Run run, final TaskListener listener) {
+        if (run != null) {
+            registerRunningBuild(run);
+        }
+    }
+
+    /**
+     * Pipelines resumed after a restart are not started again, so they are registered as running
+     * builds once their executions are loaded.
+     */
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void registerResumedBuilds() {
+        for (FlowExecution execution : FlowExecutionList.get()) {
             try {
-                sendJobMetricsToWavefront(run);
-                if (run instanceof WorkflowRun) {
-                    sendPipelineMetricsToWavefront((WorkflowRun) run);
-                }
-                WavefrontJobProperty jobProperty = (WavefrontJobProperty) run.getParent()
-                        .getProperty(WavefrontJobProperty.class);
-                if (wfManagement.isEnableSendingJunitReportDataForAllJobs() || (jobProperty != null
-                        && jobProperty.isEnableSendingJunitReportData())) {
-                    sendJunitReportMetricsToWavefront(run);
-                }
-                if (wfManagement.isEnableSendingJacocoReportDataForAllJobs() || (jobProperty != null
-                        && jobProperty.isEnableSendingJacocoReportData())) {
-                    sendJacocoReportMetricsToWavefront(run);
+                Queue.Executable executable = execution.getOwner().getExecutable();
+                if (executable instanceof WorkflowRun && ((WorkflowRun) executable).isBuilding()) {
+                    registerRunningBuild((WorkflowRun) executable);
                 }
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to get the run of " + execution, e);
+            }
+        }
+    }
 
+    private static void registerRunningBuild(Run<?, ?> run) {
+        RunningBuilds.get().started(run.getExternalizableId(), getJobNameFromRun(run), getLabel(run), run.getId(),
+                run.getStartTimeInMillis());
+    }
+
+    /**
+     * @return the label the job is assigned to, or else the node the build runs on. Pipelines run on a
+     * flyweight executor of the controller and request their agents in node steps, so they have no label.
+     */
+    static String getLabel(Run<?, ?> run) {
+        Label label = run.getParent() instanceof Queue.Task ? ((Queue.Task) run.getParent()).getAssignedLabel() : null;
+        if (label != null) {
+            return label.getDisplayName();
+        }
+        Executor executor = run.getExecutor();
+        if (executor == null || executor instanceof OneOffExecutor) {
+            return null;
+        }
+        Node node = executor.getOwner().getNode();
+        return node != null ? node.getSelfLabel().getDisplayName() : null;
+    }
+
+    /**
+     * Called when a build is completed.
+     * @param run
+     *         - A Run object representing a particular execution of Job.
+     * @param listener
+     *         - A TaskListener object which receives events that happen during some
+     *         operation.
+     */
+    @Override
+    public final void onCompleted(final Run run, @Nonnull final TaskListener listener) {
+        if (run != null) {
+            RunningBuilds.get().completed(run.getExternalizableId());
+        }
+        if (run != null && getWavefrontManagement().isMetricsExportEnabled()) {
+            try {
+                MetricEmitter emitter = new MetricEmitter(wfManagement, wfManagement.getMetricFilter(run.getParent()),
+                        System.currentTimeMillis(), true, null);
+                sendRunMetrics(run, emitter);
                 LOGGER.log(Level.FINE,
                         "Job metrics successfully sent for " + run.getFullDisplayName());
-            } catch (IOException | NullPointerArgumentException e) {
+            } catch (NullPointerArgumentException e) {
                 LOGGER.log(Level.WARNING,
                         "Failed to send job metrics to Wavefront for " + run.getFullDisplayName(),
                         e);
             }
+        } else if (run != null) {
+            TimerDistributions.get().drain(run.getExternalizableId());
         }
     }
 
-    private void sendJobMetricsToWavefront(Run run) throws IOException {
-        if (run != null) {
+    /**
+     * Extracts the job, pipeline, JUnit and Jacoco metrics of a completed run.
+     *
+     * @param run     the completed run
+     * @param emitter publishes the metrics with the timestamp of the run
+     * @throws NullPointerArgumentException if the timing of a flow node is missing
+     */
+    void sendRunMetrics(Run run, MetricEmitter emitter) throws NullPointerArgumentException {
+        sendJobMetricsToWavefront(run, emitter);
+        if (emitter.isLive()) {
+            sendTimerDistributionsToWavefront(run, emitter);
+        }
+        Result result = run.getResult();
+        if (run instanceof WorkflowRun) {
             Map<String, String> tags = new HashMap<>();
+            if (result != null) {
+                tags.put(STATUS, result.toString());
+            }
+            tags.put(BUILD_NUMBER, run.getId());
+            CpsOverheadMetrics.send((WorkflowRun) run, tags, emitter);
+        }
+        // failed and aborted builds would skew the baselines and the trends
+        boolean recordDurations = emitter.isLive() && (wfManagement.isEnableRegressionDetection()
+                || wfManagement.isEnablePerformanceTrends()) && result != null
+                && result.isBetterOrEqualTo(Result.UNSTABLE);
+        SamplingPolicy samplingPolicy = SamplingPolicy.forRun(run, wfManagement);
+        if (!samplingPolicy.isSampled(run)) {
+            LOGGER.log(Level.FINE, "Detailed metrics are not sampled for " + run.getFullDisplayName());
+            if (recordDurations) {
+                recordDurations(run, null, emitter);
+            }
+            return;
+        }
+        int sampleRate = samplingPolicy.getEffectiveRate(run);
+        // the stage durations are only known when the flow graph is walked
+        Map<String, Long> stageDurations = null;
+        if (run instanceof WorkflowRun && !LoadShedder.isShedding()) {
+            if (recordDurations && ((WorkflowRun) run).getExecution() != null) {
+                stageDurations = new LinkedHashMap<>();
+            }
+            sendPipelineMetricsToWavefront((WorkflowRun) run, sampleRate, stageDurations, emitter);
+        }
+        if (recordDurations) {
+            recordDurations(run, stageDurations, emitter);
+        }
+        WavefrontJobProperty jobProperty = (WavefrontJobProperty) run.getParent()
+                .getProperty(WavefrontJobProperty.class);
+        if (isJunitReportEnabled(run)) {
+            sendJunitReportMetricsToWavefront(run, sampleRate, emitter);
+        }
+        if (wfManagement.isEnableSendingJacocoReportDataForAllJobs() || (jobProperty != null
+                && jobProperty.isEnableSendingJacocoReportData())) {
+            sendJacocoReportMetricsToWavefront(run, sampleRate, emitter);
+        }
+    }
+
+    private void sendJobMetricsToWavefront(Run run, MetricEmitter emitter) {
+        if (run != null) {
             Result result = run.getResult();
+            long duration = run.getDuration();
+            String jobName = getJobNameFromRun(run);
+            if (emitter.isLive() && wfManagement.isEnablePrometheusEndpoint()) {
+                Map<String, String> labels = new HashMap<>();
+                labels.put(JOB_NAME, jobName);
+                labels.put(STATUS, result != null ? result.toString() : "UNKNOWN");
+                PrometheusRegistry.get().observe(wfManagement.getJobMetricsPrefixName() + DURATION, labels, duration);
+            }
+            if (emitter.isLive() && isBuildMetricsAggregationEnabled(run)) {
+                BuildMetricsAggregator.get().record(jobName, result != null ? result.toString() : "UNKNOWN",
+                        duration, System.currentTimeMillis(),
+                        TimeUnit.MINUTES.toMillis(wfManagement.getFlushInterval()), emitter.getFilter());
+                return;
+            }
+
+            Map<String, String> tags = new HashMap<>();
             if (result != null) {
                 tags.put(STATUS, result.toString());
             }
@@ -131,14 +279,32 @@ public class WavefrontBuildListener extends RunListener<Run> {
 
             extractParameterNamesAsTags(run, tags);
 
-            long duration = run.getDuration();
-            String jobName = getJobNameFromRun(run);
-            sendMetricsToWavefront(jobName, duration, tags);
+            emitter.send(jobName, duration, tags);
         } else {
             LOGGER.log(Level.WARNING, "Not sending job metrics to Wavefront, Run is null");
         }
     }
 
+    private void sendTimerDistributionsToWavefront(Run run, MetricEmitter emitter) {
+        for (TimerDistributions.Entry entry : TimerDistributions.get().drain(run.getExternalizableId())) {
+            emitter.sendDistribution(entry.getMetricName(), entry.getValues(), entry.getCounts(), entry.getTags());
+        }
+    }
+
+    private boolean isJunitReportEnabled(Run run) {
+        WavefrontJobProperty jobProperty = (WavefrontJobProperty) run.getParent()
+                .getProperty(WavefrontJobProperty.class);
+        return wfManagement.isEnableSendingJunitReportDataForAllJobs() || (jobProperty != null
+                && jobProperty.isEnableSendingJunitReportData());
+    }
+
+    private boolean isBuildMetricsAggregationEnabled(Run run) {
+        WavefrontJobProperty jobProperty = (WavefrontJobProperty) run.getParent()
+                .getProperty(WavefrontJobProperty.class);
+        return wfManagement.isEnableBuildMetricsAggregationForAllJobs() || (jobProperty != null
+                && jobProperty.isEnableBuildMetricsAggregation());
+    }
+
     private void extractParameterNamesAsTags(Run run, Map<String, String> tags) {
         WavefrontJobProperty jobProperty = (WavefrontJobProperty) run.getParent()
                 .getProperty(WavefrontJobProperty.class);
@@ -169,7 +335,7 @@ public class WavefrontBuildListener extends RunListener<Run> {
         }
     }
 
-    private String getJobNameFromRun(Run run) {
+    private static String getJobNameFromRun(Run run) {
         return Sanitizer.sanitizeMetricCategory(
                 Sanitizer.getDecodeJobName(run.getParent().getFullName()));
     }
@@ -198,41 +364,235 @@ public class WavefrontBuildListener extends RunListener<Run> {
         }
     }
 
-    private void sendPipelineMetricsToWavefront(WorkflowRun run)
-            throws IOException, NullPointerArgumentException {
+    private void addSampleRateTag(Map<String, String> tags, int sampleRate) {
+        if (sampleRate != 1) {
+            tags.put(SAMPLE_RATE, String.valueOf(sampleRate));
+        }
+    }
+
+    /**
+     * @param stageDurations collects the durations of the stages by stage name, null if they aren't needed
+     */
+    private void sendPipelineMetricsToWavefront(WorkflowRun run, int sampleRate, Map<String, Long> stageDurations,
+            MetricEmitter emitter) throws NullPointerArgumentException {
         String pipelineName = getJobNameFromRun(run);
         String buildNumber = run.getId();
+        String metricPrefix = wfManagement.getJobMetricsPrefixName() + "." + pipelineName;
+        boolean sendStages = emitter.isCategoryAllowed(metricPrefix + ".stage.");
+        boolean sendParallels = emitter.isCategoryAllowed(metricPrefix + ".parallel.");
+        TraceBuilder tracer = wfManagement.isEnableSendingTraces()
+                ? new TraceBuilder(run, pipelineName, wfManagement.isEnableSendingStepSpans(), emitter) : null;
+        StageWaitTimes waitTimes = sendStages ? new StageWaitTimes() : null;
+        TimerDistributions stepTypes = wfManagement.isEnableStepTypeMetrics()
+                && (emitter.isCategoryAllowed(metricPrefix + ".step-type.")
+                || emitter.isCategoryAllowed(metricPrefix + ".slow-step.")) ? new TimerDistributions() : null;
+        PipelineBlockTree blockTree = emitter.isCategoryAllowed(metricPrefix + ".critical-path.")
+                || emitter.isCategoryAllowed(metricPrefix + ".parallel-block.") ? new PipelineBlockTree() : null;
 
-        if (run.getExecution() != null) {
+        if (run.getExecution() != null && (sendStages || sendParallels || tracer != null || blockTree != null
+                || stepTypes != null || stageDurations != null)) {
+            if (tracer != null) {
+                tracer.sendRootSpan();
+            }
+            Map<String, String> runTags = new HashMap<>();
+            Result result = run.getResult();
+            if (result != null) {
+                runTags.put(STATUS, result.toString());
+            }
+            runTags.put(BUILD_NUMBER, buildNumber);
+            addSampleRateTag(runTags, sampleRate);
             Deque<Map.Entry<FlowNode, String>> endNodes = new ArrayDeque<>(); // used as stack
             FlowGraphWalker w = new FlowGraphWalker(run.getExecution());
+            StepDurations stepDurations = new StepDurations();
 
             for (FlowNode node : w) {
+                Long stepDuration = stepDurations.visit(node);
+                if (tracer != null) {
+                    tracer.visit(node, stepDuration, this::getNodeStatus);
+                }
+                if (waitTimes != null) {
+                    waitTimes.visit(node, stepDuration);
+                }
+                if (stepTypes != null && stepDuration != null) {
+                    recordStepDuration(run, pipelineName, node, stepDuration, runTags, stepTypes, emitter);
+                }
                 if (node instanceof BlockStartNode) {
-                    Entry<FlowNode, String> endNode = endNodes.pop();
+                    Map.Entry<FlowNode, String> endNode = endNodes.pop();
                     FlowNodeData flowNodeData = new FlowNodeData()
                             .setDuration(calculateDuration(node, endNode.getKey()))
                             .setPipelineName(pipelineName)
                             .addTag(STATUS, endNode.getValue())
                             .addTag(BUILD_NUMBER, buildNumber);
+                    addSampleRateTag(flowNodeData.tags, sampleRate);
+                    if (waitTimes != null) {
+                        waitTimes.visitBlock((BlockStartNode) node, flowNodeData.duration);
+                    }
 
                     if (isStageNode(node)) {
-                        flowNodeData.setNodeName(
-                                Sanitizer.sanitizeMetricCategory(node.getDisplayName()));
-                        sendStageMetricsData(flowNodeData);
-                    } else if (hasParallelLabelAction(node)) {
-                        flowNodeData.setNodeName(Sanitizer.sanitizeMetricCategory(
-                                node.getDisplayName().replaceFirst("Branch: ", "")));
-                        sendParallelMetricsData(flowNodeData);
+                        flowNodeData.setNodeName(Sanitizer.sanitizeMetricCategory(node.getDisplayName()));
+                        if (sendStages) {
+                            sendStageMetricsData(flowNodeData, emitter);
+                            sendStageWaitingMetricsData(flowNodeData,
+                                    waitTimes.remove(node.getId(), flowNodeData.duration), emitter);
+                        }
+                        if (stageDurations != null) {
+                            stageDurations.merge(flowNodeData.nodeName, flowNodeData.duration, Long::sum);
+                        }
+                        if (blockTree != null) {
+                            blockTree.add(node.getId(), getEnclosingBlockId(node), null, flowNodeData.nodeName,
+                                    TimingAction.getStartTime(node), flowNodeData.duration);
+                        }
+                        if (tracer != null) {
+                            tracer.sendBlockSpan(node.getDisplayName(), TraceBuilder.STAGE, (BlockStartNode) node,
+                                    flowNodeData.duration, endNode.getValue());
+                        }
+                    } else if ((sendParallels || tracer != null || blockTree != null)
+                            && hasParallelLabelAction(node)) {
+                        String branchName = node.getDisplayName().replaceFirst("Branch: ", "");
+                        flowNodeData.setNodeName(Sanitizer.sanitizeMetricCategory(branchName));
+                        if (sendParallels) {
+                            sendParallelMetricsData(flowNodeData, emitter);
+                        }
+                        if (blockTree != null) {
+                            // the first enclosing block of a branch is its parallel step
+                            blockTree.add(node.getId(), getEnclosingBlockId(node),
+                                    node.getEnclosingId(), flowNodeData.nodeName,
+                                    TimingAction.getStartTime(node), flowNodeData.duration);
+                        }
+                        if (tracer != null) {
+                            tracer.sendBlockSpan(branchName, TraceBuilder.PARALLEL, (BlockStartNode) node,
+                                    flowNodeData.duration, endNode.getValue());
+                        }
                     }
                 }
                 if (node instanceof BlockEndNode) {
                     endNodes.push(new AbstractMap.SimpleEntry<>(node, getNodeStatus(node)));
                 }
             }
+            if (blockTree != null) {
+                sendBlockTreeMetrics(blockTree, pipelineName, runTags, emitter);
+            }
+            if (stepTypes != null) {
+                for (TimerDistributions.Entry entry : stepTypes.drain(run.getExternalizableId())) {
+                    emitter.sendDistribution(entry.getMetricName(), entry.getValues(), entry.getCounts(),
+                            entry.getTags());
+                }
+            }
         }
     }
 
+    /**
+     * @param stageDurations the durations of the stages, null if the flow graph wasn't walked, then only
+     *                       the duration of the build is recorded
+     */
+    private void recordDurations(Run run, Map<String, Long> stageDurations, MetricEmitter emitter) {
+        if (wfManagement.isEnableRegressionDetection()) {
+            sendRegressionMetricsToWavefront(run, stageDurations, emitter);
+        }
+        if (wfManagement.isEnablePerformanceTrends()) {
+            Map<String, Long> orderedDurations = null;
+            if (stageDurations != null) {
+                // the flow graph is walked from its end, so the stages were collected last to first
+                List<String> stageNames = new ArrayList<>(stageDurations.keySet());
+                Collections.reverse(stageNames);
+                orderedDurations = new LinkedHashMap<>();
+                for (String stageName : stageNames) {
+                    orderedDurations.put(stageName, stageDurations.get(stageName));
+                }
+            }
+            DurationHistory.get().record(run.getParent(), run.getDuration(), orderedDurations);
+        }
+    }
+
+    private void sendRegressionMetricsToWavefront(Run run, Map<String, Long> stageDurations, MetricEmitter emitter) {
+        String jobName = getJobNameFromRun(run);
+        Map<String, DurationBaseline.Comparison> comparisons = RegressionDetector.get().update(run.getParent(),
+                run.getDuration(), stageDurations, wfManagement.getRegressionThreshold(),
+                wfManagement.getRegressionBuilds());
+        for (Map.Entry<String, DurationBaseline.Comparison> entry : comparisons.entrySet()) {
+            String stageName = entry.getKey();
+            DurationBaseline.Comparison comparison = entry.getValue();
+            Map<String, String> tags = new HashMap<>();
+            tags.put(BUILD_NUMBER, run.getId());
+            if (stageName != null) {
+                tags.put(STAGE_NAME, stageName);
+            }
+            emitter.send(jobName + "." + REGRESSION, comparison.isRegressed() ? 1 : 0, tags);
+            emitter.send(jobName + "." + REGRESSION + ".ratio", comparison.getRatio(), tags);
+            if (comparison.isStarted()) {
+                String subject = stageName != null ? jobName + " stage " + stageName : jobName;
+                Map<String, String> annotations = new HashMap<>();
+                annotations.put("severity", "warn");
+                annotations.put("type", REGRESSION);
+                annotations.put("details", String.format("%s #%s took %d seconds, %.1f times the baseline of %d"
+                                + " seconds, after %d consecutive slow builds", subject, run.getId(),
+                        TimeUnit.MILLISECONDS.toSeconds(comparison.getDuration()), comparison.getRatio(),
+                        TimeUnit.MILLISECONDS.toSeconds((long) comparison.getBaseline()),
+                        wfManagement.getRegressionBuilds()));
+                emitter.sendEvent("Duration regression " + subject, annotations);
+            }
+        }
+    }
+
+    private void recordStepDuration(WorkflowRun run, String pipelineName, FlowNode node, long duration,
+            Map<String, String> runTags, TimerDistributions stepTypes, MetricEmitter emitter) {
+        String functionName = StepDurations.getFunctionName(node);
+        if (functionName == null) {
+            return;
+        }
+        String stageName = getEnclosingStageName(node);
+        Map<String, String> tags = stageName != null ? Collections.singletonMap(STAGE_NAME, stageName)
+                : Collections.emptyMap();
+        stepTypes.record(run.getExternalizableId(), pipelineName + ".step-type." + functionName, tags, duration);
+        if (duration >= TimeUnit.SECONDS.toMillis(wfManagement.getSlowStepThreshold())) {
+            Map<String, String> slowStepTags = new HashMap<>(runTags);
+            slowStepTags.putAll(tags);
+            emitter.send(pipelineName + ".slow-step." + functionName, duration, slowStepTags);
+        }
+    }
+
+    private static String getEnclosingStageName(FlowNode node) {
+        for (BlockStartNode block : node.iterateEnclosingBlocks()) {
+            if (isStageNode(block)) {
+                return Sanitizer.sanitizeMetricCategory(block.getDisplayName());
+            }
+        }
+        return null;
+    }
+
+    private void sendBlockTreeMetrics(PipelineBlockTree blockTree, String pipelineName, Map<String, String> tags,
+            MetricEmitter emitter) {
+        String criticalPath = pipelineName + ".critical-path";
+        emitter.send(criticalPath + ".duration", blockTree.getCriticalPathLength(), tags);
+        for (PipelineBlockTree.Block block : blockTree.getCriticalPath()) {
+            if (block.getName() != null) {
+                emitter.send(criticalPath + (block.isBranch() ? ".parallel." : ".stage.") + block.getName(),
+                        block.getDuration(), tags);
+            }
+        }
+        for (PipelineBlockTree.ParallelStats stats : blockTree.getParallelStats()) {
+            String parallelBlock = pipelineName + ".parallel-block." + stats.getName();
+            emitter.send(parallelBlock + ".branches", stats.getBranches(), tags);
+            emitter.send(parallelBlock + ".max", stats.getMax(), tags);
+            emitter.send(parallelBlock + ".min", stats.getMin(), tags);
+            emitter.send(parallelBlock + ".mean", stats.getMean(), tags);
+            emitter.send(parallelBlock + ".skew", stats.getSkew(), tags);
+            emitter.send(parallelBlock + ".concurrency", stats.getConcurrency(), tags);
+        }
+    }
+
+    /**
+     * @return the ID of the start node of the enclosing stage or parallel branch, null at the top level
+     */
+    private static String getEnclosingBlockId(FlowNode node) {
+        for (BlockStartNode block : node.iterateEnclosingBlocks()) {
+            if (block.getAction(LabelAction.class) != null) {
+                return block.getId();
+            }
+        }
+        return null;
+    }
+
     private static class FlowNodeData {
 
         public String nodeName = "UNDEFINED";
@@ -277,19 +637,46 @@ public class WavefrontBuildListener extends RunListener<Run> {
     }
 
     private void sendStageMetricsData(
-            FlowNodeData nodeData
-    ) throws IOException {
-        sendMetricsToWavefront(nodeData.pipelineName + ".stage." + nodeData.nodeName,
+            FlowNodeData nodeData, MetricEmitter emitter
+    ) {
+        observeNodeDuration(".stage", nodeData, emitter);
+        emitter.send(nodeData.pipelineName + ".stage." + nodeData.nodeName,
                 nodeData.duration, nodeData.tags);
     }
 
+    private void sendStageWaitingMetricsData(
+            FlowNodeData nodeData, StageWaitTimes.Breakdown breakdown, MetricEmitter emitter
+    ) {
+        String stageMetricName = nodeData.pipelineName + ".stage." + nodeData.nodeName;
+        emitter.send(stageMetricName + ".active", breakdown.getActive(), nodeData.tags);
+        emitter.send(stageMetricName + ".waiting", breakdown.getWaiting(), nodeData.tags);
+        for (StageWaitTimes.Reason reason : StageWaitTimes.Reason.values()) {
+            long waiting = breakdown.getWaiting(reason);
+            if (waiting > 0) {
+                emitter.send(stageMetricName + ".waiting." + reason.getMetricName(), waiting, nodeData.tags);
+            }
+        }
+    }
+
     private void sendParallelMetricsData(
-            FlowNodeData nodeData
-    ) throws IOException {
-        sendMetricsToWavefront(nodeData.pipelineName + ".parallel." + nodeData.nodeName,
+            FlowNodeData nodeData, MetricEmitter emitter
+    ) {
+        observeNodeDuration(".parallel", nodeData, emitter);
+        emitter.send(nodeData.pipelineName + ".parallel." + nodeData.nodeName,
                 nodeData.duration, nodeData.tags);
     }
 
+    private void observeNodeDuration(String category, FlowNodeData nodeData, MetricEmitter emitter) {
+        if (emitter.isLive() && wfManagement.isEnablePrometheusEndpoint()) {
+            Map<String, String> labels = new HashMap<>();
+            labels.put(JOB_NAME, nodeData.pipelineName);
+            labels.put(STAGE_NAME, nodeData.nodeName);
+            labels.put(STATUS, nodeData.tags.get(STATUS));
+            PrometheusRegistry.get().observe(wfManagement.getJobMetricsPrefixName() + category + DURATION,
+                    labels, nodeData.duration);
+        }
+    }
+
     public String getNodeStatus(FlowNode node) {
         List<ErrorAction> errors = node.getActions(ErrorAction.class);
         if (errors.isEmpty()) {
@@ -323,31 +710,194 @@ public class WavefrontBuildListener extends RunListener<Run> {
                 && node.getAction(ThreadNameAction.class) == null);
     }
 
-    private void sendJunitReportMetricsToWavefront(Run run) throws IOException {
+    private void sendJunitReportMetricsToWavefront(Run run, int sampleRate, MetricEmitter emitter) {
         String jobName = getJobNameFromRun(run);
         String buildNumber = run.getId();
+        if (!emitter.isCategoryAllowed(wfManagement.getJobMetricsPrefixName() + ".junit.")) {
+            LOGGER.log(Level.FINE, "All JUnit metrics are filtered out for " + jobName);
+            return;
+        }
 
         TestResultAction action = run.getAction(TestResultAction.class);
         if (action != null) {
             Map<String, String> tags = new HashMap<>();
             extractParameterNamesAsTags(run, tags);
+            addSampleRateTag(tags, sampleRate);
 
-            sendJobLevelJunitMetricsToWavefront(jobName, action, tags);
+            sendJobLevelJunitMetricsToWavefront(jobName, action, tags, emitter);
+            // the suites of the junit steps which ended while the build was running were sent then
+            Set<String> sentNodeIds = emitter.isLive() ? SentTestSuitesAction.complete(run) : Collections.emptySet();
+            if (LoadShedder.isShedding()) {
+                LOGGER.log(Level.FINE, "Controller is overloaded, not sending per-test metrics for " + jobName);
+                return;
+            }
 
             tags.put(JOB_NAME, jobName);
             tags.put(BUILD_NUMBER, buildNumber);
+            TestPoints points = new TestPoints();
+            TestHistory history = null;
+            TestRollups rollups = wfManagement.getTestRollupDepth() > 0
+                    ? new TestRollups(wfManagement.getTestRollupDepth()) : null;
+            // the files of the job are updated by one build at a time, the metrics are sent after they are saved
+            synchronized (JobLocks.get(run.getParent().getRootDir())) {
+                TestDurationIndex index = loadTestDurationIndex(run, emitter);
+                if (emitter.isLive() && wfManagement.isEnableTestAnalytics()) {
+                    history = loadTestHistory(run, jobName);
+                }
+                collectJUnitTestResultMetrics(action.getResult().getSuites(), sentNodeIds, tags, index, history,
+                        rollups, points);
+                saveTestDurationIndex(run, index);
+                if (history != null) {
+                    saveTestHistory(run, jobName, history);
+                }
+            }
+
+            points.send(emitter);
+            if (rollups != null) {
+                sendTestRollupsToWavefront(jobName, rollups, tags, emitter);
+            }
+            if (history != null) {
+                sendTestAnalyticsToWavefront(jobName, history, tags, emitter);
+            }
+        }
+    }
+
+    /**
+     * Sends the per-test metrics of the suites recorded by a junit step of a running pipeline as soon as the step
+     * ends. The build sends the job level metrics and the suites of the other steps when it completes.
+     *
+     * @param run    the running build
+     * @param nodeId the flow node id of the junit step
+     */
+    void sendJunitStepMetrics(WorkflowRun run, String nodeId) {
+        if (getWavefrontManagement() == null || !wfManagement.isMetricsExportEnabled()
+                || !wfManagement.isEnableIncrementalTestMetrics() || !isJunitReportEnabled(run)
+                || isSendingTestRollupsOnly() || LoadShedder.isShedding()) {
+            return;
+        }
+        SamplingPolicy samplingPolicy = SamplingPolicy.forRun(run, wfManagement);
+        TestResultAction action = run.getAction(TestResultAction.class);
+        if (action == null || !samplingPolicy.isSampled(run)) {
+            return;
+        }
+        MetricEmitter emitter = new MetricEmitter(wfManagement, wfManagement.getMetricFilter(run.getParent()),
+                System.currentTimeMillis(), true, null);
+        if (!emitter.isCategoryAllowed(wfManagement.getJobMetricsPrefixName() + ".junit.")) {
+            return;
+        }
+        List<SuiteResult> suites = new ArrayList<>();
+        try {
+            for (SuiteResult suite : action.getResult().getSuites()) {
+                if (nodeId.equals(suite.getNodeId())) {
+                    suites.add(suite);
+                }
+            }
+        } catch (ConcurrentModificationException e) {
+            LOGGER.log(Level.FINE, "The test results of " + run.getFullDisplayName()
+                    + " changed, they are sent when the build completes", e);
+            return;
+        }
+        if (suites.isEmpty() || !SentTestSuitesAction.markSent(run, nodeId)) {
+            return;
+        }
+
+        Map<String, String> tags = new HashMap<>();
+        extractParameterNamesAsTags(run, tags);
+        addSampleRateTag(tags, samplingPolicy.getEffectiveRate(run));
+        tags.put(JOB_NAME, getJobNameFromRun(run));
+        tags.put(BUILD_NUMBER, run.getId());
+        // the index is only read here, the build compares these tests again and saves the index when it completes
+        TestDurationIndex index;
+        synchronized (JobLocks.get(run.getParent().getRootDir())) {
+            index = loadTestDurationIndex(run, emitter);
+        }
+        TestPoints points = new TestPoints();
+        collectJUnitTestResultMetrics(suites, Collections.emptySet(), tags, index, null, null, points);
+        points.send(emitter);
+    }
+
+    private boolean isSendingTestRollupsOnly() {
+        return wfManagement.getTestRollupDepth() > 0 && wfManagement.isSendTestRollupsOnly();
+    }
+
+    private void sendTestRollupsToWavefront(String jobName, TestRollups rollups, Map<String, String> tags,
+            MetricEmitter emitter) {
+        String jobMetricName = "junit." + jobName;
+        for (TestRollups.Rollup rollup : rollups.getPackages()) {
+            sendTestRollup(jobMetricName + ".package.", rollup, tags, emitter);
+        }
+        for (TestRollups.Rollup rollup : rollups.getClasses()) {
+            sendTestRollup(jobMetricName + ".class.", rollup, tags, emitter);
+        }
+    }
+
+    private void sendTestRollup(String prefix, TestRollups.Rollup rollup, Map<String, String> tags,
+            MetricEmitter emitter) {
+        String metricName = prefix + Sanitizer.sanitizeJUnitTestMetricCategory(rollup.getName());
+        emitter.send(metricName + ".count", rollup.getCount(), tags);
+        emitter.send(metricName + ".failcount", rollup.getFailCount(), tags);
+        emitter.send(metricName + ".duration", rollup.getDuration(), tags);
+        emitter.send(metricName + ".max-duration", rollup.getMaxDuration(), tags);
+    }
+
+    private TestHistory loadTestHistory(Run run, String jobName) {
+        try {
+            return TestHistory.load(run.getParent().getRootDir(), wfManagement.getTestAnalyticsWindow(),
+                    FlakyTestsAction.TOP_TESTS);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to load the test history of " + jobName + ", starting over", e);
+            return TestHistory.empty(wfManagement.getTestAnalyticsWindow(), FlakyTestsAction.TOP_TESTS);
+        }
+    }
+
+    private static void saveTestHistory(Run run, String jobName, TestHistory history) {
+        try {
+            history.save(run.getParent().getRootDir());
+            FlakyTestsAction.save(run.getParent(), history.getTopFlakyTests());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save the test history of " + jobName, e);
+        }
+    }
+
+    private static void sendTestAnalyticsToWavefront(String jobName, TestHistory history, Map<String, String> tags,
+            MetricEmitter emitter) {
+        String jobMetricName = "junit." + jobName;
+        emitter.send(jobMetricName + ".flaky-count", history.getFlakyCount(), tags);
+        emitter.send(jobMetricName + ".newly-slow-count", history.getNewlySlowCount(), tags);
+        for (TestHistory.FlakyTest test : history.getTopFlakyTests()) {
+            emitter.send("junit." + test.getName() + ".flakiness", test.getScore(), tags);
+        }
+    }
+
+    /**
+     * @return the last sent durations of the passed tests, null if all passed tests have to be sent
+     */
+    private TestDurationIndex loadTestDurationIndex(Run run, MetricEmitter emitter) {
+        // past builds are all sent when backfilled, they mustn't replace the durations of the latest build
+        if (!emitter.isLive() || wfManagement.getTestDurationTolerance() <= 0 || isSendingTestRollupsOnly()) {
+            return null;
+        }
+        try {
+            return TestDurationIndex.load(run.getParent().getRootDir(), wfManagement.getTestDurationTolerance(),
+                    wfManagement.getTestDurationRefreshBuilds());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to load the test durations of " + run.getParent().getFullName(), e);
+            return null;
+        }
+    }
 
-            tags.put(TEST_STATUS, FAILED);
-            sendJUnitTestResultMetricsToWavefront(action.getResult().getFailedTests(), tags);
-            tags.put(TEST_STATUS, SKIPPED);
-            sendJUnitTestResultMetricsToWavefront(action.getResult().getSkippedTests(), tags);
-            tags.put(TEST_STATUS, PASSED);
-            sendJUnitTestResultMetricsToWavefront(action.getResult().getPassedTests(), tags);
+    private static void saveTestDurationIndex(Run run, TestDurationIndex index) {
+        if (index != null) {
+            try {
+                index.save(run.getParent().getRootDir());
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to save the test durations of " + run.getParent().getFullName(), e);
+            }
         }
     }
 
     private void sendJobLevelJunitMetricsToWavefront(String jobName, final TestResultAction action,
-            Map<String, String> tags) throws IOException {
+            Map<String, String> tags, MetricEmitter emitter) {
         String jobMetricName = "junit." + jobName;
         String countMetricName = "%s.%scount";
         int skipped = action.getSkipCount();
@@ -357,111 +907,197 @@ public class WavefrontBuildListener extends RunListener<Run> {
 
         // Duration metric
         double fullDurationForTests = action.getResult().getDuration() * 1000;
-        sendMetricsToWavefront(jobMetricName, fullDurationForTests,
-                tags); // send whole time required for tests
+        emitter.send(jobMetricName, fullDurationForTests, tags); // send whole time required for tests
 
         // Junit Tests Count metric
-        sendMetricsToWavefront(String.format(countMetricName, jobMetricName, "skip"), skipped,
-                tags);
-        sendMetricsToWavefront(String.format(countMetricName, jobMetricName, "fail"), failed, tags);
-        sendMetricsToWavefront(String.format(countMetricName, jobMetricName, "total"), total, tags);
-        sendMetricsToWavefront(String.format(countMetricName, jobMetricName, "pass"), passed, tags);
+        emitter.send(String.format(countMetricName, jobMetricName, "skip"), skipped, tags);
+        emitter.send(String.format(countMetricName, jobMetricName, "fail"), failed, tags);
+        emitter.send(String.format(countMetricName, jobMetricName, "total"), total, tags);
+        emitter.send(String.format(countMetricName, jobMetricName, "pass"), passed, tags);
 
     }
 
-    private void sendJUnitTestResultMetricsToWavefront(Collection<? extends TestResult> testResults,
-            Map<String, String> tags) throws IOException {
+    /**
+     * Collects the duration of every test case in a single pass over the suites, instead of walking all of them
+     * again for each of the failed, skipped and passed lists, which are copied on every call.
+     *
+     * @param suites      the test suites
+     * @param sentNodeIds the junit steps whose suites were already sent, they are only recorded
+     * @param index       the last sent durations, only the changed durations of passed tests are sent if not null
+     * @param history     records the passed and failed tests if not null
+     * @param rollups     rolls the passed and failed tests up to their classes and packages if not null
+     * @param points      receives the test metrics to send
+     */
+    private void collectJUnitTestResultMetrics(Collection<SuiteResult> suites, Set<String> sentNodeIds,
+            Map<String, String> tags, TestDurationIndex index, TestHistory history, TestRollups rollups,
+            TestPoints points) {
+        boolean sendTests = rollups == null || !wfManagement.isSendTestRollupsOnly();
+        Map<String, String> failedTags = new HashMap<>(tags);
+        failedTags.put(TEST_STATUS, FAILED);
+        Map<String, String> skippedTags = new HashMap<>(tags);
+        skippedTags.put(TEST_STATUS, SKIPPED);
+        Map<String, String> passedTags = new HashMap<>(tags);
+        passedTags.put(TEST_STATUS, PASSED);
 
-        for (TestResult testResult : testResults) {
-            String fullTestName = testResult.getFullDisplayName();
-            String metricName = "junit." + Sanitizer.sanitizeJUnitTestMetricCategory(fullTestName);
-            double testDuration = testResult.getDuration() * 1000; // in milliseconds
-            sendMetricsToWavefront(metricName, testDuration, tags);
+        for (SuiteResult suite : suites) {
+            boolean sent = suite.getNodeId() != null && sentNodeIds.contains(suite.getNodeId());
+            for (CaseResult testCase : suite.getCases()) {
+                String testName = Sanitizer.sanitizeJUnitTestMetricCategory(testCase.getFullDisplayName());
+                double testDuration = testCase.getDuration() * 1000; // in milliseconds
+                if (testCase.isSkipped()) {
+                    if (!sent && sendTests) {
+                        points.add("junit." + testName, testDuration, skippedTags);
+                    }
+                    continue;
+                }
+                boolean failed = !testCase.isPassed();
+                if (history != null) {
+                    history.record(testName, testDuration, failed);
+                }
+                if (rollups != null) {
+                    rollups.add(testCase.getClassName(), testDuration, failed);
+                }
+                if (sent || !sendTests) {
+                    // compared again to record what the junit step sent, see sendJunitStepMetrics
+                    if (index != null && !failed) {
+                        index.isChanged(testName, testDuration);
+                    }
+                } else if (failed || index == null || index.isChanged(testName, testDuration)) {
+                    points.add("junit." + testName, testDuration, failed ? failedTags : passedTags);
+                }
+            }
         }
     }
 
-    private void sendJacocoReportMetricsToWavefront(Run run) throws IOException {
+    /**
+     * The test metrics decided while the files of the job are locked, they are sent once the lock is released.
+     */
+    private static final class TestPoints {
+        private final List<String> names = new ArrayList<>();
+        private final List<Map<String, String>> tags = new ArrayList<>();
+        private double[] values = new double[64];
+
+        void add(String name, double value, Map<String, String> pointTags) {
+            if (names.size() == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[names.size()] = value;
+            names.add(name);
+            tags.add(pointTags);
+        }
+
+        void send(MetricEmitter emitter) {
+            for (int i = 0; i < names.size(); i++) {
+                emitter.send(names.get(i), values[i], tags.get(i));
+            }
+        }
+    }
+
+    private void sendJacocoReportMetricsToWavefront(Run run, int sampleRate, MetricEmitter emitter) {
         if (run != null) {
             String jobName = getJobNameFromRun(run);
             String buildNumber = run.getId();
 
             JacocoBuildAction action = run.getAction(JacocoBuildAction.class);
-            if (action != null) {
-                Map<String, Integer> metrics = new HashMap<>();
-                metrics.put("instructions-coverage",
-                        action.getInstructionCoverage().getPercentage());
-                metrics.put("branch-coverage", action.getBranchCoverage().getPercentage());
-                metrics.put("complexity-coverage", action.getComplexityScore().getPercentage());
-                metrics.put("line-coverage", action.getLineCoverage().getPercentage());
-                metrics.put("method-coverage", action.getMethodCoverage().getPercentage());
-                metrics.put("class-coverage", action.getClassCoverage().getPercentage());
-
-                metrics.put("instructions-coverage.minimum",
-                        action.getThresholds().getMinInstruction());
-                metrics.put("branch-coverage.minimum", action.getThresholds().getMinBranch());
-                metrics.put("complexity-coverage.minimum",
-                        action.getThresholds().getMinComplexity());
-                metrics.put("line-coverage.minimum", action.getThresholds().getMinLine());
-                metrics.put("method-coverage.minimum", action.getThresholds().getMinMethod());
-                metrics.put("class-coverage.minimum", action.getThresholds().getMinClass());
-
-                metrics.put("instructions-coverage.maximum",
-                        action.getThresholds().getMaxInstruction());
-                metrics.put("branch-coverage.maximum", action.getThresholds().getMaxBranch());
-                metrics.put("complexity-coverage.maximum",
-                        action.getThresholds().getMaxComplexity());
-                metrics.put("line-coverage.maximum", action.getThresholds().getMaxLine());
-                metrics.put("method-coverage.maximum", action.getThresholds().getMaxMethod());
-                metrics.put("class-coverage.maximum", action.getThresholds().getMaxClass());
-
-                metrics.put("instructions-coverage.covered",
-                        action.getInstructionCoverage().getCovered());
-                metrics.put("branch-coverage.covered", action.getBranchCoverage().getCovered());
-                metrics.put("complexity-coverage.covered",
-                        action.getComplexityScore().getCovered());
-                metrics.put("line-coverage.covered", action.getLineCoverage().getCovered());
-                metrics.put("method-coverage.covered", action.getMethodCoverage().getCovered());
-                metrics.put("class-coverage.covered", action.getClassCoverage().getCovered());
-
-                metrics.put("instructions-coverage.total",
-                        action.getInstructionCoverage().getTotal());
-                metrics.put("branch-coverage.total", action.getBranchCoverage().getTotal());
-                metrics.put("complexity-coverage.total", action.getComplexityScore().getTotal());
-                metrics.put("line-coverage.total", action.getLineCoverage().getTotal());
-                metrics.put("method-coverage.total", action.getMethodCoverage().getTotal());
-                metrics.put("class-coverage.total", action.getClassCoverage().getTotal());
-
+            if (action != null && emitter.isCategoryAllowed(
+                    wfManagement.getJobMetricsPrefixName() + "." + jobName + ".jacoco.")) {
                 Map<String, String> tags = new HashMap<>();
                 Result result = run.getResult();
                 if (result != null) {
                     tags.put(STATUS, result.toString());
                 }
                 tags.put(BUILD_NUMBER, buildNumber);
-                sendCodeCoverageMetricsToWavefront(jobName, metrics, tags);
+                addSampleRateTag(tags, sampleRate);
+                sendCodeCoverageMetricsToWavefront(jobName, action, tags, emitter);
+                if (wfManagement.getJacocoPackageLimit() > 0 && !LoadShedder.isShedding()) {
+                    sendPackageCoverageMetricsToWavefront(run, jobName, action, tags, emitter);
+                }
             }
         } else {
             LOGGER.log(Level.WARNING, "Not sending jacoco report to wavefront, Run is null");
         }
     }
 
-    private void sendCodeCoverageMetricsToWavefront(String jobName, Map<String, Integer> metrics,
-            Map<String, String> tags) throws IOException {
-        for (Entry<String, Integer> metric : metrics.entrySet()) {
-            String metricName = jobName + ".jacoco." + metric.getKey();
-            sendMetricsToWavefront(metricName, metric.getValue(), tags);
+    private static String[][] coverageMetricNames(String... coverageTypes) {
+        String[][] names = new String[coverageTypes.length][];
+        for (int i = 0; i < coverageTypes.length; i++) {
+            String name = ".jacoco." + coverageTypes[i];
+            names[i] = new String[] {name, name + ".minimum", name + ".maximum", name + ".covered", name + ".total"};
         }
+        return names;
     }
 
-    private void sendMetricsToWavefront(String jobName, double metricValue,
-            Map<String, String> tags) throws IOException {
-        String name = wfManagement.getJobMetricsPrefixName() + "." + jobName;
-        if (name.length() >= 255) {
-            LOGGER.log(Level.WARNING,
-                    "The metric has not been sent to wavefront, name is too long: " + name);
+    private void sendCodeCoverageMetricsToWavefront(String jobName, JacocoBuildAction action,
+            Map<String, String> tags, MetricEmitter emitter) {
+        JacocoHealthReportThresholds thresholds = action.getThresholds();
+        Coverage[] coverages = {action.getInstructionCoverage(), action.getBranchCoverage(),
+                action.getComplexityScore(), action.getLineCoverage(), action.getMethodCoverage(),
+                action.getClassCoverage()};
+        int[] minimums = {thresholds.getMinInstruction(), thresholds.getMinBranch(), thresholds.getMinComplexity(),
+                thresholds.getMinLine(), thresholds.getMinMethod(), thresholds.getMinClass()};
+        int[] maximums = {thresholds.getMaxInstruction(), thresholds.getMaxBranch(), thresholds.getMaxComplexity(),
+                thresholds.getMaxLine(), thresholds.getMaxMethod(), thresholds.getMaxClass()};
+        for (int i = 0; i < COVERAGE_METRIC_NAMES.length; i++) {
+            String[] metricNames = COVERAGE_METRIC_NAMES[i];
+            emitter.send(jobName + metricNames[0], coverages[i].getPercentage(), tags);
+            emitter.send(jobName + metricNames[1], minimums[i], tags);
+            emitter.send(jobName + metricNames[2], maximums[i], tags);
+            emitter.send(jobName + metricNames[3], coverages[i].getCovered(), tags);
+            emitter.send(jobName + metricNames[4], coverages[i].getTotal(), tags);
+        }
+    }
+
+    /**
+     * Sends the coverage of the packages which changed the most since the previous build or else are the largest,
+     * up to the package limit. The report is walked once and only the selected packages are kept.
+     */
+    private void sendPackageCoverageMetricsToWavefront(Run run, String jobName, JacocoBuildAction action,
+            Map<String, String> tags, MetricEmitter emitter) {
+        CoverageReport report = action.getResult();
+        if (report == null) {
+            return;
+        }
+        JacocoPackageCoverage packages;
+        // the files of the job are updated by one build at a time
+        synchronized (JobLocks.get(run.getParent().getRootDir())) {
+            packages = loadPackageCoverage(run, emitter);
+            for (PackageReport packageReport : report.getChildren().values()) {
+                Coverage lines = packageReport.getLineCoverage();
+                packages.offer(packageReport.getName().replace('/', '.'),
+                        packageReport.getInstructionCoverage().getPercentageFloat(),
+                        packageReport.getBranchCoverage().getPercentageFloat(), lines.getPercentageFloat(),
+                        lines.getTotal());
+            }
+            if (emitter.isLive()) {
+                try {
+                    packages.save(run.getParent().getRootDir());
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to save the package coverage of " + jobName, e);
+                }
+            }
+        }
+
+        for (JacocoPackageCoverage.Package coverage : packages.getTopPackages()) {
+            String metricName = jobName + ".jacoco.package."
+                    + Sanitizer.sanitizeFullMetricCategory(coverage.getName());
+            emitter.send(metricName + ".instructions-coverage", coverage.getInstructionCoverage(), tags);
+            emitter.send(metricName + ".branch-coverage", coverage.getBranchCoverage(), tags);
+            emitter.send(metricName + ".line-coverage", coverage.getLineCoverage(), tags);
+            emitter.send(metricName + ".line-coverage.total", coverage.getLines(), tags);
+        }
+    }
+
+    private JacocoPackageCoverage loadPackageCoverage(Run run, MetricEmitter emitter) {
+        // a backfilled build is compared with the latest build, it doesn't replace it
+        if (emitter.isLive()) {
+            try {
+                return JacocoPackageCoverage.load(run.getParent().getRootDir(), wfManagement.getJacocoPackageLimit());
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to load the package coverage of " + run.getParent().getFullName(),
+                        e);
+            }
         }
-        WavefrontMonitor.getWavefrontSender()
-                .sendMetric(name, metricValue, System.currentTimeMillis(),
-                        wfManagement.getProxyHostname(), tags);
+        return JacocoPackageCoverage.empty(wfManagement.getJacocoPackageLimit());
     }
 
     private WavefrontManagement getWavefrontManagement() {
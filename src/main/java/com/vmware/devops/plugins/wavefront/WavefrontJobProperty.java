@@ -28,13 +28,17 @@ import javax.annotation.Nonnull;
 
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 
+import com.vmware.devops.plugins.wavefront.util.MetricFilter;
+
 import hudson.Extension;
 import hudson.model.Descriptor;
 import hudson.model.Job;
 import hudson.model.JobProperty;
 import hudson.model.JobPropertyDescriptor;
+import hudson.util.FormValidation;
 
 import net.sf.json.JSONObject;
 
@@ -42,7 +46,13 @@ public class WavefrontJobProperty<T extends Job<?, ?>> extends JobProperty<T> {
     private boolean enableSendingJunitReportData = false;
     private boolean enableSendingJacocoReportData = false;
     private boolean enableSendingJobParameters = false;
+    private boolean enableBuildMetricsAggregation = false;
     private String jobParameters = "";
+    private boolean enableSampling = false;
+    private int samplingRate = 1;
+    private boolean alwaysSampleNonSuccessful = true;
+    private String metricFilterRules = "";
+    private transient volatile MetricFilter metricFilter;
 
     @DataBoundConstructor
     public WavefrontJobProperty() {
@@ -84,6 +94,18 @@ public class WavefrontJobProperty<T extends Job<?, ?>> extends JobProperty<T> {
         this.enableSendingJobParameters = enableSendingJobParameters;
     }
 
+    public boolean isEnableBuildMetricsAggregation() {
+        return enableBuildMetricsAggregation;
+    }
+
+    /**
+     * @param enableBuildMetricsAggregation - The configured checkbox in the job configuration
+     */
+    @DataBoundSetter
+    public void setEnableBuildMetricsAggregation(boolean enableBuildMetricsAggregation) {
+        this.enableBuildMetricsAggregation = enableBuildMetricsAggregation;
+    }
+
     public String getJobParameters() {
         return jobParameters;
     }
@@ -96,6 +118,67 @@ public class WavefrontJobProperty<T extends Job<?, ?>> extends JobProperty<T> {
         this.jobParameters = jobParameters;
     }
 
+    public boolean isEnableSampling() {
+        return enableSampling;
+    }
+
+    /**
+     * @param enableSampling - The configured checkbox in the job configuration
+     */
+    @DataBoundSetter
+    public void setEnableSampling(boolean enableSampling) {
+        this.enableSampling = enableSampling;
+    }
+
+    public int getSamplingRate() {
+        return samplingRate;
+    }
+
+    /**
+     * @param samplingRate - Send the detailed metrics of one in samplingRate builds, at least 1
+     */
+    @DataBoundSetter
+    public void setSamplingRate(int samplingRate) {
+        this.samplingRate = Math.max(1, samplingRate);
+    }
+
+    public boolean isAlwaysSampleNonSuccessful() {
+        return alwaysSampleNonSuccessful;
+    }
+
+    /**
+     * @param alwaysSampleNonSuccessful - The configured checkbox in the job configuration
+     */
+    @DataBoundSetter
+    public void setAlwaysSampleNonSuccessful(boolean alwaysSampleNonSuccessful) {
+        this.alwaysSampleNonSuccessful = alwaysSampleNonSuccessful;
+    }
+
+    public String getMetricFilterRules() {
+        return metricFilterRules;
+    }
+
+    /**
+     * @param metricFilterRules - The configured textarea in the job configuration
+     */
+    @DataBoundSetter
+    public void setMetricFilterRules(String metricFilterRules) {
+        this.metricFilterRules = metricFilterRules;
+        this.metricFilter = null;
+    }
+
+    /**
+     * @return the metric filter of the job, compiled on first use
+     */
+    public MetricFilter getMetricFilter() {
+        MetricFilter filter = metricFilter;
+        if (filter == null) {
+            filter = MetricFilter.compile(metricFilterRules);
+            metricFilter = filter;
+        }
+        return filter;
+    }
+
     /**
      * This method is called whenever the Job form is saved. We use the 'on' property
      * to determine if the controls are selected.
@@ -146,5 +229,14 @@ public class WavefrontJobProperty<T extends Job<?, ?>> extends JobProperty<T> {
         public boolean isApplicable(Class<? extends Job> jobType) {
             return true;
         }
+
+        public FormValidation doCheckMetricFilterRules(@QueryParameter String value) {
+            String error = MetricFilter.validate(value);
+            return error == null ? FormValidation.ok() : FormValidation.error(error);
+        }
+
+        public FormValidation doCheckSamplingRate(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
     }
 }
@@ -24,13 +24,22 @@
 
 package com.vmware.devops.plugins.wavefront;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.List;
 import java.util.Objects;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
 
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
@@ -39,12 +48,18 @@ import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 import org.kohsuke.stapler.interceptor.RequirePOST;
 
+import com.vmware.devops.plugins.wavefront.sink.FileMetricSink;
+import com.vmware.devops.plugins.wavefront.sink.FileReplayer;
+import com.vmware.devops.plugins.wavefront.sink.MetricRouter;
+import com.vmware.devops.plugins.wavefront.sink.RingBufferSink;
+import com.vmware.devops.plugins.wavefront.util.MetricFilter;
 import com.vmware.devops.plugins.wavefront.util.Sanitizer;
 
 import hudson.Extension;
 import hudson.XmlFile;
 import hudson.model.Describable;
 import hudson.model.Descriptor;
+import hudson.model.Job;
 import hudson.model.ManagementLink;
 import hudson.model.Saveable;
 import hudson.util.FormValidation;
@@ -62,18 +77,69 @@ public class WavefrontManagement extends ManagementLink implements StaplerProxy,
 
     private static final String DEFAULT_PROXY_HOSTNAME = "";
     private static final int DEFAULT_PROXY_PORT = 2878;
+    private static final int DEFAULT_TRACING_PORT = 30000;
     private static final int DEFAULT_FLUSH_INTERVAL = 5;
     private static final String DEFAULT_METRICS_PREFIX_NAME = "wjp";
     private static final String DEFAULT_JOB_METRICS_PREFIX_NAME = "wjp.job";
+    private static final int DEFAULT_LOAD_SHEDDING_HEAP_THRESHOLD = 90;
+    private static final int DEFAULT_LOAD_SHEDDING_CPU_THRESHOLD = 90;
+    private static final int DEFAULT_LOAD_SHEDDING_QUEUE_THRESHOLD = 100;
+    private static final int DEFAULT_LOAD_SHEDDING_HYSTERESIS = 10;
+    private static final int DEFAULT_FILE_SINK_MAX_FILE_SIZE = 64;
+    private static final int DEFAULT_FILE_SINK_ROTATION_INTERVAL = 60;
+    private static final int DEFAULT_FILE_SINK_MAX_FILES = 48;
+    private static final int DEFAULT_REPLAY_LINES_PER_SECOND = 1000;
+    public static final int DEFAULT_SHUTDOWN_TIMEOUT = 10;
+    private static final int DEFAULT_SLOW_STEP_THRESHOLD = 60;
+    private static final int DEFAULT_LONG_RUNNING_BUILD_FACTOR = 3;
+    private static final int DEFAULT_REGRESSION_THRESHOLD = 50;
+    private static final int DEFAULT_REGRESSION_BUILDS = 3;
+    private static final int DEFAULT_TEST_DURATION_REFRESH_BUILDS = 10;
+    private static final int DEFAULT_TEST_ANALYTICS_WINDOW = 30;
 
     private String proxyHostname = DEFAULT_PROXY_HOSTNAME;
     private int proxyPort = DEFAULT_PROXY_PORT;
+    private int tracingPort = DEFAULT_TRACING_PORT;
     private int flushInterval = DEFAULT_FLUSH_INTERVAL;
+    private int shutdownTimeout = DEFAULT_SHUTDOWN_TIMEOUT;
     private String metricsPrefixName = DEFAULT_METRICS_PREFIX_NAME;
     private String jobMetricsPrefixName = DEFAULT_JOB_METRICS_PREFIX_NAME;
     private boolean enableSendingJunitReportDataForAllJobs = false;
     private boolean enableSendingJacocoReportDataForAllJobs = false;
     private boolean enableSendingParametersAsTagsForAllJobs = false;
+    private boolean enableBuildMetricsAggregationForAllJobs = false;
+    private boolean enableSendingTraces = false;
+    private boolean enableSendingStepSpans = false;
+    private boolean enableStepTypeMetrics = false;
+    private int slowStepThreshold = DEFAULT_SLOW_STEP_THRESHOLD;
+    private int longRunningBuildFactor = DEFAULT_LONG_RUNNING_BUILD_FACTOR;
+    private boolean enableRegressionDetection = false;
+    private int regressionThreshold = DEFAULT_REGRESSION_THRESHOLD;
+    private int regressionBuilds = DEFAULT_REGRESSION_BUILDS;
+    private boolean enablePerformanceTrends = false;
+    private int testDurationTolerance = 0;
+    private int testDurationRefreshBuilds = DEFAULT_TEST_DURATION_REFRESH_BUILDS;
+    private boolean enableTestAnalytics = false;
+    private int testAnalyticsWindow = DEFAULT_TEST_ANALYTICS_WINDOW;
+    private boolean enableIncrementalTestMetrics = false;
+    private int testRollupDepth = 0;
+    private boolean sendTestRollupsOnly = false;
+    private int jacocoPackageLimit = 0;
+    private String folderSamplingPolicies = "";
+    private String metricFilterRules = "";
+    private boolean enablePrometheusEndpoint = false;
+    private boolean enableFileSink = false;
+    private int fileSinkMaxFileSize = DEFAULT_FILE_SINK_MAX_FILE_SIZE;
+    private int fileSinkRotationInterval = DEFAULT_FILE_SINK_ROTATION_INTERVAL;
+    private int fileSinkMaxFiles = DEFAULT_FILE_SINK_MAX_FILES;
+    private int replayLinesPerSecond = DEFAULT_REPLAY_LINES_PER_SECOND;
+    private boolean enableRingBufferSink = false;
+    private transient volatile MetricFilter metricFilter;
+    private boolean enableLoadShedding = false;
+    private int loadSheddingHeapThreshold = DEFAULT_LOAD_SHEDDING_HEAP_THRESHOLD;
+    private int loadSheddingCpuThreshold = DEFAULT_LOAD_SHEDDING_CPU_THRESHOLD;
+    private int loadSheddingQueueThreshold = DEFAULT_LOAD_SHEDDING_QUEUE_THRESHOLD;
+    private int loadSheddingHysteresis = DEFAULT_LOAD_SHEDDING_HYSTERESIS;
 
     private static String VALIDATION_SUCCESS = "Success";
     private static String INVALID_PORT_ERROR_MESSAGE = "Invalid port specified. Range must be 0-65535";
@@ -134,10 +200,48 @@ public class WavefrontManagement extends ManagementLink implements StaplerProxy,
         JSONObject form = req.getSubmittedForm();
 
         int proxyPort;
+        int tracingPort;
         int flushInterval;
+        int shutdownTimeout;
+        int loadSheddingHeapThreshold;
+        int loadSheddingCpuThreshold;
+        int loadSheddingQueueThreshold;
+        int loadSheddingHysteresis;
+        int fileSinkMaxFileSize;
+        int fileSinkRotationInterval;
+        int fileSinkMaxFiles;
+        int replayLinesPerSecond;
+        int slowStepThreshold;
+        int longRunningBuildFactor;
+        int regressionThreshold;
+        int regressionBuilds;
+        int testDurationTolerance;
+        int testDurationRefreshBuilds;
+        int testAnalyticsWindow;
+        int testRollupDepth;
+        int jacocoPackageLimit;
         try {
             proxyPort = form.getInt("proxyPort");
+            tracingPort = form.getInt("tracingPort");
             flushInterval = form.getInt("flushInterval");
+            shutdownTimeout = form.getInt("shutdownTimeout");
+            loadSheddingHeapThreshold = form.getInt("loadSheddingHeapThreshold");
+            loadSheddingCpuThreshold = form.getInt("loadSheddingCpuThreshold");
+            loadSheddingQueueThreshold = form.getInt("loadSheddingQueueThreshold");
+            loadSheddingHysteresis = form.getInt("loadSheddingHysteresis");
+            fileSinkMaxFileSize = form.getInt("fileSinkMaxFileSize");
+            fileSinkRotationInterval = form.getInt("fileSinkRotationInterval");
+            fileSinkMaxFiles = form.getInt("fileSinkMaxFiles");
+            replayLinesPerSecond = form.getInt("replayLinesPerSecond");
+            slowStepThreshold = form.getInt("slowStepThreshold");
+            longRunningBuildFactor = form.getInt("longRunningBuildFactor");
+            regressionThreshold = form.getInt("regressionThreshold");
+            regressionBuilds = form.getInt("regressionBuilds");
+            testDurationTolerance = form.getInt("testDurationTolerance");
+            testDurationRefreshBuilds = form.getInt("testDurationRefreshBuilds");
+            testAnalyticsWindow = form.getInt("testAnalyticsWindow");
+            testRollupDepth = form.getInt("testRollupDepth");
+            jacocoPackageLimit = form.getInt("jacocoPackageLimit");
         } catch (Exception e) {
             LOGGER.log(Level.WARNING, "Invalid input, configuration not set");
             rsp.sendRedirect(".");
@@ -151,18 +255,173 @@ public class WavefrontManagement extends ManagementLink implements StaplerProxy,
             rsp.sendRedirect(".");
             return;
         }
+        if (tracingPort < 0 || tracingPort > 65535) {
+            LOGGER.log(Level.WARNING, "Invalid tracing port, configuration not set");
+            rsp.sendRedirect(".");
+            return;
+        }
         setProxyHostname(form.getString("proxyHostname"));
         setProxyPort(proxyPort);
+        setTracingPort(tracingPort);
         setFlushInterval(flushInterval);
+        setShutdownTimeout(Math.max(0, shutdownTimeout));
         setMetricsPrefixName(Sanitizer.sanitizeFullMetricCategory(form.getString("metricsPrefixName")));
         setJobMetricsPrefixName(Sanitizer.sanitizeFullMetricCategory(form.getString("jobMetricsPrefixName")));
         setEnableSendingJunitReportDataForAllJobs(form.getBoolean("enableSendingJunitReportDataForAllJobs"));
         setEnableSendingJacocoReportDataForAllJobs(form.getBoolean("enableSendingJacocoReportDataForAllJobs"));
         setEnableSendingParametersAsTagsForAllJobs(form.getBoolean("enableSendingParametersAsTagsForAllJobs"));
+        setEnableBuildMetricsAggregationForAllJobs(form.getBoolean("enableBuildMetricsAggregationForAllJobs"));
+        setEnableSendingTraces(form.getBoolean("enableSendingTraces"));
+        setEnableSendingStepSpans(form.getBoolean("enableSendingStepSpans"));
+        setEnableStepTypeMetrics(form.getBoolean("enableStepTypeMetrics"));
+        setSlowStepThreshold(Math.max(0, slowStepThreshold));
+        setLongRunningBuildFactor(Math.max(0, longRunningBuildFactor));
+        setEnableRegressionDetection(form.getBoolean("enableRegressionDetection"));
+        setRegressionThreshold(Math.max(1, regressionThreshold));
+        setRegressionBuilds(Math.max(1, regressionBuilds));
+        setEnablePerformanceTrends(form.getBoolean("enablePerformanceTrends"));
+        setTestDurationTolerance(Math.max(0, testDurationTolerance));
+        setTestDurationRefreshBuilds(Math.max(1, testDurationRefreshBuilds));
+        setEnableTestAnalytics(form.getBoolean("enableTestAnalytics"));
+        setTestAnalyticsWindow(Math.min(TestHistory.MAX_WINDOW, Math.max(3, testAnalyticsWindow)));
+        setEnableIncrementalTestMetrics(form.getBoolean("enableIncrementalTestMetrics"));
+        setTestRollupDepth(Math.max(0, testRollupDepth));
+        setSendTestRollupsOnly(form.getBoolean("sendTestRollupsOnly"));
+        setJacocoPackageLimit(Math.max(0, jacocoPackageLimit));
+        setFolderSamplingPolicies(form.getString("folderSamplingPolicies"));
+        setMetricFilterRules(form.getString("metricFilterRules"));
+        setEnablePrometheusEndpoint(form.getBoolean("enablePrometheusEndpoint"));
+        setEnableFileSink(form.getBoolean("enableFileSink"));
+        setFileSinkMaxFileSize(Math.max(1, fileSinkMaxFileSize));
+        setFileSinkRotationInterval(Math.max(1, fileSinkRotationInterval));
+        setFileSinkMaxFiles(Math.max(1, fileSinkMaxFiles));
+        setReplayLinesPerSecond(Math.max(1, replayLinesPerSecond));
+        setEnableRingBufferSink(form.getBoolean("enableRingBufferSink"));
+        setEnableLoadShedding(form.getBoolean("enableLoadShedding"));
+        setLoadSheddingHeapThreshold(loadSheddingHeapThreshold);
+        setLoadSheddingCpuThreshold(loadSheddingCpuThreshold);
+        setLoadSheddingQueueThreshold(loadSheddingQueueThreshold);
+        setLoadSheddingHysteresis(loadSheddingHysteresis);
         rsp.sendRedirect(".");
         save();
     }
 
+    /**
+     * Exposes the latest values of the plugin metrics in the Prometheus text format.
+     *
+     * @param req StaplerRequest
+     * @param rsp StaplerResponse
+     * @throws IOException if writing the response fails
+     */
+    public void doPrometheus(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        if (!enablePrometheusEndpoint) {
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        rsp.setContentType("text/plain; version=0.0.4; charset=utf-8");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(rsp.getOutputStream(), StandardCharsets.UTF_8));
+        PrometheusRegistry.get().writeTo(writer);
+    }
+
+    /**
+     * Lists the points kept by the in-memory ring buffer sink, one per line in the Wavefront data format.
+     *
+     * @param req StaplerRequest
+     * @param rsp StaplerResponse
+     * @throws IOException if writing the response fails
+     */
+    public void doRecentPoints(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        if (!enableRingBufferSink) {
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        rsp.setContentType("text/plain; charset=utf-8");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(rsp.getOutputStream(), StandardCharsets.UTF_8));
+        for (String line : RingBufferSink.get().getRecentLines()) {
+            writer.write(line);
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+
+    /**
+     * Starts streaming a file written by the local file sink to the proxy.
+     *
+     * @param name the name of the file
+     * @param rsp  StaplerResponse
+     * @throws IOException if the redirect fails
+     */
+    @RequirePOST
+    public void doReplayFile(@QueryParameter String name, StaplerResponse rsp) throws IOException {
+        File file = null;
+        for (File f : FileMetricSink.getFiles()) {
+            if (f.getName().equals(name)) {
+                file = f;
+            }
+        }
+        if (file == null || !isProxyConfigured()) {
+            rsp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+        if (!FileReplayer.start(file, proxyHostname, proxyPort, replayLinesPerSecond)) {
+            LOGGER.log(Level.WARNING, "Another file is being replayed, not replaying " + name);
+        }
+        rsp.sendRedirect(".");
+    }
+
+    @RequirePOST
+    public void doCancelReplay(StaplerResponse rsp) throws IOException {
+        FileReplayer replay = FileReplayer.getCurrent();
+        if (replay != null) {
+            replay.cancel();
+        }
+        rsp.sendRedirect(".");
+    }
+
+    /**
+     * Starts sending the metrics of past builds.
+     *
+     * @param jobs            the full names of the jobs, one glob per line
+     * @param from            the first day, yyyy-MM-dd
+     * @param to              the last day, yyyy-MM-dd
+     * @param threads         the number of workers
+     * @param pointsPerSecond the maximum rate
+     * @param rsp             StaplerResponse
+     * @throws IOException if the redirect fails
+     */
+    @RequirePOST
+    public void doStartBackfill(@QueryParameter String jobs, @QueryParameter String from, @QueryParameter String to,
+            @QueryParameter int threads, @QueryParameter int pointsPerSecond, StaplerResponse rsp) throws IOException {
+        long fromMillis;
+        long toMillis;
+        try {
+            fromMillis = LocalDate.parse(from).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            toMillis = LocalDate.parse(to).plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            LOGGER.log(Level.WARNING, "Invalid backfill time range, backfill not started");
+            rsp.sendRedirect(".");
+            return;
+        }
+        if (!BackfillTask.start(jobs, fromMillis, toMillis, Math.min(Math.max(1, threads), 8),
+                Math.max(1, pointsPerSecond))) {
+            LOGGER.log(Level.WARNING, "Another backfill is running, backfill not started");
+        }
+        rsp.sendRedirect(".");
+    }
+
+    @RequirePOST
+    public void doCancelBackfill(StaplerResponse rsp) throws IOException {
+        BackfillTask backfill = BackfillTask.getCurrent();
+        if (backfill != null) {
+            backfill.cancel();
+        }
+        rsp.sendRedirect(".");
+    }
+
+    public BackfillTask getBackfill() {
+        return BackfillTask.getCurrent();
+    }
+
     @Override
     public void save() throws IOException {
         WavefrontMonitor wm = WavefrontMonitor.getInstance();
@@ -211,6 +470,14 @@ public class WavefrontManagement extends ManagementLink implements StaplerProxy,
         this.proxyPort = proxyPort;
     }
 
+    public int getTracingPort() {
+        return tracingPort;
+    }
+
+    public void setTracingPort(int tracingPort) {
+        this.tracingPort = tracingPort;
+    }
+
     public int getFlushInterval() {
         return flushInterval;
     }
@@ -219,6 +486,14 @@ public class WavefrontManagement extends ManagementLink implements StaplerProxy,
         this.flushInterval = flushInterval;
     }
 
+    public int getShutdownTimeout() {
+        return shutdownTimeout;
+    }
+
+    public void setShutdownTimeout(int shutdownTimeout) {
+        this.shutdownTimeout = shutdownTimeout;
+    }
+
     public String getMetricsPrefixName() {
         return metricsPrefixName;
     }
@@ -259,6 +534,334 @@ public class WavefrontManagement extends ManagementLink implements StaplerProxy,
         this.enableSendingParametersAsTagsForAllJobs = enableSendingParametersAsTagsForAllJobs;
     }
 
+    public boolean isEnableBuildMetricsAggregationForAllJobs() {
+        return enableBuildMetricsAggregationForAllJobs;
+    }
+
+    public void setEnableBuildMetricsAggregationForAllJobs(boolean enableBuildMetricsAggregationForAllJobs) {
+        this.enableBuildMetricsAggregationForAllJobs = enableBuildMetricsAggregationForAllJobs;
+    }
+
+    public boolean isEnableSendingTraces() {
+        return enableSendingTraces;
+    }
+
+    public void setEnableSendingTraces(boolean enableSendingTraces) {
+        this.enableSendingTraces = enableSendingTraces;
+    }
+
+    public boolean isEnableSendingStepSpans() {
+        return enableSendingStepSpans;
+    }
+
+    public void setEnableSendingStepSpans(boolean enableSendingStepSpans) {
+        this.enableSendingStepSpans = enableSendingStepSpans;
+    }
+
+    public boolean isEnableStepTypeMetrics() {
+        return enableStepTypeMetrics;
+    }
+
+    public void setEnableStepTypeMetrics(boolean enableStepTypeMetrics) {
+        this.enableStepTypeMetrics = enableStepTypeMetrics;
+    }
+
+    public int getSlowStepThreshold() {
+        return slowStepThreshold;
+    }
+
+    public void setSlowStepThreshold(int slowStepThreshold) {
+        this.slowStepThreshold = slowStepThreshold;
+    }
+
+    public int getLongRunningBuildFactor() {
+        return longRunningBuildFactor;
+    }
+
+    public void setLongRunningBuildFactor(int longRunningBuildFactor) {
+        this.longRunningBuildFactor = longRunningBuildFactor;
+    }
+
+    public boolean isEnableRegressionDetection() {
+        return enableRegressionDetection;
+    }
+
+    public void setEnableRegressionDetection(boolean enableRegressionDetection) {
+        this.enableRegressionDetection = enableRegressionDetection;
+    }
+
+    /**
+     * @return how many percent slower than its baseline a build or a stage has to be to count as regressed
+     */
+    public int getRegressionThreshold() {
+        return regressionThreshold;
+    }
+
+    public void setRegressionThreshold(int regressionThreshold) {
+        this.regressionThreshold = regressionThreshold;
+    }
+
+    public int getRegressionBuilds() {
+        return regressionBuilds;
+    }
+
+    public void setRegressionBuilds(int regressionBuilds) {
+        this.regressionBuilds = regressionBuilds;
+    }
+
+    public boolean isEnablePerformanceTrends() {
+        return enablePerformanceTrends;
+    }
+
+    public void setEnablePerformanceTrends(boolean enablePerformanceTrends) {
+        this.enablePerformanceTrends = enablePerformanceTrends;
+    }
+
+    /**
+     * @return the change in percent below which the duration of a passed test is not sent again, 0 to send all
+     */
+    public int getTestDurationTolerance() {
+        return testDurationTolerance;
+    }
+
+    public void setTestDurationTolerance(int testDurationTolerance) {
+        this.testDurationTolerance = testDurationTolerance;
+    }
+
+    public int getTestDurationRefreshBuilds() {
+        return testDurationRefreshBuilds;
+    }
+
+    public void setTestDurationRefreshBuilds(int testDurationRefreshBuilds) {
+        this.testDurationRefreshBuilds = testDurationRefreshBuilds;
+    }
+
+    public boolean isEnableTestAnalytics() {
+        return enableTestAnalytics;
+    }
+
+    public void setEnableTestAnalytics(boolean enableTestAnalytics) {
+        this.enableTestAnalytics = enableTestAnalytics;
+    }
+
+    /**
+     * @return the number of builds with test results over which flaky and slow tests are found
+     */
+    public int getTestAnalyticsWindow() {
+        return testAnalyticsWindow;
+    }
+
+    public void setTestAnalyticsWindow(int testAnalyticsWindow) {
+        this.testAnalyticsWindow = testAnalyticsWindow;
+    }
+
+    public boolean isEnableIncrementalTestMetrics() {
+        return enableIncrementalTestMetrics;
+    }
+
+    public void setEnableIncrementalTestMetrics(boolean enableIncrementalTestMetrics) {
+        this.enableIncrementalTestMetrics = enableIncrementalTestMetrics;
+    }
+
+    /**
+     * @return the number of package levels the test results are rolled up to, 0 if they aren't rolled up
+     */
+    public int getTestRollupDepth() {
+        return testRollupDepth;
+    }
+
+    public void setTestRollupDepth(int testRollupDepth) {
+        this.testRollupDepth = testRollupDepth;
+    }
+
+    public boolean isSendTestRollupsOnly() {
+        return sendTestRollupsOnly;
+    }
+
+    public void setSendTestRollupsOnly(boolean sendTestRollupsOnly) {
+        this.sendTestRollupsOnly = sendTestRollupsOnly;
+    }
+
+    /**
+     * @return the maximum number of packages whose coverage is sent for a build, 0 if none are sent
+     */
+    public int getJacocoPackageLimit() {
+        return jacocoPackageLimit;
+    }
+
+    public void setJacocoPackageLimit(int jacocoPackageLimit) {
+        this.jacocoPackageLimit = jacocoPackageLimit;
+    }
+
+    public String getFolderSamplingPolicies() {
+        return folderSamplingPolicies;
+    }
+
+    public void setFolderSamplingPolicies(String folderSamplingPolicies) {
+        this.folderSamplingPolicies = folderSamplingPolicies;
+    }
+
+    public String getMetricFilterRules() {
+        return metricFilterRules;
+    }
+
+    public void setMetricFilterRules(String metricFilterRules) {
+        this.metricFilterRules = metricFilterRules;
+        this.metricFilter = null;
+    }
+
+    /**
+     * @return the global metric filter, compiled on first use
+     */
+    public MetricFilter getMetricFilter() {
+        MetricFilter filter = metricFilter;
+        if (filter == null) {
+            filter = MetricFilter.compile(metricFilterRules);
+            metricFilter = filter;
+        }
+        return filter;
+    }
+
+    /**
+     * @param job the job the metrics belong to
+     * @return the global metric filter combined with the filter of the job property
+     */
+    public MetricFilter getMetricFilter(Job<?, ?> job) {
+        WavefrontJobProperty jobProperty = job.getProperty(WavefrontJobProperty.class);
+        if (jobProperty == null) {
+            return getMetricFilter();
+        }
+        return getMetricFilter().and(jobProperty.getMetricFilter());
+    }
+
+    public boolean isEnablePrometheusEndpoint() {
+        return enablePrometheusEndpoint;
+    }
+
+    public void setEnablePrometheusEndpoint(boolean enablePrometheusEndpoint) {
+        this.enablePrometheusEndpoint = enablePrometheusEndpoint;
+    }
+
+    public boolean isEnableFileSink() {
+        return enableFileSink;
+    }
+
+    public void setEnableFileSink(boolean enableFileSink) {
+        this.enableFileSink = enableFileSink;
+    }
+
+    public int getFileSinkMaxFileSize() {
+        return fileSinkMaxFileSize;
+    }
+
+    public void setFileSinkMaxFileSize(int fileSinkMaxFileSize) {
+        this.fileSinkMaxFileSize = fileSinkMaxFileSize;
+    }
+
+    public int getFileSinkRotationInterval() {
+        return fileSinkRotationInterval;
+    }
+
+    public void setFileSinkRotationInterval(int fileSinkRotationInterval) {
+        this.fileSinkRotationInterval = fileSinkRotationInterval;
+    }
+
+    public int getFileSinkMaxFiles() {
+        return fileSinkMaxFiles;
+    }
+
+    public void setFileSinkMaxFiles(int fileSinkMaxFiles) {
+        this.fileSinkMaxFiles = fileSinkMaxFiles;
+    }
+
+    public int getReplayLinesPerSecond() {
+        return replayLinesPerSecond;
+    }
+
+    public void setReplayLinesPerSecond(int replayLinesPerSecond) {
+        this.replayLinesPerSecond = replayLinesPerSecond;
+    }
+
+    /**
+     * @return the files written by the local file sink, oldest first
+     */
+    public List<File> getSinkFiles() {
+        return FileMetricSink.getFiles();
+    }
+
+    public FileReplayer getFileReplay() {
+        return FileReplayer.getCurrent();
+    }
+
+    public boolean isEnableRingBufferSink() {
+        return enableRingBufferSink;
+    }
+
+    public void setEnableRingBufferSink(boolean enableRingBufferSink) {
+        this.enableRingBufferSink = enableRingBufferSink;
+    }
+
+    /**
+     * @return the queues of the metric sinks, for the statistics on the management page
+     */
+    public List<MetricRouter.SinkQueue> getSinkQueues() {
+        return MetricRouter.get().getQueues();
+    }
+
+    /**
+     * @return true if a proxy hostname is configured and metrics should be pushed to it
+     */
+    public boolean isProxyConfigured() {
+        return proxyHostname != null && !proxyHostname.equals("");
+    }
+
+    /**
+     * @return true if metrics should be collected for at least one export path
+     */
+    public boolean isMetricsExportEnabled() {
+        return isProxyConfigured() || enablePrometheusEndpoint || enableFileSink || enableRingBufferSink;
+    }
+
+    public boolean isEnableLoadShedding() {
+        return enableLoadShedding;
+    }
+
+    public void setEnableLoadShedding(boolean enableLoadShedding) {
+        this.enableLoadShedding = enableLoadShedding;
+    }
+
+    public int getLoadSheddingHeapThreshold() {
+        return loadSheddingHeapThreshold;
+    }
+
+    public void setLoadSheddingHeapThreshold(int loadSheddingHeapThreshold) {
+        this.loadSheddingHeapThreshold = loadSheddingHeapThreshold;
+    }
+
+    public int getLoadSheddingCpuThreshold() {
+        return loadSheddingCpuThreshold;
+    }
+
+    public void setLoadSheddingCpuThreshold(int loadSheddingCpuThreshold) {
+        this.loadSheddingCpuThreshold = loadSheddingCpuThreshold;
+    }
+
+    public int getLoadSheddingQueueThreshold() {
+        return loadSheddingQueueThreshold;
+    }
+
+    public void setLoadSheddingQueueThreshold(int loadSheddingQueueThreshold) {
+        this.loadSheddingQueueThreshold = loadSheddingQueueThreshold;
+    }
+
+    public int getLoadSheddingHysteresis() {
+        return loadSheddingHysteresis;
+    }
+
+    public void setLoadSheddingHysteresis(int loadSheddingHysteresis) {
+        this.loadSheddingHysteresis = loadSheddingHysteresis;
+    }
+
     /**
      * Descriptor is only used for UI form bindings.
      */
@@ -284,6 +887,16 @@ public class WavefrontManagement extends ManagementLink implements StaplerProxy,
                 return FormValidation.error(INVALID_INPUT_ERROR_MESSAGE);
             }
         }
+
+        public FormValidation doCheckMetricFilterRules(@QueryParameter String value) {
+            String error = MetricFilter.validate(value);
+            return error == null ? FormValidation.ok() : FormValidation.error(error);
+        }
+
+        public FormValidation doCheckFolderSamplingPolicies(@QueryParameter String value) {
+            String error = SamplingPolicy.validate(value);
+            return error == null ? FormValidation.ok() : FormValidation.error(error);
+        }
     }
 
     @Override
@@ -300,6 +913,7 @@ public class WavefrontManagement extends ManagementLink implements StaplerProxy,
 
         try {
             file.unmarshal(this);
+            metricFilter = null;
         } catch (IOException e) {
             LOGGER.log(Level.WARNING, "Failed to load " + file, e);
         }
@@ -315,19 +929,62 @@ public class WavefrontManagement extends ManagementLink implements StaplerProxy,
         }
         WavefrontManagement that = (WavefrontManagement) o;
         return proxyPort == that.proxyPort &&
+                tracingPort == that.tracingPort &&
                 flushInterval == that.flushInterval &&
+                shutdownTimeout == that.shutdownTimeout &&
                 Objects.equals(proxyHostname, that.proxyHostname) &&
                 Objects.equals(metricsPrefixName, that.metricsPrefixName) &&
                 Objects.equals(jobMetricsPrefixName, that.jobMetricsPrefixName) &&
                 enableSendingJunitReportDataForAllJobs == that.enableSendingJunitReportDataForAllJobs &&
                 enableSendingJacocoReportDataForAllJobs == that.enableSendingJacocoReportDataForAllJobs &&
-                enableSendingParametersAsTagsForAllJobs == that.enableSendingParametersAsTagsForAllJobs;
+                enableSendingParametersAsTagsForAllJobs == that.enableSendingParametersAsTagsForAllJobs &&
+                enableBuildMetricsAggregationForAllJobs == that.enableBuildMetricsAggregationForAllJobs &&
+                enableSendingTraces == that.enableSendingTraces &&
+                enableSendingStepSpans == that.enableSendingStepSpans &&
+                enableStepTypeMetrics == that.enableStepTypeMetrics &&
+                slowStepThreshold == that.slowStepThreshold &&
+                longRunningBuildFactor == that.longRunningBuildFactor &&
+                enableRegressionDetection == that.enableRegressionDetection &&
+                regressionThreshold == that.regressionThreshold &&
+                regressionBuilds == that.regressionBuilds &&
+                enablePerformanceTrends == that.enablePerformanceTrends &&
+                testDurationTolerance == that.testDurationTolerance &&
+                testDurationRefreshBuilds == that.testDurationRefreshBuilds &&
+                enableTestAnalytics == that.enableTestAnalytics &&
+                testAnalyticsWindow == that.testAnalyticsWindow &&
+                enableIncrementalTestMetrics == that.enableIncrementalTestMetrics &&
+                testRollupDepth == that.testRollupDepth &&
+                sendTestRollupsOnly == that.sendTestRollupsOnly &&
+                jacocoPackageLimit == that.jacocoPackageLimit &&
+                Objects.equals(folderSamplingPolicies, that.folderSamplingPolicies) &&
+                Objects.equals(metricFilterRules, that.metricFilterRules) &&
+                enablePrometheusEndpoint == that.enablePrometheusEndpoint &&
+                enableFileSink == that.enableFileSink &&
+                fileSinkMaxFileSize == that.fileSinkMaxFileSize &&
+                fileSinkRotationInterval == that.fileSinkRotationInterval &&
+                fileSinkMaxFiles == that.fileSinkMaxFiles &&
+                replayLinesPerSecond == that.replayLinesPerSecond &&
+                enableRingBufferSink == that.enableRingBufferSink &&
+                enableLoadShedding == that.enableLoadShedding &&
+                loadSheddingHeapThreshold == that.loadSheddingHeapThreshold &&
+                loadSheddingCpuThreshold == that.loadSheddingCpuThreshold &&
+                loadSheddingQueueThreshold == that.loadSheddingQueueThreshold &&
+                loadSheddingHysteresis == that.loadSheddingHysteresis;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(proxyHostname, proxyPort, flushInterval, metricsPrefixName, jobMetricsPrefixName,
-                enableSendingJunitReportDataForAllJobs, enableSendingJacocoReportDataForAllJobs, enableSendingParametersAsTagsForAllJobs);
+        return Objects.hash(proxyHostname, proxyPort, tracingPort, flushInterval, shutdownTimeout, metricsPrefixName, jobMetricsPrefixName,
+                enableSendingJunitReportDataForAllJobs, enableSendingJacocoReportDataForAllJobs, enableSendingParametersAsTagsForAllJobs,
+                enableBuildMetricsAggregationForAllJobs, enableSendingTraces, enableSendingStepSpans, folderSamplingPolicies,
+                metricFilterRules, enableStepTypeMetrics, slowStepThreshold, longRunningBuildFactor,
+                enableRegressionDetection, regressionThreshold, regressionBuilds, enablePerformanceTrends,
+                testDurationTolerance, testDurationRefreshBuilds, enableTestAnalytics, testAnalyticsWindow,
+                enableIncrementalTestMetrics, testRollupDepth, sendTestRollupsOnly, jacocoPackageLimit,
+                enablePrometheusEndpoint, enableFileSink, fileSinkMaxFileSize, fileSinkRotationInterval, fileSinkMaxFiles,
+                replayLinesPerSecond, enableRingBufferSink,
+                enableLoadShedding, loadSheddingHeapThreshold, loadSheddingCpuThreshold, loadSheddingQueueThreshold,
+                loadSheddingHysteresis);
     }
 
     @Override
@@ -335,12 +992,46 @@ public class WavefrontManagement extends ManagementLink implements StaplerProxy,
         return "WavefrontManagement{" +
                 "proxyHostname='" + proxyHostname + '\'' +
                 ", proxyPort=" + proxyPort +
+                ", tracingPort=" + tracingPort +
                 ", flushInterval=" + flushInterval +
+                ", shutdownTimeout=" + shutdownTimeout +
                 ", metricsPrefixName='" + metricsPrefixName + '\'' +
                 ", jobMetricsPrefixName='" + jobMetricsPrefixName + '\'' +
                 ", enableSendingJunitReportDataForAllJobs=" + enableSendingJunitReportDataForAllJobs +
                 ", enableSendingJacocoReportDataForAllJobs=" + enableSendingJacocoReportDataForAllJobs +
                 ", enableSendingParametersAsTagsForAllJobs=" + enableSendingParametersAsTagsForAllJobs +
+                ", enableBuildMetricsAggregationForAllJobs=" + enableBuildMetricsAggregationForAllJobs +
+                ", enableSendingTraces=" + enableSendingTraces +
+                ", enableSendingStepSpans=" + enableSendingStepSpans +
+                ", enableStepTypeMetrics=" + enableStepTypeMetrics +
+                ", slowStepThreshold=" + slowStepThreshold +
+                ", longRunningBuildFactor=" + longRunningBuildFactor +
+                ", enableRegressionDetection=" + enableRegressionDetection +
+                ", regressionThreshold=" + regressionThreshold +
+                ", regressionBuilds=" + regressionBuilds +
+                ", enablePerformanceTrends=" + enablePerformanceTrends +
+                ", testDurationTolerance=" + testDurationTolerance +
+                ", testDurationRefreshBuilds=" + testDurationRefreshBuilds +
+                ", enableTestAnalytics=" + enableTestAnalytics +
+                ", testAnalyticsWindow=" + testAnalyticsWindow +
+                ", enableIncrementalTestMetrics=" + enableIncrementalTestMetrics +
+                ", testRollupDepth=" + testRollupDepth +
+                ", sendTestRollupsOnly=" + sendTestRollupsOnly +
+                ", jacocoPackageLimit=" + jacocoPackageLimit +
+                ", folderSamplingPolicies='" + folderSamplingPolicies + '\'' +
+                ", metricFilterRules='" + metricFilterRules + '\'' +
+                ", enablePrometheusEndpoint=" + enablePrometheusEndpoint +
+                ", enableFileSink=" + enableFileSink +
+                ", fileSinkMaxFileSize=" + fileSinkMaxFileSize +
+                ", fileSinkRotationInterval=" + fileSinkRotationInterval +
+                ", fileSinkMaxFiles=" + fileSinkMaxFiles +
+                ", replayLinesPerSecond=" + replayLinesPerSecond +
+                ", enableRingBufferSink=" + enableRingBufferSink +
+                ", enableLoadShedding=" + enableLoadShedding +
+                ", loadSheddingHeapThreshold=" + loadSheddingHeapThreshold +
+                ", loadSheddingCpuThreshold=" + loadSheddingCpuThreshold +
+                ", loadSheddingQueueThreshold=" + loadSheddingQueueThreshold +
+                ", loadSheddingHysteresis=" + loadSheddingHysteresis +
                 '}';
     }
 }
\ No newline at end of file
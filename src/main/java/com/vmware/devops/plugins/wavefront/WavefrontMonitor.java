@@ -25,10 +25,17 @@
 package com.vmware.devops.plugins.wavefront;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.vmware.devops.plugins.wavefront.sink.MetricPoint;
+import com.vmware.devops.plugins.wavefront.sink.MetricRouter;
+import com.vmware.devops.plugins.wavefront.util.MetricFilter;
 import com.wavefront.sdk.proxy.WavefrontProxyClient;
 
 import hudson.Extension;
@@ -36,6 +43,7 @@ import hudson.ExtensionList;
 import hudson.model.AperiodicWork;
 import hudson.model.Label;
 import hudson.model.LoadStatistics.LoadStatisticsSnapshot;
+import hudson.model.Run;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import jenkins.model.Jenkins;
@@ -59,6 +67,21 @@ public class WavefrontMonitor extends AperiodicWork {
     private static final String QUEUE_LENGTH = "queue-length";
 
     private static final String LABEL = "label";
+    private static final String LOAD_SHEDDING = "load-shedding";
+    private static final String STATUS = "Status";
+    private static final String BUILDS_COUNT = "builds.count";
+    private static final String BUILDS_DURATION_SUM = "builds.duration-sum";
+    private static final String BUILDS_DURATION_MAX = "builds.duration-max";
+    private static final String RUNNING_BUILDS = "running-builds";
+    private static final String RUNNING_ELAPSED = "running.elapsed";
+    private static final String LONG_RUNNING_BUILD = "long-running-build";
+    private static final String JOB_NAME = "Job Name";
+    private static final String BUILD_NUMBER = "Build Number";
+    private static final int LONGEST_RUNNING_BUILDS = 10;
+    private static final int RECENT_BUILDS = 10;
+    private static final int MIN_RECENT_BUILDS = 3;
+    private static final String LOAD_SHEDDING_STARTED_EVENT = "Wavefront plugin load shedding started";
+    private static final String LOAD_SHEDDING_STOPPED_EVENT = "Wavefront plugin load shedding stopped";
 
     private static WavefrontProxyClient wavefrontSender;
     private static WavefrontManagement wfManagement;
@@ -84,17 +107,19 @@ public class WavefrontMonitor extends AperiodicWork {
 
     @Override
     protected void doAperiodicRun() {
-        if (wfManagement.getProxyHostname() != null && !wfManagement.getProxyHostname().equals("")) {
+        if (wfManagement.isMetricsExportEnabled()) {
             LOGGER.log(Level.FINE, "Sending data to wavefront");
             SystemMetrics.SystemMetricsSnapshot snapshot = SystemMetrics.getSystemMetricsSnapshot();
             String source = wfManagement.getProxyHostname();
-            try {
-                sendMetricsToWavefront(snapshot, source);
+            updateLoadSheddingMode(snapshot, source);
+            sendMetricsToWavefront(snapshot, source);
+            if (!LoadShedder.isShedding()) {
                 sendMetricsToWavefrontFromLabels(source);
-                LOGGER.log(Level.FINE, "Successfully sent data");
-            } catch (IOException e) {
-                LOGGER.log(Level.WARNING, "Failed to send metrics to Wavefront", e);
+                CpsOverheadMetrics.sendRunning(wfManagement, System.currentTimeMillis());
             }
+            sendAggregatedBuildMetricsToWavefront(System.currentTimeMillis(), source);
+            sendRunningBuildsToWavefront(System.currentTimeMillis(), source);
+            LOGGER.log(Level.FINE, "Successfully published data");
         }
     }
 
@@ -104,7 +129,7 @@ public class WavefrontMonitor extends AperiodicWork {
     }
 
 
-    public void sendMetricsToWavefront(SystemMetrics.SystemMetricsSnapshot snapshot, String source) throws IOException {
+    public void sendMetricsToWavefront(SystemMetrics.SystemMetricsSnapshot snapshot, String source) {
         sendMetricsToWavefront(SYSTEM_CPU, snapshot.getCpuLoad(), source);
         sendMetricsToWavefront(TOTAL_PHYSICAL_MEMORY, snapshot.getTotalPhysicalMemory(), source);
         sendMetricsToWavefront(FREE_PHYSICAL_MEMORY, snapshot.getFreePhysicalMemory(), source);
@@ -112,9 +137,57 @@ public class WavefrontMonitor extends AperiodicWork {
         sendMetricsToWavefront(USED_HEAP_MEMORY, snapshot.getUsedHeapMemory(), source);
     }
 
-    public void sendMetricsToWavefrontFromLabels(String source) throws IOException {
+    /**
+     * Re-evaluates whether optional metrics should be skipped and reports every mode change as an event.
+     *
+     * @param snapshot the system metrics collected on this run
+     * @param source   the source of the metrics
+     */
+    public void updateLoadSheddingMode(SystemMetrics.SystemMetricsSnapshot snapshot, String source) {
+        LoadShedder shedder = LoadShedder.get();
+        if (!wfManagement.isEnableLoadShedding()) {
+            if (shedder.reset()) {
+                sendLoadSheddingEvent(false, "Load shedding has been disabled", source);
+            }
+            return;
+        }
+
+        double heapUsage = LoadShedder.toPercent(snapshot.getUsedHeapMemory(), snapshot.getMaxHeapMemory());
+        double cpuUsage = Math.max(snapshot.getCpuLoad(), 0) * 100;
+        int queueLength = 0;
         Jenkins jenkinsInstance = Jenkins.getInstanceOrNull();
         if (jenkinsInstance != null) {
+            queueLength = jenkinsInstance.getQueue().countBuildableItems();
+        }
+
+        if (shedder.update(heapUsage, cpuUsage, queueLength, LoadShedder.Thresholds.from(wfManagement))) {
+            String details = String.format("heap=%.1f%%, cpu=%.1f%%, queue=%d", heapUsage, cpuUsage, queueLength);
+            LOGGER.log(Level.INFO, "Wavefront load shedding " + (shedder.isSheddingLoad() ? "started" : "stopped")
+                    + ": " + details);
+            sendLoadSheddingEvent(shedder.isSheddingLoad(), details, source);
+        }
+        sendMetricsToWavefront(LOAD_SHEDDING, shedder.isSheddingLoad() ? 1 : 0, source);
+    }
+
+    private void sendLoadSheddingEvent(boolean started, String details, String source) {
+        Map<String, String> annotations = new HashMap<>();
+        annotations.put("severity", started ? "warn" : "info");
+        annotations.put("type", LOAD_SHEDDING);
+        annotations.put("details", details);
+        sendEventToWavefront(started ? LOAD_SHEDDING_STARTED_EVENT : LOAD_SHEDDING_STOPPED_EVENT, annotations, source);
+    }
+
+    public void sendEventToWavefront(String eventName, Map<String, String> annotations, String source) {
+        long now = System.currentTimeMillis();
+        MetricRouter.get().publish(MetricPoint.event(eventName, now, now + 1, source, annotations));
+    }
+
+    public void sendMetricsToWavefrontFromLabels(String source) {
+        Jenkins jenkinsInstance = Jenkins.getInstanceOrNull();
+        if (jenkinsInstance != null) {
+            if (!wfManagement.getMetricFilter().isCategoryAllowed(wfManagement.getMetricsPrefixName() + "." + LABEL + ".")) {
+                return;
+            }
             Label[] labels = jenkinsInstance.getLabels().toArray(new Label[0]);
             for (Label l : labels) {
                 sendMetricsToWavefront(LABEL + "." + l.getDisplayName(), l.loadStatistics.computeSnapshot(), source);
@@ -122,7 +195,7 @@ public class WavefrontMonitor extends AperiodicWork {
         }
     }
 
-    public void sendMetricsToWavefront(String labelName, LoadStatisticsSnapshot computeSnapshot, String source) throws IOException {
+    public void sendMetricsToWavefront(String labelName, LoadStatisticsSnapshot computeSnapshot, String source) {
         sendMetricsToWavefront(labelName + "." + AVAILABLE_EXECUTORS, computeSnapshot.getAvailableExecutors(), source);
         sendMetricsToWavefront(labelName + "." + BUSY_EXECUTORS, computeSnapshot.getBusyExecutors(), source);
         sendMetricsToWavefront(labelName + "." + CONNECTING_EXECUTORS, computeSnapshot.getConnectingExecutors(), source);
@@ -132,10 +205,113 @@ public class WavefrontMonitor extends AperiodicWork {
         sendMetricsToWavefront(labelName + "." + QUEUE_LENGTH, computeSnapshot.getQueueLength(), source);
     }
 
-    public void sendMetricsToWavefront(String metricName, double metricValue, String source) throws IOException {
+    /**
+     * Sends the build counters and durations pre-aggregated by {@link BuildMetricsAggregator}. The
+     * build counts and duration sums are sent as delta counters so the build rates stay exact no
+     * matter how often they are flushed. The rules of the job property apply to the buckets of the job.
+     *
+     * @param now    the current time in milliseconds
+     * @param source the source of the metrics
+     */
+    public void sendAggregatedBuildMetricsToWavefront(long now, String source) {
+        List<BuildMetricsAggregator.Bucket> buckets = BuildMetricsAggregator.get().drainCompletedBuckets(now);
+        MetricRouter router = MetricRouter.get();
+        for (BuildMetricsAggregator.Bucket bucket : buckets) {
+            String name = wfManagement.getJobMetricsPrefixName() + "." + bucket.getJobName() + ".";
+            Map<String, String> tags = new HashMap<>();
+            tags.put(STATUS, bucket.getResult());
+            MetricFilter filter = bucket.getFilter();
+            if (filter.isAllowed(name + BUILDS_COUNT, tags)) {
+                router.publish(MetricPoint.deltaCounter(name + BUILDS_COUNT, bucket.getCount(), source, tags));
+            }
+            if (filter.isAllowed(name + BUILDS_DURATION_SUM, tags)) {
+                router.publish(MetricPoint.deltaCounter(name + BUILDS_DURATION_SUM, bucket.getDurationSum(), source,
+                        tags));
+            }
+            if (filter.isAllowed(name + BUILDS_DURATION_MAX, tags)) {
+                router.publish(MetricPoint.metric(name + BUILDS_DURATION_MAX, bucket.getDurationMax(),
+                        bucket.getBucketStart(), source, tags));
+            }
+        }
+    }
+
+    /**
+     * Sends the number of running builds per job and label, the elapsed time of the longest running
+     * builds, and an event for every build running longer than the configured multiple of the median
+     * duration of the recent builds of its job.
+     *
+     * @param now    the current time in milliseconds
+     * @param source the source of the metrics
+     */
+    public void sendRunningBuildsToWavefront(long now, String source) {
+        RunningBuilds runningBuilds = RunningBuilds.get();
+        MetricRouter router = MetricRouter.get();
+        MetricFilter filter = wfManagement.getMetricFilter();
+        String name = wfManagement.getMetricsPrefixName() + "." + RUNNING_BUILDS;
+        for (Map.Entry<String, Integer> count : runningBuilds.countByJob().entrySet()) {
+            Map<String, String> tags = new HashMap<>();
+            tags.put(JOB_NAME, count.getKey());
+            if (filter.isAllowed(name, tags)) {
+                router.publish(MetricPoint.metric(name, count.getValue(), now, source, tags));
+            }
+        }
+        // the per job counts are kept while shedding, so that the count of a job which has no running builds drops
+        if (!LoadShedder.isShedding()) {
+            for (Map.Entry<String, Integer> count : runningBuilds.countByLabel().entrySet()) {
+                sendMetricsToWavefront(LABEL + "." + count.getKey() + "." + RUNNING_BUILDS, count.getValue(), source);
+            }
+        }
+        for (RunningBuilds.RunningBuild build : runningBuilds.getLongestRunning(LONGEST_RUNNING_BUILDS)) {
+            String elapsedName = wfManagement.getJobMetricsPrefixName() + "." + build.getJobName() + "."
+                    + RUNNING_ELAPSED;
+            Map<String, String> tags = new HashMap<>();
+            tags.put(BUILD_NUMBER, build.getBuildNumber());
+            if (filter.isAllowed(elapsedName, tags)) {
+                router.publish(MetricPoint.metric(elapsedName, build.getElapsed(now), now, source, tags));
+            }
+        }
+
+        int factor = wfManagement.getLongRunningBuildFactor();
+        if (factor <= 0) {
+            return;
+        }
+        for (RunningBuilds.RunningBuild build : runningBuilds.getBuilds()) {
+            if (build.getMedianDuration() < 0) {
+                build.setMedianDuration(getMedianDuration(build.getRunId()));
+            }
+            if (build.isOverdue(now, factor) && build.markReported()) {
+                Map<String, String> annotations = new HashMap<>();
+                annotations.put("severity", "warn");
+                annotations.put("type", LONG_RUNNING_BUILD);
+                annotations.put("details", build.getJobName() + " #" + build.getBuildNumber() + " has been running for "
+                        + TimeUnit.MILLISECONDS.toMinutes(build.getElapsed(now)) + " minutes, the median duration is "
+                        + TimeUnit.MILLISECONDS.toMinutes(build.getMedianDuration()) + " minutes");
+                sendEventToWavefront("Long running build " + build.getJobName() + " #" + build.getBuildNumber(),
+                        annotations, source);
+            }
+        }
+    }
+
+    /**
+     * @return the median duration of the recent completed builds of the job, 0 if there are too few
+     */
+    private static long getMedianDuration(String runId) {
+        Run<?, ?> run = Run.fromExternalizableId(runId);
+        List<Long> durations = new ArrayList<>();
+        for (Run<?, ?> previous = run != null ? run.getPreviousCompletedBuild() : null;
+                previous != null && durations.size() < RECENT_BUILDS;
+                previous = previous.getPreviousCompletedBuild()) {
+            durations.add(previous.getDuration());
+        }
+        return durations.size() < MIN_RECENT_BUILDS ? 0 : RunningBuilds.median(durations);
+    }
+
+    public void sendMetricsToWavefront(String metricName, double metricValue, String source) {
         String name = wfManagement.getMetricsPrefixName() + "." + metricName;
-        getWavefrontSender().sendMetric(name, metricValue, System.currentTimeMillis(),
-                source, null);
+        if (!wfManagement.getMetricFilter().isAllowed(name, null)) {
+            return;
+        }
+        MetricRouter.get().publish(MetricPoint.metric(name, metricValue, System.currentTimeMillis(), source, null));
     }
 
     public static WavefrontProxyClient createWavefrontProxyClient() {
@@ -148,7 +324,7 @@ public class WavefrontMonitor extends AperiodicWork {
         wfProxyClientBuilder.distributionPort(wfManagement.getProxyPort());
 
         // Set a proxy port to send trace data to. Recommended: 30000
-        //wfProxyClientBuilder.tracingPort(wfManagement.getTracingPort());
+        wfProxyClientBuilder.tracingPort(wfManagement.getTracingPort());
 
         // Optional: Set a custom socketFactory to override the default SocketFactory
         //wfProxyClientBuilder.socketFactory(<SocketFactory>);
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.jenkinsci.plugins.workflow.steps.SynchronousNonBlockingStepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.StaplerRequest;
+
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * Reports many custom metrics in one call, each given as {@code name=value}. The tags apply to all
+ * of them.
+ */
+public class WavefrontSendMetricsStep extends CustomMetricStep {
+    private final List<String> metrics;
+    private boolean counter = false;
+
+    @DataBoundConstructor
+    public WavefrontSendMetricsStep(List<String> metrics) {
+        this.metrics = metrics == null ? new ArrayList<>() : new ArrayList<>(metrics);
+    }
+
+    public List<String> getMetrics() {
+        return new ArrayList<>(metrics);
+    }
+
+    /**
+     * @return the metrics one per line, as edited in the configuration form
+     */
+    public String getMetricsText() {
+        return String.join("\n", metrics);
+    }
+
+    public boolean isCounter() {
+        return counter;
+    }
+
+    /**
+     * @param counter - Send the values as increments of delta counters instead of gauges
+     */
+    @DataBoundSetter
+    public void setCounter(boolean counter) {
+        this.counter = counter;
+    }
+
+    @Override
+    public StepExecution start(StepContext context) throws Exception {
+        return new Execution(this, context);
+    }
+
+    private static final class Execution extends SynchronousNonBlockingStepExecution<Integer> {
+        private static final long serialVersionUID = 1L;
+        private final transient WavefrontSendMetricsStep step;
+
+        Execution(WavefrontSendMetricsStep step, StepContext context) {
+            super(context);
+            this.step = step;
+        }
+
+        @Override
+        protected Integer run() throws Exception {
+            Run<?, ?> run = getContext().get(Run.class);
+            TaskListener listener = getContext().get(TaskListener.class);
+            Map<String, String> tags = parseTags(step.getTags());
+            int published = 0;
+            for (String metric : step.getMetrics()) {
+                int separator = metric.lastIndexOf('=');
+                double value;
+                try {
+                    if (separator <= 0) {
+                        throw new NumberFormatException();
+                    }
+                    value = Double.parseDouble(metric.substring(separator + 1).trim());
+                } catch (NumberFormatException e) {
+                    listener.getLogger().println("Not sending invalid metric to Wavefront, expected name=value: "
+                            + metric);
+                    continue;
+                }
+                if (publish(run, metric.substring(0, separator).trim(), value, tags, step.isCounter())) {
+                    published++;
+                }
+            }
+            return published;
+        }
+    }
+
+    @Extension
+    public static class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return requiredContext();
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "wavefrontSendMetrics";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Send custom metrics to Wavefront";
+        }
+
+        /**
+         * Splits the metrics textarea of the configuration form into one metric per non-blank line.
+         */
+        @Override
+        public Step newInstance(StaplerRequest req, @Nonnull JSONObject formData) throws FormException {
+            Object metrics = formData.get("metrics");
+            if (metrics instanceof String) {
+                JSONArray lines = new JSONArray();
+                for (String line : ((String) metrics).split("\\r?\\n")) {
+                    if (!line.trim().isEmpty()) {
+                        lines.add(line.trim());
+                    }
+                }
+                formData.put("metrics", lines);
+            }
+            return super.newInstance(req, formData);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront.sink;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.vmware.devops.plugins.wavefront.WavefrontManagement;
+import com.vmware.devops.plugins.wavefront.util.RotatingFileWriter;
+
+import hudson.Extension;
+
+import jenkins.model.Jenkins;
+
+/**
+ * Writes the points in the Wavefront data format to rolling gzip compressed files under
+ * {@code JENKINS_HOME/wavefront/}, for controllers without access to a proxy and for bulk ingestion.
+ */
+@Extension
+public class FileMetricSink extends MetricSink {
+    static final String DIRECTORY_NAME = "wavefront";
+    public static final String FILE_PREFIX = "metrics-";
+
+    private RotatingFileWriter writer;
+    private long maxBytes;
+    private long maxAgeMillis;
+    private int maxFiles;
+
+    @Override
+    public String getDisplayName() {
+        return "Local file";
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return WavefrontManagement.get().isEnableFileSink();
+    }
+
+    @Override
+    public synchronized void write(List<MetricPoint> points) throws IOException {
+        List<String> lines = new ArrayList<>(points.size());
+        for (MetricPoint point : points) {
+            lines.add(point.getLine());
+        }
+        getWriter().write(lines, System.currentTimeMillis());
+    }
+
+    private RotatingFileWriter getWriter() throws IOException {
+        WavefrontManagement wfManagement = WavefrontManagement.get();
+        long configuredMaxBytes = wfManagement.getFileSinkMaxFileSize() * 1024L * 1024L;
+        long configuredMaxAgeMillis = TimeUnit.MINUTES.toMillis(wfManagement.getFileSinkRotationInterval());
+        int configuredMaxFiles = wfManagement.getFileSinkMaxFiles();
+        if (writer == null || maxBytes != configuredMaxBytes || maxAgeMillis != configuredMaxAgeMillis
+                || maxFiles != configuredMaxFiles) {
+            close();
+            maxBytes = configuredMaxBytes;
+            maxAgeMillis = configuredMaxAgeMillis;
+            maxFiles = configuredMaxFiles;
+            writer = new RotatingFileWriter(getDirectory(), FILE_PREFIX, maxBytes, maxAgeMillis, maxFiles);
+        }
+        return writer;
+    }
+
+    /**
+     * Finishes the current file, the next write starts a new one.
+     *
+     * @throws IOException if the file could not be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            RotatingFileWriter current = writer;
+            writer = null;
+            current.close();
+        }
+    }
+
+    /**
+     * @return the written files, oldest first
+     */
+    public static List<File> getFiles() {
+        return RotatingFileWriter.listFiles(getDirectory(), FILE_PREFIX);
+    }
+
+    public static File getDirectory() {
+        return new File(Jenkins.get().getRootDir(), DIRECTORY_NAME);
+    }
+
+    public static FileMetricSink get() {
+        return MetricSink.all().get(FileMetricSink.class);
+    }
+}
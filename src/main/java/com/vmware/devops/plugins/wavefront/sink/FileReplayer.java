@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront.sink;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+/**
+ * Streams a file written by the {@link FileMetricSink} to the metrics port of the proxy at a
+ * throttled rate. The lines are already in the Wavefront data format, so they are written to the
+ * proxy as they are. Only one replay runs at a time, so a replay which can't connect to the proxy
+ * times out, and a replay stuck writing to an unresponsive proxy can be cancelled.
+ */
+public final class FileReplayer implements Runnable {
+    private static final Logger LOGGER = Logger.getLogger(FileReplayer.class.getName());
+    static final int CONNECT_TIMEOUT_MILLIS = 10000;
+    static final int SO_TIMEOUT_MILLIS = 30000;
+    private static FileReplayer current;
+
+    private final List<File> files;
+    private final boolean deleteAfterReplay;
+    private final String host;
+    private final int port;
+    private final double linesPerSecond;
+    private final AtomicLong sentLines = new AtomicLong();
+    private volatile boolean finished;
+    private volatile boolean cancelled;
+    private volatile Socket socket;
+    private volatile String error;
+
+    FileReplayer(List<File> files, String host, int port, double linesPerSecond, boolean deleteAfterReplay) {
+        this.files = files;
+        this.deleteAfterReplay = deleteAfterReplay;
+        this.host = host;
+        this.port = port;
+        this.linesPerSecond = linesPerSecond;
+    }
+
+    /**
+     * Starts replaying the file in the background.
+     *
+     * @param file           the file to replay, gzip compressed if its name ends with .gz
+     * @param host           the proxy hostname
+     * @param port           the proxy metrics port
+     * @param linesPerSecond the maximum rate
+     * @return false if another file is still being replayed
+     */
+    public static boolean start(File file, String host, int port, double linesPerSecond) {
+        return start(Collections.singletonList(file), host, port, linesPerSecond, false);
+    }
+
+    /**
+     * Starts replaying the files one after another in the background.
+     *
+     * @param files             the files to replay
+     * @param host              the proxy hostname
+     * @param port              the proxy metrics port
+     * @param linesPerSecond    the maximum rate
+     * @param deleteAfterReplay whether each file is deleted once it was sent completely
+     * @return false if another replay is still running
+     */
+    public static synchronized boolean start(List<File> files, String host, int port, double linesPerSecond,
+            boolean deleteAfterReplay) {
+        if (current != null && !current.finished) {
+            return false;
+        }
+        current = new FileReplayer(files, host, port, linesPerSecond, deleteAfterReplay);
+        Thread thread = new Thread(current, "Wavefront file replay: " + current.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    /**
+     * @return the running or last finished replay, or null if no file was replayed
+     */
+    public static synchronized FileReplayer getCurrent() {
+        return current;
+    }
+
+    @Override
+    public void run() {
+        RateLimiter limiter = RateLimiter.create(linesPerSecond);
+        try {
+            for (File file : files) {
+                if (!replay(file, limiter)) {
+                    break;
+                }
+                if (deleteAfterReplay && !file.delete()) {
+                    LOGGER.log(Level.WARNING, "Failed to delete " + file);
+                }
+            }
+        } catch (IOException e) {
+            if (!cancelled) {
+                error = e.getMessage();
+            }
+        } finally {
+            finished = true;
+        }
+    }
+
+    /**
+     * @return true if the whole file was sent, false if the replay was cancelled
+     */
+    private boolean replay(File file, RateLimiter limiter) throws IOException {
+        long sentBefore = sentLines.get();
+        try (BufferedReader reader = openReader(file);
+             Socket connection = new Socket()) {
+            socket = connection;
+            if (cancelled) {
+                return false;
+            }
+            connection.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+            connection.setSoTimeout(SO_TIMEOUT_MILLIS);
+            Writer out = new BufferedWriter(new OutputStreamWriter(connection.getOutputStream(),
+                    StandardCharsets.UTF_8));
+            String line;
+            while ((line = readLine(reader)) != null) {
+                if (cancelled) {
+                    LOGGER.log(Level.INFO, "Replay of " + file + " cancelled after "
+                            + (sentLines.get() - sentBefore) + " lines");
+                    return false;
+                }
+                if (line.isEmpty()) {
+                    continue;
+                }
+                limiter.acquire();
+                out.write(line);
+                out.write('\n');
+                sentLines.incrementAndGet();
+            }
+            out.flush();
+            LOGGER.log(Level.INFO, "Replayed " + (sentLines.get() - sentBefore) + " lines from " + file);
+            return true;
+        } catch (IOException e) {
+            if (cancelled) {
+                LOGGER.log(Level.INFO, "Replay of " + file + " cancelled");
+                return false;
+            }
+            LOGGER.log(Level.WARNING, "Failed to replay " + file, e);
+            throw e;
+        } finally {
+            socket = null;
+        }
+    }
+
+    /**
+     * Stops the replay after the current line. Closing the connection also stops a write blocked on a proxy
+     * which doesn't read anymore.
+     */
+    public void cancel() {
+        cancelled = true;
+        Socket connection = socket;
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to close the replay connection", e);
+            }
+        }
+    }
+
+    static BufferedReader openReader(File file) throws IOException {
+        InputStream in = Files.newInputStream(file.toPath());
+        if (file.getName().endsWith(".gz")) {
+            in = new GZIPInputStream(in);
+        }
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    static String readLine(BufferedReader reader) throws IOException {
+        try {
+            return reader.readLine();
+        } catch (EOFException e) {
+            // the file is still being written and has no gzip trailer yet
+            return null;
+        }
+    }
+
+    public String getFileName() {
+        return files.size() == 1 ? files.get(0).getName() : files.size() + " files";
+    }
+
+    public long getSentLines() {
+        return sentLines.get();
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront.sink;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import com.vmware.devops.plugins.wavefront.util.LineProtocol;
+
+/**
+ * A single point published to the {@link MetricRouter}. Points are immutable, so the same instance
+ * is handed to every sink, and the line protocol text is encoded at most once.
+ */
+public final class MetricPoint {
+    public enum Type {
+        METRIC,
+        DELTA_COUNTER,
+        DISTRIBUTION,
+        EVENT,
+        SPAN
+    }
+
+    private final Type type;
+    private final String name;
+    private final double value;
+    private final Long timestamp;
+    private final long endTimestamp;
+    private final String source;
+    private final Map<String, String> tags;
+    private final double[] centroidValues;
+    private final int[] centroidCounts;
+    private final UUID traceId;
+    private final UUID spanId;
+    private final UUID parentId;
+    private final boolean backfilled;
+    private volatile String line;
+
+    private MetricPoint(Type type, String name, double value, Long timestamp, long endTimestamp, String source,
+            Map<String, String> tags) {
+        this(type, name, value, timestamp, endTimestamp, source, tags, null, null, null, null, null);
+    }
+
+    private MetricPoint(Type type, String name, double value, Long timestamp, long endTimestamp, String source,
+            Map<String, String> tags, double[] centroidValues, int[] centroidCounts, UUID traceId, UUID spanId,
+            UUID parentId) {
+        this.type = type;
+        this.backfilled = false;
+        this.centroidValues = centroidValues;
+        this.centroidCounts = centroidCounts;
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.parentId = parentId;
+        this.name = name;
+        this.value = value;
+        this.timestamp = timestamp;
+        this.endTimestamp = endTimestamp;
+        this.source = source;
+        // producers reuse their tag maps, sinks read them later on another thread
+        this.tags = tags == null || tags.isEmpty() ? Collections.emptyMap()
+                : Collections.unmodifiableMap(new HashMap<>(tags));
+    }
+
+    private MetricPoint(MetricPoint point) {
+        this.type = point.type;
+        this.name = point.name;
+        this.value = point.value;
+        this.timestamp = point.timestamp;
+        this.endTimestamp = point.endTimestamp;
+        this.source = point.source;
+        this.tags = point.tags;
+        this.centroidValues = point.centroidValues;
+        this.centroidCounts = point.centroidCounts;
+        this.traceId = point.traceId;
+        this.spanId = point.spanId;
+        this.parentId = point.parentId;
+        this.backfilled = true;
+    }
+
+    public static MetricPoint metric(String name, double value, Long timestamp, String source,
+            Map<String, String> tags) {
+        return new MetricPoint(Type.METRIC, name, value, timestamp, 0, source, tags);
+    }
+
+    public static MetricPoint deltaCounter(String name, double value, String source, Map<String, String> tags) {
+        return new MetricPoint(Type.DELTA_COUNTER, name, value, null, 0, source, tags);
+    }
+
+    /**
+     * A minute granularity distribution, e.g. of all values of a timer in one build.
+     *
+     * @param values the centroid values
+     * @param counts the number of values of each centroid
+     */
+    public static MetricPoint distribution(String name, double[] values, int[] counts, Long timestamp, String source,
+            Map<String, String> tags) {
+        return new MetricPoint(Type.DISTRIBUTION, name, 0, timestamp, 0, source, tags, values.clone(),
+                counts.clone(), null, null, null);
+    }
+
+    /**
+     * @param annotations the annotations of the event, kept as the tags of the point
+     */
+    public static MetricPoint event(String name, long startMillis, long endMillis, String source,
+            Map<String, String> annotations) {
+        return new MetricPoint(Type.EVENT, name, 0, startMillis, endMillis, source, annotations);
+    }
+
+    /**
+     * A tracing span. The duration is kept as the value of the point.
+     *
+     * @param parentId the id of the parent span, null for the root span of a trace
+     */
+    public static MetricPoint span(String name, long startMillis, long durationMillis, String source, UUID traceId,
+            UUID spanId, UUID parentId, Map<String, String> tags) {
+        return new MetricPoint(Type.SPAN, name, durationMillis, startMillis, 0, source, tags, null, null, traceId,
+                spanId, parentId);
+    }
+
+    /**
+     * @return the same point, marked as sent for a past build
+     */
+    public MetricPoint asBackfilled() {
+        return backfilled ? this : new MetricPoint(this);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return true if the point was sent for a past build, so it doesn't describe the current state
+     */
+    public boolean isBackfilled() {
+        return backfilled;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    public Long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getEndTimestamp() {
+        return endTimestamp;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public Map<String, String> getTags() {
+        return tags;
+    }
+
+    public double[] getCentroidValues() {
+        return centroidValues == null ? null : centroidValues.clone();
+    }
+
+    public int[] getCentroidCounts() {
+        return centroidCounts == null ? null : centroidCounts.clone();
+    }
+
+    public UUID getTraceId() {
+        return traceId;
+    }
+
+    public UUID getSpanId() {
+        return spanId;
+    }
+
+    public UUID getParentId() {
+        return parentId;
+    }
+
+    /**
+     * @return the point in the Wavefront data format, encoded on first use and shared afterwards
+     */
+    public String getLine() {
+        String result = line;
+        if (result == null) {
+            switch (type) {
+                case DELTA_COUNTER:
+                    result = LineProtocol.deltaCounterLine(name, value, source, tags);
+                    break;
+                case DISTRIBUTION:
+                    result = LineProtocol.distributionLine(name, centroidValues, centroidCounts, timestamp, source,
+                            tags);
+                    break;
+                case EVENT:
+                    result = LineProtocol.eventLine(name, timestamp, endTimestamp, source, tags);
+                    break;
+                case SPAN:
+                    result = LineProtocol.spanLine(name, timestamp, (long) value, source, traceId, spanId, parentId,
+                            tags);
+                    break;
+                default:
+                    result = LineProtocol.metricLine(name, value, timestamp, source, tags);
+                    break;
+            }
+            line = result;
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return getLine();
+    }
+}
@@ -0,0 +1,388 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront.sink;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.vmware.devops.plugins.wavefront.WavefrontManagement;
+
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.init.TermMilestone;
+import hudson.init.Terminator;
+
+import jenkins.model.Jenkins;
+
+/**
+ * Fans the published points out to every enabled {@link MetricSink}. Each sink has a bounded queue
+ * drained by its own worker thread. Publishing never waits, since points are published from the CPS
+ * VM thread and from build completion: when the queue of a sink is full, the point is spilled to the
+ * {@link PendingPoints} if the sink is replayable, in chunks of a batch, or else dropped, and counted
+ * for that sink only, so a slow sink doesn't hold up the others.
+ * <p>
+ * On shutdown the queues are drained within a deadline. Points left for replayable sinks, including
+ * the batches which failed or were still being written at the deadline, and points published
+ * afterwards, are persisted as {@link PendingPoints} and sent on the next start.
+ */
+public class MetricRouter {
+    private static final Logger LOGGER = Logger.getLogger(MetricRouter.class.getName());
+    private static final MetricRouter INSTANCE = new MetricRouter();
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+    static final int BATCH_SIZE = 500;
+    private static final long POLL_MILLIS = 200;
+
+    private final ConcurrentMap<MetricSink, SinkQueue> queues = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    MetricRouter() {
+    }
+
+    public static MetricRouter get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Queues the point for every enabled sink which accepts it.
+     *
+     * @param point the point to publish
+     */
+    public void publish(MetricPoint point) {
+        publish(point, getSinks());
+    }
+
+    void publish(MetricPoint point, Collection<MetricSink> sinks) {
+        for (MetricSink sink : sinks) {
+            if (sink.isEnabled() && sink.accepts(point)) {
+                if (closed) {
+                    if (sink.isReplayable()) {
+                        PendingPoints.append(Collections.singletonList(point.getLine()));
+                    }
+                } else {
+                    getQueue(sink).offer(point);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drains the queues of all sinks, gives every sink the chance to flush its buffers and persists
+     * what is left for the replayable sinks. Returns at the latest when the timeout elapses.
+     *
+     * @param timeoutMillis the maximum time to wait
+     */
+    public void shutdown(long timeoutMillis) {
+        closed = true;
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        List<SinkQueue> sinkQueues = getQueues();
+        for (SinkQueue queue : sinkQueues) {
+            queue.stop();
+        }
+
+        List<String> pending = new ArrayList<>();
+        for (SinkQueue queue : sinkQueues) {
+            List<MetricPoint> left = queue.awaitDrained(deadline);
+            if (queue.sink.isReplayable()) {
+                pending.addAll(queue.drainOverflow());
+            }
+            if (left.isEmpty()) {
+                continue;
+            }
+            if (queue.sink.isReplayable()) {
+                for (MetricPoint point : left) {
+                    pending.add(point.getLine());
+                }
+            } else {
+                LOGGER.log(Level.WARNING, left.size() + " points were not written to the "
+                        + queue.getDisplayName() + " metric sink before shutdown");
+            }
+        }
+        if (!pending.isEmpty()) {
+            LOGGER.log(Level.INFO, "Persisting " + pending.size() + " points to send them on the next start");
+            PendingPoints.append(pending);
+        }
+
+        Thread closer = new Thread(() -> {
+            for (SinkQueue queue : sinkQueues) {
+                try {
+                    queue.sink.close();
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Failed to close the " + queue.getDisplayName() + " metric sink", e);
+                }
+            }
+        }, "Wavefront metric sink shutdown");
+        closer.setDaemon(true);
+        closer.start();
+        try {
+            closer.join(Math.max(1, deadline - System.currentTimeMillis()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (closer.isAlive()) {
+            LOGGER.log(Level.WARNING, "The metric sinks were not closed within the shutdown timeout");
+        }
+    }
+
+    /**
+     * Accepts points again, in case Jenkins is restarted within the same JVM.
+     */
+    @Initializer(after = InitMilestone.PLUGINS_STARTED)
+    public static void openOnStart() {
+        get().open();
+    }
+
+    void open() {
+        queues.clear();
+        closed = false;
+    }
+
+    /**
+     * Stops accepting new points and drains the sinks when Jenkins is shutting down.
+     */
+    @Terminator(attains = TermMilestone.STARTED)
+    public static void drainOnShutdown() {
+        WavefrontManagement wfManagement = WavefrontManagement.get();
+        long timeoutMillis = TimeUnit.SECONDS.toMillis(wfManagement != null ? wfManagement.getShutdownTimeout()
+                : WavefrontManagement.DEFAULT_SHUTDOWN_TIMEOUT);
+        LOGGER.log(Level.FINE, "Draining the metric sinks");
+        get().shutdown(timeoutMillis);
+    }
+
+    private Collection<MetricSink> getSinks() {
+        if (Jenkins.getInstanceOrNull() == null) {
+            return Collections.emptyList();
+        }
+        return MetricSink.all();
+    }
+
+    SinkQueue getQueue(MetricSink sink) {
+        return queues.computeIfAbsent(sink, SinkQueue::new);
+    }
+
+    /**
+     * @return the queues of the sinks which received at least one point
+     */
+    public List<SinkQueue> getQueues() {
+        return new ArrayList<>(queues.values());
+    }
+
+    /**
+     * The queue and worker thread of a single sink.
+     */
+    public static final class SinkQueue implements Runnable {
+        private final MetricSink sink;
+        private final BlockingQueue<MetricPoint> queue;
+        private final Thread worker;
+        private final LongAdder written = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+        private final LongAdder spilled = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        // the batch the worker is writing, null between batches
+        private volatile List<MetricPoint> inFlight;
+        // the batches which failed while stopping, they are returned with the queued points
+        private final List<List<MetricPoint>> unwritten = new ArrayList<>();
+        // the lines spilled while the queue is full, persisted once they fill a batch
+        private final List<String> overflow = new ArrayList<>();
+        private volatile boolean dropReported;
+        private volatile boolean stopping;
+
+        SinkQueue(MetricSink sink) {
+            this.sink = sink;
+            this.queue = new ArrayBlockingQueue<>(Math.max(1, sink.getQueueCapacity()));
+            worker = new Thread(this, "Wavefront metric sink: " + sink.getDisplayName());
+            worker.setDaemon(true);
+            worker.start();
+        }
+
+        void offer(MetricPoint point) {
+            if (queue.offer(point)) {
+                return;
+            }
+            if (sink.isReplayable()) {
+                List<String> lines = null;
+                synchronized (overflow) {
+                    overflow.add(point.getLine());
+                    if (overflow.size() >= BATCH_SIZE) {
+                        lines = new ArrayList<>(overflow);
+                        overflow.clear();
+                    }
+                }
+                spilled.increment();
+                if (lines != null) {
+                    PendingPoints.append(lines);
+                }
+            } else {
+                dropped.increment();
+            }
+            if (!dropReported) {
+                dropReported = true;
+                LOGGER.log(Level.WARNING, "The queue of the " + sink.getDisplayName() + " metric sink is full, new"
+                        + " points are " + (sink.isReplayable() ? "persisted to be sent on the next start" : "dropped")
+                        + " until it writes again");
+            }
+        }
+
+        /**
+         * @return the spilled lines which don't fill a batch yet
+         */
+        List<String> drainOverflow() {
+            synchronized (overflow) {
+                List<String> lines = new ArrayList<>(overflow);
+                overflow.clear();
+                return lines;
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    MetricPoint first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        if (stopping) {
+                            return;
+                        }
+                        continue;
+                    }
+                    // a new list for every batch, the batch in flight is handed to awaitDrained as it is
+                    List<MetricPoint> batch = new ArrayList<>(BATCH_SIZE);
+                    batch.add(first);
+                    queue.drainTo(batch, BATCH_SIZE - 1);
+                    inFlight = batch;
+                    try {
+                        write(batch);
+                    } finally {
+                        inFlight = null;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        void stop() {
+            stopping = true;
+        }
+
+        /**
+         * Waits for the worker to write the queued points. A batch which is still being written at the
+         * deadline is returned as well, since an interrupt doesn't stop a blocked write; it may reach the
+         * sink twice if the write completes after all.
+         *
+         * @param deadline the time in milliseconds after which the worker is interrupted
+         * @return the points which were not written
+         */
+        List<MetricPoint> awaitDrained(long deadline) {
+            try {
+                worker.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            List<MetricPoint> left = new ArrayList<>();
+            List<MetricPoint> batch = null;
+            if (worker.isAlive()) {
+                batch = inFlight;
+                if (batch != null) {
+                    left.addAll(batch);
+                }
+                worker.interrupt();
+            }
+            synchronized (unwritten) {
+                for (List<MetricPoint> failedBatch : unwritten) {
+                    if (failedBatch != batch) {
+                        left.addAll(failedBatch);
+                    }
+                }
+                unwritten.clear();
+            }
+            queue.drainTo(left);
+            return left;
+        }
+
+        private void write(List<MetricPoint> batch) {
+            try {
+                sink.write(batch);
+                written.add(batch.size());
+                if (queue.isEmpty()) {
+                    dropReported = false;
+                }
+            } catch (IOException | RuntimeException e) {
+                if (stopping) {
+                    synchronized (unwritten) {
+                        unwritten.add(batch);
+                    }
+                } else {
+                    failed.add(batch.size());
+                }
+                LOGGER.log(Level.WARNING, "Failed to write " + batch.size() + " points to the "
+                        + sink.getDisplayName() + " metric sink", e);
+            }
+        }
+
+        public String getDisplayName() {
+            return sink.getDisplayName();
+        }
+
+        public boolean isEnabled() {
+            return sink.isEnabled();
+        }
+
+        public int getQueued() {
+            return queue.size();
+        }
+
+        public long getWritten() {
+            return written.sum();
+        }
+
+        public long getDropped() {
+            return dropped.sum();
+        }
+
+        /**
+         * @return the number of points persisted as pending points because the queue was full
+         */
+        public long getSpilled() {
+            return spilled.sum();
+        }
+
+        public long getFailed() {
+            return failed.sum();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront.sink;
+
+import java.io.IOException;
+import java.util.List;
+
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+
+/**
+ * A destination of the points published to the {@link MetricRouter}. Every sink gets its own
+ * bounded queue and worker thread, so {@link #write(List)} may block without delaying other sinks.
+ */
+public abstract class MetricSink implements ExtensionPoint {
+
+    /**
+     * @return the name shown on the management page and in the logs
+     */
+    public abstract String getDisplayName();
+
+    /**
+     * Checked on every published point, so it should only read the configuration.
+     *
+     * @return true if points should be queued for this sink
+     */
+    public abstract boolean isEnabled();
+
+    /**
+     * @param point the published point
+     * @return true if the sink handles points of this kind
+     */
+    public boolean accepts(MetricPoint point) {
+        return true;
+    }
+
+    /**
+     * Writes a batch of points. Called from the worker thread of the sink only.
+     *
+     * @param points the points, in publishing order
+     * @throws IOException if the points could not be written, they are counted as failed
+     */
+    public abstract void write(List<MetricPoint> points) throws IOException;
+
+    /**
+     * Called once on shutdown after the queue of the sink was drained, to flush buffered points.
+     *
+     * @throws IOException if the buffered points could not be written
+     */
+    public void close() throws IOException {
+    }
+
+    /**
+     * @return true if the points left in the queue on shutdown, or which find the queue full, should
+     *         be persisted and sent to this sink on the next start
+     */
+    public boolean isReplayable() {
+        return false;
+    }
+
+    /**
+     * @return the number of points which may wait for this sink before new points are spilled or dropped
+     */
+    public int getQueueCapacity() {
+        return MetricRouter.DEFAULT_QUEUE_CAPACITY;
+    }
+
+    public static ExtensionList<MetricSink> all() {
+        return ExtensionList.lookup(MetricSink.class);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront.sink;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.vmware.devops.plugins.wavefront.WavefrontManagement;
+
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+
+/**
+ * Points which could not be sent to the proxy before Jenkins shut down. They are kept in the
+ * Wavefront data format under {@code JENKINS_HOME/wavefront/} and replayed on the next start.
+ */
+public final class PendingPoints {
+    private static final Logger LOGGER = Logger.getLogger(PendingPoints.class.getName());
+    static final String FILE_NAME = "pending.wf";
+    static final String REPLAY_PREFIX = "pending-";
+
+    private PendingPoints() {
+
+    }
+
+    /**
+     * Appends the lines to the pending file.
+     *
+     * @param lines the points in the Wavefront data format
+     */
+    public static synchronized void append(List<String> lines) {
+        File file = getFile();
+        File directory = file.getParentFile();
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Failed to create " + directory);
+            }
+            try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                for (String line : lines) {
+                    writer.write(line);
+                    writer.newLine();
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to persist " + lines.size() + " pending points", e);
+        }
+    }
+
+    static File getFile() {
+        return new File(FileMetricSink.getDirectory(), FILE_NAME);
+    }
+
+    /**
+     * Replays the points persisted on the previous shutdown, including those of earlier starts
+     * whose replay did not complete.
+     */
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void replayPendingPoints() {
+        File file = getFile();
+        if (file.exists()) {
+            File renamed = new File(file.getParentFile(), REPLAY_PREFIX + System.currentTimeMillis() + ".wf");
+            if (!file.renameTo(renamed)) {
+                LOGGER.log(Level.WARNING, "Failed to rename " + file);
+                return;
+            }
+        }
+        File[] files = FileMetricSink.getDirectory().listFiles(
+                (dir, name) -> name.startsWith(REPLAY_PREFIX) && name.endsWith(".wf"));
+        if (files == null || files.length == 0) {
+            return;
+        }
+        WavefrontManagement wfManagement = WavefrontManagement.get();
+        if (!wfManagement.isProxyConfigured()) {
+            LOGGER.log(Level.INFO, "No proxy is configured, not replaying the pending points");
+            return;
+        }
+        Arrays.sort(files);
+        LOGGER.log(Level.INFO, "Replaying the points pending from the previous shutdown");
+        FileReplayer.start(Arrays.asList(files), wfManagement.getProxyHostname(), wfManagement.getProxyPort(),
+                wfManagement.getReplayLinesPerSecond(), true);
+    }
+}
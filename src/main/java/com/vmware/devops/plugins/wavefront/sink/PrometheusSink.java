@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront.sink;
+
+import java.util.List;
+
+import com.vmware.devops.plugins.wavefront.PrometheusRegistry;
+import com.vmware.devops.plugins.wavefront.WavefrontManagement;
+
+import hudson.Extension;
+
+/**
+ * Keeps the latest value of every gauge in the {@link PrometheusRegistry}. Counters and events have
+ * no gauge equivalent, and the duration histograms are observed directly by the build listener. The
+ * durations of single JUnit tests and the points of backfilled builds aren't exposed.
+ */
+@Extension
+public class PrometheusSink extends MetricSink {
+    private static final String TEST_STATUS = "Test Status";
+
+    @Override
+    public String getDisplayName() {
+        return "Prometheus endpoint";
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return WavefrontManagement.get().isEnablePrometheusEndpoint();
+    }
+
+    @Override
+    public boolean accepts(MetricPoint point) {
+        // every test would be a series of its own and evict the series of the jobs
+        // the values of past builds would replace the current ones
+        return point.getType() == MetricPoint.Type.METRIC && !point.isBackfilled()
+                && !point.getTags().containsKey(TEST_STATUS);
+    }
+
+    @Override
+    public void write(List<MetricPoint> points) {
+        PrometheusRegistry registry = PrometheusRegistry.get();
+        for (MetricPoint point : points) {
+            registry.set(point.getName(), point.getTags(), point.getValue());
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront.sink;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.vmware.devops.plugins.wavefront.WavefrontManagement;
+
+import hudson.Extension;
+
+/**
+ * Keeps the most recent points in memory, so they can be inspected from the management page
+ * without access to the proxy.
+ */
+@Extension
+public class RingBufferSink extends MetricSink {
+    public static final int CAPACITY = 1000;
+
+    private final String[] lines;
+    private int next;
+    private int size;
+
+    public RingBufferSink() {
+        this(CAPACITY);
+    }
+
+    RingBufferSink(int capacity) {
+        lines = new String[capacity];
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "In-memory ring buffer";
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return WavefrontManagement.get().isEnableRingBufferSink();
+    }
+
+    @Override
+    public synchronized void write(List<MetricPoint> points) {
+        for (MetricPoint point : points) {
+            lines[next] = point.getLine();
+            next = (next + 1) % lines.length;
+            size = Math.min(size + 1, lines.length);
+        }
+    }
+
+    /**
+     * @return the buffered points in the Wavefront data format, oldest first
+     */
+    public synchronized List<String> getRecentLines() {
+        List<String> result = new ArrayList<>(size);
+        int start = (next - size + lines.length) % lines.length;
+        for (int i = 0; i < size; i++) {
+            result.add(lines[(start + i) % lines.length]);
+        }
+        return result;
+    }
+
+    public static RingBufferSink get() {
+        return MetricSink.all().get(RingBufferSink.class);
+    }
+}
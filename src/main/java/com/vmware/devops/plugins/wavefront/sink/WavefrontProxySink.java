@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront.sink;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.vmware.devops.plugins.wavefront.WavefrontManagement;
+
+import hudson.Extension;
+
+/**
+ * Sends the points to the configured Wavefront proxy. The lines encoded by {@link MetricPoint#getLine()} are
+ * written as they are, the spans to the tracing port and everything else to the proxy port, like the
+ * {@link FileReplayer} does, so a point shared with the other sinks is encoded only once.
+ */
+@Extension
+public class WavefrontProxySink extends MetricSink {
+    private static final Logger LOGGER = Logger.getLogger(WavefrontProxySink.class.getName());
+
+    // only used by the worker of the sink and by close
+    private Connection metrics;
+    private Connection tracing;
+
+    @Override
+    public String getDisplayName() {
+        return "Wavefront proxy";
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return WavefrontManagement.get().isProxyConfigured();
+    }
+
+    @Override
+    public boolean isReplayable() {
+        return true;
+    }
+
+    @Override
+    public synchronized void close() {
+        metrics = Connection.close(metrics);
+        tracing = Connection.close(tracing);
+    }
+
+    @Override
+    public synchronized void write(List<MetricPoint> points) throws IOException {
+        WavefrontManagement wfManagement = WavefrontManagement.get();
+        try {
+            for (MetricPoint point : points) {
+                Writer out;
+                if (point.getType() == MetricPoint.Type.SPAN) {
+                    tracing = Connection.to(tracing, wfManagement.getProxyHostname(), wfManagement.getTracingPort());
+                    out = tracing.out;
+                } else {
+                    metrics = Connection.to(metrics, wfManagement.getProxyHostname(), wfManagement.getProxyPort());
+                    out = metrics.out;
+                }
+                out.write(point.getLine());
+                out.write('\n');
+            }
+            if (metrics != null) {
+                metrics.out.flush();
+            }
+            if (tracing != null) {
+                tracing.out.flush();
+            }
+        } catch (IOException e) {
+            // connect again with the next batch
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * A connection to a port of the proxy, kept open between batches.
+     */
+    private static final class Connection {
+        private final String host;
+        private final int port;
+        private final Socket socket;
+        private final Writer out;
+
+        private Connection(String host, int port) throws IOException {
+            this.host = host;
+            this.port = port;
+            socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(host, port), FileReplayer.CONNECT_TIMEOUT_MILLIS);
+                out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        /**
+         * @return the connection if it still goes to the host and port, or else a new one
+         */
+        static Connection to(Connection connection, String host, int port) throws IOException {
+            if (connection != null && connection.host.equals(host) && connection.port == port) {
+                return connection;
+            }
+            close(connection);
+            return new Connection(host, port);
+        }
+
+        static Connection close(Connection connection) {
+            if (connection != null) {
+                try {
+                    connection.out.flush();
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Failed to flush the connection to the proxy", e);
+                }
+                try {
+                    connection.socket.close();
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Failed to close the connection to the proxy", e);
+                }
+            }
+            return null;
+        }
+    }
+}
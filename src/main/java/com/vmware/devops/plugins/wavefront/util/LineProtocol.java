@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront.util;
+
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Encodes points in the Wavefront data format, the same text the SDK sends to the proxy.
+ */
+public final class LineProtocol {
+    public static final String DELTA_PREFIX = "\u2206";
+
+    private LineProtocol() {
+
+    }
+
+    public static String metricLine(String name, double value, Long timestamp, String source,
+            Map<String, String> tags) {
+        StringBuilder sb = new StringBuilder();
+        appendQuoted(sb, sanitizeName(name));
+        sb.append(' ').append(value);
+        if (timestamp != null) {
+            sb.append(' ').append(timestamp);
+        }
+        sb.append(" source=");
+        appendQuoted(sb, source);
+        appendTags(sb, tags);
+        return sb.toString();
+    }
+
+    public static String deltaCounterLine(String name, double value, String source, Map<String, String> tags) {
+        String deltaName = name.startsWith(DELTA_PREFIX) ? name : DELTA_PREFIX + name;
+        return metricLine(deltaName, value, null, source, tags);
+    }
+
+    /**
+     * @param values the centroid values
+     * @param counts the number of values of each centroid
+     */
+    public static String distributionLine(String name, double[] values, int[] counts, Long timestamp, String source,
+            Map<String, String> tags) {
+        StringBuilder sb = new StringBuilder("!M");
+        if (timestamp != null) {
+            sb.append(' ').append(timestamp);
+        }
+        for (int i = 0; i < values.length; i++) {
+            sb.append(" #").append(counts[i]).append(' ').append(values[i]);
+        }
+        sb.append(' ');
+        appendQuoted(sb, sanitizeName(name));
+        sb.append(" source=");
+        appendQuoted(sb, source);
+        appendTags(sb, tags);
+        return sb.toString();
+    }
+
+    public static String eventLine(String name, long startMillis, long endMillis, String source,
+            Map<String, String> annotations) {
+        StringBuilder sb = new StringBuilder("@Event ");
+        sb.append(startMillis).append(' ').append(endMillis).append(' ');
+        appendQuoted(sb, name);
+        if (annotations != null) {
+            for (Map.Entry<String, String> annotation : annotations.entrySet()) {
+                sb.append(' ').append(sanitizeKey(annotation.getKey())).append('=');
+                appendQuoted(sb, annotation.getValue());
+            }
+        }
+        sb.append(" host=");
+        appendQuoted(sb, source);
+        return sb.toString();
+    }
+
+    /**
+     * @param parentId the id of the parent span, null for the root span of a trace
+     */
+    public static String spanLine(String name, long startMillis, long durationMillis, String source, UUID traceId,
+            UUID spanId, UUID parentId, Map<String, String> tags) {
+        StringBuilder sb = new StringBuilder();
+        appendQuoted(sb, name);
+        sb.append(" source=");
+        appendQuoted(sb, source);
+        sb.append(" traceId=").append(traceId).append(" spanId=").append(spanId);
+        if (parentId != null) {
+            sb.append(" parent=").append(parentId);
+        }
+        appendTags(sb, tags);
+        sb.append(' ').append(startMillis).append(' ').append(durationMillis);
+        return sb.toString();
+    }
+
+    static void appendTags(StringBuilder sb, Map<String, String> tags) {
+        if (tags != null) {
+            for (Map.Entry<String, String> tag : tags.entrySet()) {
+                if (tag.getValue() == null || tag.getValue().isEmpty()) {
+                    continue;
+                }
+                sb.append(' ');
+                appendQuoted(sb, sanitizeKey(tag.getKey()));
+                sb.append('=');
+                appendQuoted(sb, tag.getValue());
+            }
+        }
+    }
+
+    static void appendQuoted(StringBuilder sb, String value) {
+        sb.append('"');
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    sb.append("\\\"");
+                } else if (c == '\n') {
+                    sb.append("\\n");
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+        sb.append('"');
+    }
+
+    public static String sanitizeName(String name) {
+        StringBuilder sb = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == ',' || c == '/'
+                    || (i == 0 && (c == '~' || c == '\u2206'));
+            sb.append(valid ? c : '-');
+        }
+        return sb.toString();
+    }
+
+    public static String sanitizeKey(String key) {
+        StringBuilder sb = new StringBuilder(key.length());
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.';
+            sb.append(valid ? c : '-');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront.util;
+
+/**
+ * A map from long keys to double values with open addressing over two primitive arrays, so a hundred thousand
+ * entries take a few megabytes instead of boxed map entries. The key 0 marks an empty slot and can't be stored.
+ */
+public final class LongDoubleMap {
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private double[] values;
+    private int size;
+
+    public LongDoubleMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        keys = new long[capacity];
+        values = new double[capacity];
+    }
+
+    /**
+     * @return the value of the key, NaN if there is none
+     */
+    public double get(long key) {
+        int slot = find(keys, key);
+        return keys[slot] == key ? values[slot] : Double.NaN;
+    }
+
+    public void put(long key, double value) {
+        if (key == 0) {
+            throw new IllegalArgumentException("The key 0 can't be stored");
+        }
+        if ((size + 1) * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+        int slot = find(keys, key);
+        if (keys[slot] != key) {
+            keys[slot] = key;
+            size++;
+        }
+        values[slot] = value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the keys, in no particular order
+     */
+    public long[] keys() {
+        long[] result = new long[size];
+        int i = 0;
+        for (long key : keys) {
+            if (key != 0) {
+                result[i++] = key;
+            }
+        }
+        return result;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        double[] oldValues = values;
+        keys = new long[capacity];
+        values = new double[capacity];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = find(keys, oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * @return the slot of the key, or the empty slot where it belongs
+     */
+    private static int find(long[] keys, long key) {
+        int mask = keys.length - 1;
+        int slot = (int) (key ^ (key >>> 32)) * 0x9E3779B9 & mask;
+        while (keys[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Allow/deny rules on the final metric name and point tags. Rules are given one per line:
+ * <pre>
+ * allow wjp.job.prod/*.stage.*
+ * deny *.stage.*
+ * deny regex:.*\.jacoco\..*\.maximum
+ * deny wjp.job.*.junit.* Status=SUCCESS
+ * </pre>
+ * The name is a glob ({@code *} and {@code ?}) or a regular expression prefixed with {@code regex:},
+ * optionally followed by {@code tag=glob} conditions. The first matching rule wins and metrics
+ * matching no rule are allowed. Regular expressions can't use named groups or backreferences.
+ * <p>
+ * All rules are compiled once into a single alternation of capturing groups, one per rule, and a metric
+ * is matched with a single call to the regex engine. The engine tries the alternatives in order and
+ * backtracks, so the cost still grows with the number of rules, but nothing is compiled or allocated per
+ * rule for each point and the group of the matching rule is looked up by its precomputed index. The
+ * metric name and its tags are matched as one subject of lines, so {@code .} never runs from the name
+ * into the tags.
+ */
+public final class MetricFilter {
+    private static final Logger LOGGER = Logger.getLogger(MetricFilter.class.getName());
+
+    public static final MetricFilter ALLOW_ALL = new MetricFilter(new ArrayList<>(), null, null, false, null);
+
+    private static final String ALLOW = "allow";
+    private static final String DENY = "deny";
+    private static final String REGEX_PREFIX = "regex:";
+    private static final char SEPARATOR = '\n';
+    private static final String ANY_TAGS = "(?:\\n[^\\n]*)*";
+    // an unescaped named group, but not a lookbehind, or an unescaped numbered or named backreference
+    private static final Pattern UNSUPPORTED = Pattern.compile("(?<!\\\\)(?:\\\\\\\\)*(?:\\(\\?<[a-zA-Z]|\\\\[1-9k])");
+
+    private final List<Rule> rules;
+    private final Pattern combined;
+    // the group of each rule in the combined pattern
+    private final int[] groups;
+    private final boolean hasTagConditions;
+    private final MetricFilter next;
+
+    private MetricFilter(List<Rule> rules, Pattern combined, int[] groups, boolean hasTagConditions,
+            MetricFilter next) {
+        this.rules = rules;
+        this.combined = combined;
+        this.groups = groups;
+        this.hasTagConditions = hasTagConditions;
+        this.next = next;
+    }
+
+    /**
+     * Compiles the rules. Invalid rules are logged and ignored, and the rules are matched one at a time if
+     * they can't be combined.
+     *
+     * @param rules the rules, one per line
+     * @return the compiled filter
+     */
+    public static MetricFilter compile(String rules) {
+        if (rules == null || rules.trim().isEmpty()) {
+            return ALLOW_ALL;
+        }
+        List<Rule> compiled = new ArrayList<>();
+        for (String line : rules.split("\\R+")) {
+            if (line.trim().isEmpty() || line.trim().startsWith("#")) {
+                continue;
+            }
+            try {
+                compiled.add(Rule.parse(line.trim()));
+            } catch (IllegalArgumentException e) {
+                LOGGER.log(Level.WARNING, "Ignoring invalid metric filter rule: " + line + ", " + e.getMessage());
+            }
+        }
+        if (compiled.isEmpty()) {
+            return ALLOW_ALL;
+        }
+
+        boolean hasTagConditions = false;
+        int[] groups = new int[compiled.size()];
+        int group = 1;
+        for (int i = 0; i < compiled.size(); i++) {
+            hasTagConditions |= compiled.get(i).hasTagConditions;
+            groups[i] = group;
+            group += 1 + compiled.get(i).pattern.matcher("").groupCount();
+        }
+        Pattern combined;
+        try {
+            combined = combine(compiled);
+        } catch (PatternSyntaxException e) {
+            LOGGER.log(Level.WARNING, "Failed to combine the metric filter rules, matching them one at a time", e);
+            combined = null;
+        }
+        return new MetricFilter(compiled, combined, combined != null ? groups : null, hasTagConditions, null);
+    }
+
+    private static Pattern combine(List<Rule> rules) {
+        StringBuilder alternation = new StringBuilder();
+        for (int i = 0; i < rules.size(); i++) {
+            if (i > 0) {
+                alternation.append('|');
+            }
+            alternation.append('(').append(rules.get(i).regex).append(')');
+        }
+        return Pattern.compile(alternation.toString());
+    }
+
+    /**
+     * @param rules the rules, one per line
+     * @return a description of the first invalid rule or null if all rules are valid
+     */
+    public static String validate(String rules) {
+        if (rules == null) {
+            return null;
+        }
+        List<Rule> parsed = new ArrayList<>();
+        for (String line : rules.split("\\R+")) {
+            if (line.trim().isEmpty() || line.trim().startsWith("#")) {
+                continue;
+            }
+            try {
+                parsed.add(Rule.parse(line.trim()));
+            } catch (IllegalArgumentException e) {
+                return "Invalid rule '" + line.trim() + "': " + e.getMessage();
+            }
+        }
+        try {
+            combine(parsed);
+        } catch (PatternSyntaxException e) {
+            return "The rules can't be combined: " + e.getMessage();
+        }
+        return null;
+    }
+
+    /**
+     * @param other a filter which has to allow the metrics as well
+     * @return a filter allowing only metrics allowed by both filters
+     */
+    public MetricFilter and(MetricFilter other) {
+        if (other == null || other == ALLOW_ALL) {
+            return this;
+        }
+        if (this == ALLOW_ALL) {
+            return other;
+        }
+        return new MetricFilter(rules, combined, groups, hasTagConditions, next == null ? other : next.and(other));
+    }
+
+    /**
+     * @param name the final metric name
+     * @param tags the point tags, may be null
+     * @return true if the metric should be sent
+     */
+    public boolean isAllowed(String name, Map<String, String> tags) {
+        if (!rules.isEmpty()) {
+            String subject = hasTagConditions ? toSubject(name, tags) : name;
+            if (combined != null) {
+                Matcher m = combined.matcher(subject);
+                if (m.matches()) {
+                    for (int i = 0; i < groups.length; i++) {
+                        if (m.start(groups[i]) >= 0) {
+                            if (!rules.get(i).allow) {
+                                return false;
+                            }
+                            break;
+                        }
+                    }
+                }
+            } else {
+                for (Rule rule : rules) {
+                    if (rule.pattern.matcher(subject).matches()) {
+                        if (!rule.allow) {
+                            return false;
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+        return next == null || next.isAllowed(name, tags);
+    }
+
+    /**
+     * Tells whether any metric whose name starts with the given prefix may be allowed, so that
+     * extracting a whole category of metrics can be skipped. Tag conditions are not evaluated, so
+     * the answer is conservative.
+     *
+     * @param prefix the common prefix of the metric names of the category
+     * @return false if every metric of the category is denied
+     */
+    public boolean isCategoryAllowed(String prefix) {
+        for (Rule rule : rules) {
+            if (rule.allow && rule.couldMatchNameStartingWith(prefix)) {
+                break;
+            }
+            if (!rule.allow && rule.matchesEveryNameStartingWith(prefix)) {
+                return false;
+            }
+        }
+        return next == null || next.isCategoryAllowed(prefix);
+    }
+
+    private static String toSubject(String name, Map<String, String> tags) {
+        StringBuilder sb = new StringBuilder(name);
+        if (tags != null) {
+            for (Map.Entry<String, String> tag : new TreeMap<>(tags).entrySet()) {
+                // tag keys are matched the way they show up in Wavefront, e.g. "Build-Number"
+                sb.append(SEPARATOR).append(tag.getKey().replace(' ', '-')).append('=')
+                        .append(tag.getValue().replace(SEPARATOR, ' '));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param glob a pattern where {@code *} matches any characters and {@code ?} a single one
+     * @return the equivalent regular expression
+     */
+    public static String globToRegex(String glob) {
+        StringBuilder sb = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (char c : glob.toCharArray()) {
+            if (c == '*' || c == '?') {
+                if (literal.length() > 0) {
+                    sb.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                sb.append(c == '*' ? "[^\\n]*" : "[^\\n]");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            sb.append(Pattern.quote(literal.toString()));
+        }
+        return sb.toString();
+    }
+
+    private static final class Rule {
+        private final boolean allow;
+        private final String regex;
+        private final boolean hasTagConditions;
+        // the whole rule on its own, used if the rules can't be combined
+        private final Pattern pattern;
+        private final Pattern namePattern;
+        // the name pattern without its trailing wildcard, null if the name does not end with one
+        private final Pattern stemPattern;
+
+        private Rule(boolean allow, String regex, boolean hasTagConditions, Pattern namePattern,
+                Pattern stemPattern) {
+            this.allow = allow;
+            this.regex = regex;
+            this.hasTagConditions = hasTagConditions;
+            this.pattern = Pattern.compile(regex);
+            this.namePattern = namePattern;
+            this.stemPattern = stemPattern;
+        }
+
+        private static Rule parse(String line) {
+            String[] parts = line.split("\\s+");
+            if (parts.length < 2 || !(ALLOW.equals(parts[0]) || DENY.equals(parts[0]))) {
+                throw new IllegalArgumentException("expected 'allow <name>' or 'deny <name>'");
+            }
+            String nameRegex;
+            String stemRegex = null;
+            try {
+                if (parts[1].startsWith(REGEX_PREFIX)) {
+                    nameRegex = parts[1].substring(REGEX_PREFIX.length());
+                    // compiled on its own to report syntax errors against the rule itself
+                    Pattern.compile(nameRegex);
+                    // group names and numbers change once the rules are combined
+                    if (UNSUPPORTED.matcher(nameRegex).find()) {
+                        throw new IllegalArgumentException("named groups and backreferences aren't supported");
+                    }
+                    // with an alternation, the trailing .* only belongs to the last alternative
+                    if (nameRegex.endsWith(".*") && !nameRegex.endsWith("\\.*")
+                            && !hasTopLevelAlternation(nameRegex)) {
+                        stemRegex = "(?:" + nameRegex.substring(0, nameRegex.length() - 2) + ")";
+                    }
+                    nameRegex = "(?:" + nameRegex + ")";
+                } else {
+                    nameRegex = globToRegex(parts[1]);
+                    if (parts[1].endsWith("*")) {
+                        stemRegex = globToRegex(parts[1].substring(0, parts[1].length() - 1));
+                    }
+                }
+            } catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException(e.getDescription(), e);
+            }
+
+            StringBuilder regex = new StringBuilder(nameRegex);
+            for (int i = 2; i < parts.length; i++) {
+                int separator = parts[i].indexOf('=');
+                if (separator <= 0) {
+                    throw new IllegalArgumentException("expected tag condition 'tag=value'");
+                }
+                regex.append("(?=").append(ANY_TAGS).append("\\n")
+                        .append(Pattern.quote(parts[i].substring(0, separator))).append('=')
+                        .append(globToRegex(parts[i].substring(separator + 1))).append("(?:\\n|$))");
+            }
+            regex.append(ANY_TAGS);
+
+            return new Rule(ALLOW.equals(parts[0]), regex.toString(), parts.length > 2,
+                    Pattern.compile(nameRegex),
+                    stemRegex != null && parts.length == 2 ? Pattern.compile(stemRegex) : null);
+        }
+
+        /**
+         * @return true if the regex has a {@code |} outside of any group and character class
+         */
+        static boolean hasTopLevelAlternation(String regex) {
+            int depth = 0;
+            boolean inClass = false;
+            for (int i = 0; i < regex.length(); i++) {
+                char c = regex.charAt(i);
+                if (c == '\\') {
+                    i++;
+                } else if (inClass) {
+                    inClass = c != ']';
+                } else if (c == '[') {
+                    inClass = true;
+                    // a ] right after [ or [^ is a literal
+                    if (i + 1 < regex.length() && regex.charAt(i + 1) == '^') {
+                        i++;
+                    }
+                    if (i + 1 < regex.length() && regex.charAt(i + 1) == ']') {
+                        i++;
+                    }
+                } else if (c == '(') {
+                    depth++;
+                } else if (c == ')') {
+                    depth--;
+                } else if (c == '|' && depth == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean couldMatchNameStartingWith(String prefix) {
+            Matcher m = namePattern.matcher(prefix);
+            return m.matches() || m.hitEnd();
+        }
+
+        private boolean matchesEveryNameStartingWith(String prefix) {
+            return stemPattern != null && stemPattern.matcher(prefix).lookingAt();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront.util;
+
+import java.util.Arrays;
+
+/**
+ * Streaming estimate of a quantile with the P-square algorithm (Jain and Chlamtac): five markers are moved
+ * towards their desired positions with piecewise parabolic interpolation, so the estimate takes
+ * constant space no matter how many values are added. The fields are plain arrays, so instances can
+ * be persisted as they are.
+ */
+public final class P2Quantile {
+    private static final int MARKERS = 5;
+
+    private final double quantile;
+    private final double[] heights = new double[MARKERS];
+    private final double[] positions = new double[MARKERS];
+    private final double[] desired = new double[MARKERS];
+    private final double[] increments = new double[MARKERS];
+    private long count;
+
+    /**
+     * @param quantile the quantile to estimate, between 0 and 1
+     */
+    public P2Quantile(double quantile) {
+        if (quantile <= 0 || quantile >= 1) {
+            throw new IllegalArgumentException("The quantile must be between 0 and 1: " + quantile);
+        }
+        this.quantile = quantile;
+        increments[0] = 0;
+        increments[1] = quantile / 2;
+        increments[2] = quantile;
+        increments[3] = (1 + quantile) / 2;
+        increments[4] = 1;
+    }
+
+    public void add(double value) {
+        if (count < MARKERS) {
+            heights[(int) count++] = value;
+            if (count == MARKERS) {
+                Arrays.sort(heights);
+                for (int i = 0; i < MARKERS; i++) {
+                    positions[i] = i + 1;
+                }
+                desired[0] = 1;
+                desired[1] = 1 + 2 * quantile;
+                desired[2] = 1 + 4 * quantile;
+                desired[3] = 3 + 2 * quantile;
+                desired[4] = 5;
+            }
+            return;
+        }
+        count++;
+
+        int cell;
+        if (value < heights[0]) {
+            heights[0] = value;
+            cell = 0;
+        } else if (value >= heights[4]) {
+            heights[4] = value;
+            cell = 3;
+        } else {
+            cell = 0;
+            while (value >= heights[cell + 1]) {
+                cell++;
+            }
+        }
+        for (int i = cell + 1; i < MARKERS; i++) {
+            positions[i]++;
+        }
+        for (int i = 0; i < MARKERS; i++) {
+            desired[i] += increments[i];
+        }
+
+        for (int i = 1; i < MARKERS - 1; i++) {
+            double d = desired[i] - positions[i];
+            if ((d >= 1 && positions[i + 1] - positions[i] > 1) || (d <= -1 && positions[i - 1] - positions[i] < -1)) {
+                int sign = d > 0 ? 1 : -1;
+                double height = parabolic(i, sign);
+                if (heights[i - 1] < height && height < heights[i + 1]) {
+                    heights[i] = height;
+                } else {
+                    heights[i] = linear(i, sign);
+                }
+                positions[i] += sign;
+            }
+        }
+    }
+
+    private double parabolic(int i, int d) {
+        return heights[i] + d / (positions[i + 1] - positions[i - 1])
+                * ((positions[i] - positions[i - 1] + d) * (heights[i + 1] - heights[i])
+                / (positions[i + 1] - positions[i])
+                + (positions[i + 1] - positions[i] - d) * (heights[i] - heights[i - 1])
+                / (positions[i] - positions[i - 1]));
+    }
+
+    private double linear(int i, int d) {
+        return heights[i] + d * (heights[i + d] - heights[i]) / (positions[i + d] - positions[i]);
+    }
+
+    /**
+     * @return the estimated quantile, NaN if no value has been added
+     */
+    public double getValue() {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (count < MARKERS) {
+            double[] sorted = Arrays.copyOf(heights, (int) count);
+            Arrays.sort(sorted);
+            int rank = (int) Math.ceil(quantile * count) - 1;
+            return sorted[Math.max(0, rank)];
+        }
+        return heights[2];
+    }
+
+    public long getCount() {
+        return count;
+    }
+}
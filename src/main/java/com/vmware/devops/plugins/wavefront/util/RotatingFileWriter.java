@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes lines to gzip compressed files, starting a new file when the current one exceeds the
+ * size or age limit and deleting the oldest files above the retention cap. Not thread safe.
+ */
+public class RotatingFileWriter implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(RotatingFileWriter.class.getName());
+    private static final int BUFFER_SIZE = 64 * 1024;
+    public static final String SUFFIX = ".wf.gz";
+
+    private final File directory;
+    private final String prefix;
+    private final long maxBytes;
+    private final long maxAgeMillis;
+    private final int maxFiles;
+
+    private File currentFile;
+    private FileChannel channel;
+    private OutputStream out;
+    private long openedAt;
+
+    /**
+     * @param directory    the directory of the files
+     * @param prefix       the prefix of the file names, followed by the creation time
+     * @param maxBytes     the compressed size after which a new file is started
+     * @param maxAgeMillis the age after which a new file is started
+     * @param maxFiles     the number of files kept, including the current one
+     */
+    public RotatingFileWriter(File directory, String prefix, long maxBytes, long maxAgeMillis, int maxFiles) {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.maxBytes = maxBytes;
+        this.maxAgeMillis = maxAgeMillis;
+        this.maxFiles = Math.max(1, maxFiles);
+    }
+
+    /**
+     * Appends the lines and flushes them, so a crash loses at most the batch being written.
+     *
+     * @param lines the lines, without line separators
+     * @param now   the current time in milliseconds
+     * @throws IOException if the file could not be written
+     */
+    public void write(List<String> lines, long now) throws IOException {
+        if (out == null || channel.size() >= maxBytes || now - openedAt >= maxAgeMillis) {
+            rotate(now);
+        }
+        StringBuilder sb = new StringBuilder(lines.size() * 128);
+        for (String line : lines) {
+            sb.append(line).append('\n');
+        }
+        out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private void rotate(long now) throws IOException {
+        close();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create " + directory);
+        }
+        String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(now));
+        File file = new File(directory, prefix + timestamp + SUFFIX);
+        for (int i = 1; file.exists(); i++) {
+            file = new File(directory, prefix + timestamp + "-" + i + SUFFIX);
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        // sync flush makes every written batch readable before the file is finished
+        out = new GZIPOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE, true);
+        currentFile = file;
+        openedAt = now;
+        deleteOldFiles();
+    }
+
+    private void deleteOldFiles() {
+        List<File> files = listFiles(directory, prefix);
+        for (int i = 0; i < files.size() - maxFiles; i++) {
+            if (!files.get(i).delete()) {
+                LOGGER.log(Level.WARNING, "Failed to delete " + files.get(i));
+            }
+        }
+    }
+
+    /**
+     * @return the file currently written to, or null if no file is open
+     */
+    public File getCurrentFile() {
+        return currentFile;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (out != null) {
+            try {
+                out.close();
+            } finally {
+                out = null;
+                channel = null;
+                currentFile = null;
+            }
+        }
+    }
+
+    /**
+     * @param directory the directory of the files
+     * @param prefix    the prefix of the file names
+     * @return the files written with the given prefix, oldest first
+     */
+    public static List<File> listFiles(File directory, String prefix) {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(prefix) && name.endsWith(SUFFIX));
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        // the creation time in the name sorts lexicographically, same second files get a "-n" suffix
+        Arrays.sort(files, (a, b) -> stripSuffix(a).compareTo(stripSuffix(b)));
+        return new ArrayList<>(Arrays.asList(files));
+    }
+
+    private static String stripSuffix(File file) {
+        String name = file.getName();
+        return name.substring(0, name.length() - SUFFIX.length());
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BackfillTaskTest {
+
+    @Test
+    public void testJobSelection() {
+        BackfillTask task = new BackfillTask("team-a/*\n\nrelease-?\n", 0, 1, 2, 100);
+        Assert.assertTrue(task.isSelected("team-a/build"));
+        Assert.assertTrue(task.isSelected("team-a/folder/deploy"));
+        Assert.assertTrue(task.isSelected("release-1"));
+        Assert.assertFalse(task.isSelected("release-10"));
+        Assert.assertFalse(task.isSelected("team-b/build"));
+    }
+
+    @Test
+    public void testNoPatternsSelectNothing() {
+        BackfillTask task = new BackfillTask("  \n", 0, 1, 2, 100);
+        Assert.assertFalse(task.isSelected("job"));
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.vmware.devops.plugins.wavefront.util.MetricFilter;
+
+public class BuildMetricsAggregatorTest {
+    private static final long BUCKET = 60000L;
+
+    @Test
+    public void testBuildsAreAggregatedPerJobAndResult() {
+        BuildMetricsAggregator aggregator = new BuildMetricsAggregator();
+        aggregator.record("job", "SUCCESS", 1000L, 10L, BUCKET, MetricFilter.ALLOW_ALL);
+        aggregator.record("job", "SUCCESS", 3000L, 20L, BUCKET, MetricFilter.ALLOW_ALL);
+        aggregator.record("job", "FAILURE", 500L, 30L, BUCKET, MetricFilter.ALLOW_ALL);
+
+        List<BuildMetricsAggregator.Bucket> buckets = aggregator.drainCompletedBuckets(BUCKET);
+        Assert.assertEquals(2, buckets.size());
+        for (BuildMetricsAggregator.Bucket bucket : buckets) {
+            Assert.assertEquals(0L, bucket.getBucketStart());
+            if (bucket.getResult().equals("SUCCESS")) {
+                Assert.assertEquals(2L, bucket.getCount());
+                Assert.assertEquals(4000L, bucket.getDurationSum());
+                Assert.assertEquals(3000L, bucket.getDurationMax());
+            } else {
+                Assert.assertEquals(1L, bucket.getCount());
+                Assert.assertEquals(500L, bucket.getDurationMax());
+            }
+        }
+        Assert.assertTrue(aggregator.drainCompletedBuckets(BUCKET).isEmpty());
+    }
+
+    @Test
+    public void testCurrentBucketIsNotDrained() {
+        BuildMetricsAggregator aggregator = new BuildMetricsAggregator();
+        aggregator.record("job", "SUCCESS", 1000L, BUCKET + 10L, BUCKET, MetricFilter.ALLOW_ALL);
+
+        Assert.assertTrue(aggregator.drainCompletedBuckets(BUCKET + 20L).isEmpty());
+        Assert.assertEquals(1, aggregator.drainCompletedBuckets(2 * BUCKET).size());
+    }
+
+    @Test
+    public void testLateBuildGoesToCurrentBucket() {
+        BuildMetricsAggregator aggregator = new BuildMetricsAggregator();
+        aggregator.record("job", "SUCCESS", 1000L, 10L, BUCKET, MetricFilter.ALLOW_ALL);
+        Assert.assertEquals(1, aggregator.drainCompletedBuckets(BUCKET + 10L).size());
+
+        // completed in the drained bucket but recorded after the drain
+        aggregator.record("job", "SUCCESS", 2000L, 20L, BUCKET, MetricFilter.ALLOW_ALL);
+        Assert.assertTrue(aggregator.drainCompletedBuckets(BUCKET + 20L).isEmpty());
+        List<BuildMetricsAggregator.Bucket> buckets = aggregator.drainCompletedBuckets(2 * BUCKET);
+        Assert.assertEquals(1, buckets.size());
+        Assert.assertEquals(BUCKET, buckets.get(0).getBucketStart());
+        Assert.assertEquals(2000L, buckets.get(0).getDurationSum());
+    }
+
+    @Test
+    public void testBucketKeepsTheFilterOfTheLatestBuild() {
+        BuildMetricsAggregator aggregator = new BuildMetricsAggregator();
+        MetricFilter filter = MetricFilter.compile("deny *.builds.duration-max");
+        aggregator.record("job", "SUCCESS", 1000L, 10L, BUCKET, MetricFilter.ALLOW_ALL);
+        aggregator.record("job", "SUCCESS", 2000L, 20L, BUCKET, filter);
+
+        List<BuildMetricsAggregator.Bucket> buckets = aggregator.drainCompletedBuckets(BUCKET);
+        Assert.assertEquals(1, buckets.size());
+        Assert.assertSame(filter, buckets.get(0).getFilter());
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DurationBaselineTest {
+    private static final double FACTOR = 1.5;
+    private static final int BUILDS = 3;
+
+    private long update;
+
+    private DurationBaseline.Comparison update(DurationBaseline baseline, long duration) {
+        return baseline.update(duration, FACTOR, BUILDS, ++update);
+    }
+
+    @Test
+    public void testNoComparisonBeforeMinSamples() {
+        DurationBaseline baseline = new DurationBaseline();
+        for (int i = 0; i < DurationBaseline.MIN_SAMPLES; i++) {
+            Assert.assertNull(update(baseline, 100));
+        }
+        DurationBaseline.Comparison comparison = update(baseline, 100);
+        Assert.assertNotNull(comparison);
+        Assert.assertEquals(1, comparison.getRatio(), 0.001);
+        Assert.assertFalse(comparison.isRegressed());
+        Assert.assertEquals(6, baseline.getLastUpdate());
+    }
+
+    @Test
+    public void testRegressionAfterConsecutiveSlowBuilds() {
+        DurationBaseline baseline = new DurationBaseline();
+        for (int i = 0; i < 20; i++) {
+            update(baseline, 100 + i % 3);
+        }
+        Assert.assertFalse(update(baseline, 300).isRegressed());
+        Assert.assertFalse(update(baseline, 300).isRegressed());
+        DurationBaseline.Comparison comparison = update(baseline, 300);
+        Assert.assertTrue(comparison.isRegressed());
+        Assert.assertTrue(comparison.isStarted());
+        Assert.assertTrue(comparison.getRatio() > FACTOR);
+
+        comparison = update(baseline, 300);
+        Assert.assertTrue(comparison.isRegressed());
+        Assert.assertFalse(comparison.isStarted());
+        Assert.assertFalse(update(baseline, 100).isRegressed());
+    }
+
+    @Test
+    public void testFastBuildResetsSlowBuilds() {
+        DurationBaseline baseline = new DurationBaseline();
+        for (int i = 0; i < 20; i++) {
+            update(baseline, 100);
+        }
+        update(baseline, 300);
+        update(baseline, 300);
+        update(baseline, 100);
+        Assert.assertFalse(update(baseline, 300).isRegressed());
+    }
+
+    @Test
+    public void testNoisyDurationsAreNotSlow() {
+        DurationBaseline baseline = new DurationBaseline();
+        for (int i = 0; i < 50; i++) {
+            update(baseline, i % 5 == 0 ? 400 : 100);
+        }
+        for (int i = 0; i < 5; i++) {
+            Assert.assertFalse(update(baseline, 250).isRegressed());
+        }
+    }
+
+    @Test
+    public void testBuildsWithoutStagesKeepStageBaselines() {
+        RegressionDetector.Baselines baselines = new RegressionDetector.Baselines();
+        Map<String, Long> stages = Collections.singletonMap("build", 100L);
+        for (int i = 0; i < 10; i++) {
+            baselines.update(100, stages, FACTOR, BUILDS);
+        }
+        // e.g. builds which are not sampled
+        for (int i = 0; i < 200; i++) {
+            baselines.update(100, null, FACTOR, BUILDS);
+        }
+        Map<String, DurationBaseline.Comparison> comparisons = baselines.update(100, stages, FACTOR, BUILDS);
+        Assert.assertTrue(comparisons.containsKey(null));
+        Assert.assertTrue(comparisons.containsKey("build"));
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DurationRingTest {
+
+    @Test
+    public void testEmptyRing() {
+        DurationRing ring = new DurationRing(10);
+        Assert.assertEquals(0, ring.size());
+        Assert.assertEquals(-1, ring.getLast());
+        Assert.assertEquals(-1, ring.getPercentile(0.5));
+    }
+
+    @Test
+    public void testPercentiles() {
+        DurationRing ring = new DurationRing(100);
+        for (int i = 100; i > 0; i--) {
+            ring.add(i, 101 - i);
+        }
+        Assert.assertEquals(100, ring.size());
+        Assert.assertEquals(50, ring.getPercentile(0.5));
+        Assert.assertEquals(95, ring.getPercentile(0.95));
+        Assert.assertEquals(1, ring.getLast());
+        Assert.assertEquals(100, ring.getLastUpdate());
+    }
+
+    @Test
+    public void testOldestDurationsAreOverwritten() {
+        DurationRing ring = new DurationRing(3);
+        ring.add(1000, 1);
+        ring.add(1000, 2);
+        ring.add(10, 3);
+        ring.add(20, 4);
+        ring.add(30, 5);
+        Assert.assertEquals(3, ring.size());
+        Assert.assertEquals(20, ring.getPercentile(0.5));
+        Assert.assertEquals(30, ring.getPercentile(0.95));
+        Assert.assertEquals(30, ring.getLast());
+    }
+
+    @Test
+    public void testBuildsWithoutStagesKeepStageDurations() {
+        DurationHistory.Durations durations = new DurationHistory.Durations();
+        durations.add(100, Collections.singletonMap("build", 50L));
+        for (int i = 0; i < DurationHistory.CAPACITY; i++) {
+            durations.add(100, null);
+        }
+        Assert.assertEquals(DurationHistory.CAPACITY, durations.getBuild().size());
+        Assert.assertEquals(50, durations.getStages().get("build").getLast());
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JacocoPackageCoverageTest {
+
+    @Test
+    public void testLargestPackagesAreSelected() {
+        JacocoPackageCoverage coverage = JacocoPackageCoverage.empty(2);
+        coverage.offer("a.small", 10, 10, 10, 100);
+        coverage.offer("a.large", 20, 20, 20, 1000);
+        coverage.offer("a.medium", 30, 30, 30, 500);
+        coverage.offer("a.tiny", 40, 40, 40, 1);
+
+        List<JacocoPackageCoverage.Package> packages = coverage.getTopPackages();
+        Assert.assertEquals(2, packages.size());
+        Assert.assertEquals("a.large", packages.get(0).getName());
+        Assert.assertEquals("a.medium", packages.get(1).getName());
+        Assert.assertEquals(30, packages.get(1).getLineCoverage(), 0);
+    }
+
+    @Test
+    public void testChangedPackagesAreSelectedFirst() throws IOException {
+        File jobDir = Files.createTempDirectory("wavefront").toFile();
+        JacocoPackageCoverage coverage = JacocoPackageCoverage.load(jobDir, 2);
+        coverage.offer("a.large", 80, 80, 80, 1000);
+        coverage.offer("a.medium", 80, 80, 80, 500);
+        coverage.offer("a.small", 80, 80, 80, 100);
+        coverage.offer("a.tiny", 80, 80, 80, 10);
+        coverage.save(jobDir);
+        Assert.assertArrayEquals(new String[]{JacocoPackageCoverage.FILE_NAME}, jobDir.list());
+
+        coverage = JacocoPackageCoverage.load(jobDir, 2);
+        coverage.offer("a.large", 80, 80, 80, 1000);
+        coverage.offer("a.medium", 80, 80, 80, 500);
+        coverage.offer("a.small", 80, 80, 75, 100);
+        coverage.offer("a.tiny", 80, 80, 60, 10);
+
+        List<JacocoPackageCoverage.Package> packages = coverage.getTopPackages();
+        Assert.assertEquals(2, packages.size());
+        Assert.assertEquals("a.tiny", packages.get(0).getName());
+        Assert.assertEquals(20, packages.get(0).getChange(), 0);
+        Assert.assertEquals("a.small", packages.get(1).getName());
+    }
+
+    @Test
+    public void testNoLimitOnlyRecords() throws IOException {
+        File jobDir = Files.createTempDirectory("wavefront").toFile();
+        JacocoPackageCoverage coverage = JacocoPackageCoverage.load(jobDir, 0);
+        coverage.offer("a.package", 80, 80, 80, 1000);
+        Assert.assertTrue(coverage.getTopPackages().isEmpty());
+        coverage.save(jobDir);
+
+        coverage = JacocoPackageCoverage.load(jobDir, 1);
+        coverage.offer("a.package", 80, 80, 70, 1000);
+        Assert.assertEquals(10, coverage.getTopPackages().get(0).getChange(), 0);
+    }
+}
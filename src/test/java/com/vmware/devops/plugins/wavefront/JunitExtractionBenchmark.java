@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.tools.ant.DirectoryScanner;
+
+import hudson.tasks.junit.CaseResult;
+import hudson.tasks.junit.SuiteResult;
+import hudson.tasks.junit.TestResult;
+
+/**
+ * Compares reading the test cases of a 100k case report through the failed, skipped and passed lists with the
+ * single pass over the suites used by {@link WavefrontBuildListener}. Run it with the test classpath:
+ * {@code java -cp ... com.vmware.devops.plugins.wavefront.JunitExtractionBenchmark}.
+ */
+public final class JunitExtractionBenchmark {
+    private static final int SUITES = 200;
+    private static final int CASES_PER_SUITE = 500;
+    private static final int ITERATIONS = 50;
+
+    private JunitExtractionBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        File directory = Files.createTempDirectory("junit-benchmark").toFile();
+        writeReports(directory);
+        DirectoryScanner scanner = new DirectoryScanner();
+        scanner.setBasedir(directory);
+        scanner.setIncludes(new String[] {"*.xml"});
+        scanner.scan();
+        TestResult result = new TestResult(0, scanner, false);
+        result.tally();
+        System.out.println("Cases: " + result.getTotalCount());
+
+        for (int warmup = 0; warmup < ITERATIONS; warmup++) {
+            readLists(result);
+            readSuites(result);
+        }
+        measure("failed, skipped and passed lists", () -> readLists(result));
+        measure("single pass over the suites", () -> readSuites(result));
+    }
+
+    private static double readLists(TestResult result) {
+        double duration = 0;
+        for (CaseResult testCase : result.getFailedTests()) {
+            duration += testCase.getDuration();
+        }
+        for (hudson.tasks.test.TestResult testCase : result.getSkippedTests()) {
+            duration += testCase.getDuration();
+        }
+        for (hudson.tasks.test.TestResult testCase : result.getPassedTests()) {
+            duration += testCase.getDuration();
+        }
+        return duration;
+    }
+
+    private static double readSuites(TestResult result) {
+        double duration = 0;
+        for (SuiteResult suite : result.getSuites()) {
+            for (CaseResult testCase : suite.getCases()) {
+                // the status is classified on the fly, the duration is the same work as with the lists
+                if (testCase.isSkipped() || testCase.isPassed() || testCase.isFailed()) {
+                    duration += testCase.getDuration();
+                }
+            }
+        }
+        return duration;
+    }
+
+    private static void measure(String name, Runnable reader) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            reader.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(threadId) - allocated;
+        System.out.printf("%s: %.2f ms and %d KB allocated per report%n", name,
+                elapsed / 1e6 / ITERATIONS, allocated / 1024 / ITERATIONS);
+    }
+
+    private static void writeReports(File directory) throws IOException {
+        for (int suite = 0; suite < SUITES; suite++) {
+            String className = "com.example.Suite" + suite;
+            File report = new File(directory, "TEST-" + className + ".xml");
+            try (PrintWriter writer = new PrintWriter(report, StandardCharsets.UTF_8.name())) {
+                writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+                writer.printf("<testsuite name=\"%s\" tests=\"%d\" time=\"1.0\">%n", className, CASES_PER_SUITE);
+                for (int testCase = 0; testCase < CASES_PER_SUITE; testCase++) {
+                    writer.printf("<testcase classname=\"%s\" name=\"test%d\" time=\"0.01\">", className, testCase);
+                    if (testCase % 20 == 0) {
+                        writer.print("<failure message=\"failed\">stack trace</failure>");
+                    } else if (testCase % 20 == 1) {
+                        writer.print("<skipped/>");
+                    }
+                    writer.println("</testcase>");
+                }
+                writer.println("</testsuite>");
+            }
+        }
+    }
+}
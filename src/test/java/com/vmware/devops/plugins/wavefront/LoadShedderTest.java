@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LoadShedderTest {
+    private LoadShedder shedder;
+    private LoadShedder.Thresholds thresholds;
+
+    @Before
+    public void init() {
+        shedder = new LoadShedder();
+        thresholds = new LoadShedder.Thresholds(90, 80, 100, 10);
+    }
+
+    @Test
+    public void testSheddingStartsWhenAnyThresholdIsCrossed() {
+        Assert.assertFalse(shedder.update(50, 50, 10, thresholds));
+        Assert.assertFalse(shedder.isSheddingLoad());
+
+        Assert.assertTrue(shedder.update(50, 85, 10, thresholds));
+        Assert.assertTrue(shedder.isSheddingLoad());
+
+        shedder.reset();
+        Assert.assertTrue(shedder.update(50, 50, 100, thresholds));
+        Assert.assertTrue(shedder.isSheddingLoad());
+    }
+
+    @Test
+    public void testSheddingStopsOnlyBelowHysteresis() {
+        Assert.assertTrue(shedder.update(95, 50, 10, thresholds));
+
+        // below the threshold, but within the hysteresis margin
+        Assert.assertFalse(shedder.update(85, 50, 10, thresholds));
+        Assert.assertTrue(shedder.isSheddingLoad());
+
+        Assert.assertTrue(shedder.update(79, 50, 10, thresholds));
+        Assert.assertFalse(shedder.isSheddingLoad());
+    }
+
+    @Test
+    public void testToPercentWithUndefinedMax() {
+        Assert.assertEquals(0, LoadShedder.toPercent(100, -1), 0);
+        Assert.assertEquals(50, LoadShedder.toPercent(50, 100), 0);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PipelineBlockTreeTest {
+
+    @Test
+    public void testCriticalPathFollowsTheLongestBranch() {
+        PipelineBlockTree tree = createTree();
+
+        List<String> names = new ArrayList<>();
+        for (PipelineBlockTree.Block block : tree.getCriticalPath()) {
+            names.add(block.getName());
+        }
+        Assert.assertEquals("[a, b, x, x1, c]", names.toString());
+        Assert.assertEquals(650, tree.getCriticalPathLength());
+    }
+
+    @Test
+    public void testParallelStats() {
+        List<PipelineBlockTree.ParallelStats> stats = createTree().getParallelStats();
+
+        Assert.assertEquals(1, stats.size());
+        PipelineBlockTree.ParallelStats parallel = stats.get(0);
+        Assert.assertEquals("b", parallel.getName());
+        Assert.assertEquals(2, parallel.getBranches());
+        Assert.assertEquals(400, parallel.getMax());
+        Assert.assertEquals(200, parallel.getMin());
+        Assert.assertEquals(300, parallel.getMean(), 0);
+        Assert.assertEquals(4.0 / 3, parallel.getSkew(), 0.0001);
+        Assert.assertEquals(1.5, parallel.getConcurrency(), 0.0001);
+    }
+
+    @Test
+    public void testTopLevelParallel() {
+        PipelineBlockTree tree = new PipelineBlockTree();
+        tree.add("3", null, "2", "x", 0, 100);
+        tree.add("4", null, "2", "y", 0, 100);
+
+        Assert.assertEquals(100, tree.getCriticalPathLength());
+        PipelineBlockTree.ParallelStats parallel = tree.getParallelStats().get(0);
+        Assert.assertEquals("pipeline", parallel.getName());
+        Assert.assertEquals(1, parallel.getSkew(), 0);
+        Assert.assertEquals(2, parallel.getConcurrency(), 0);
+    }
+
+    /**
+     * Stages a, b and c run one after the other, b runs the branches x and y in parallel and x has the stage x1.
+     * Inner blocks are added first, as when the flow graph is walked backwards.
+     */
+    private static PipelineBlockTree createTree() {
+        PipelineBlockTree tree = new PipelineBlockTree();
+        tree.add("20", null, null, "c", 600, 50);
+        tree.add("12", "10", null, "x1", 110, 300);
+        tree.add("11", "8", "9", "y", 100, 200);
+        tree.add("10", "8", "9", "x", 100, 400);
+        tree.add("8", null, null, "b", 100, 500);
+        tree.add("5", null, null, "a", 0, 100);
+        return tree;
+    }
+}
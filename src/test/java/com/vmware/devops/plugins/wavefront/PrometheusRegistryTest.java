@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PrometheusRegistryTest {
+
+    @Test
+    public void testGaugesAreExposedWithLabels() throws IOException {
+        PrometheusRegistry registry = new PrometheusRegistry();
+        Map<String, String> tags = new HashMap<>();
+        tags.put("Status", "SUCCESS");
+        tags.put("Build Number", "42");
+        registry.set("wjp.job.my-job.stage.build", tags, 1500);
+        registry.set("wjp.job.my-job.stage.build", tags, 2500);
+        registry.set("wjp.system-cpu", null, 0.25);
+
+        String output = render(registry);
+        Assert.assertTrue(output.contains("# TYPE wjp_job_my_job_stage_build gauge\n"));
+        Assert.assertTrue(output.contains("wjp_job_my_job_stage_build{Status=\"SUCCESS\"} 2500\n"));
+        Assert.assertTrue(output.contains("wjp_system_cpu 0.25\n"));
+        Assert.assertEquals(2, registry.getSeriesCount());
+    }
+
+    @Test
+    public void testHistogramBuckets() throws IOException {
+        PrometheusRegistry registry = new PrometheusRegistry();
+        Map<String, String> tags = new HashMap<>();
+        tags.put("Job Name", "job");
+        registry.observe("wjp.job.duration", tags, 800);
+        registry.observe("wjp.job.duration", tags, 7000);
+
+        String output = render(registry);
+        Assert.assertTrue(output.contains("# TYPE wjp_job_duration histogram\n"));
+        Assert.assertTrue(output.contains("wjp_job_duration_bucket{Job_Name=\"job\",le=\"1000\"} 1\n"));
+        Assert.assertTrue(output.contains("wjp_job_duration_bucket{Job_Name=\"job\",le=\"10000\"} 2\n"));
+        Assert.assertTrue(output.contains("wjp_job_duration_bucket{Job_Name=\"job\",le=\"+Inf\"} 2\n"));
+        Assert.assertTrue(output.contains("wjp_job_duration_sum{Job_Name=\"job\"} 7800\n"));
+        Assert.assertTrue(output.contains("wjp_job_duration_count{Job_Name=\"job\"} 2\n"));
+    }
+
+    @Test
+    public void testLeastRecentlyUpdatedSeriesAreEvicted() throws IOException {
+        PrometheusRegistry registry = new PrometheusRegistry();
+        registry.set("wjp.job.old", null, 1);
+        for (int i = 0; i < PrometheusRegistry.MAX_SERIES - 1; i++) {
+            registry.set("wjp.job.test" + i, null, i);
+        }
+        // keeps the old series recently updated
+        registry.set("wjp.job.old", null, 2);
+        Assert.assertEquals(PrometheusRegistry.MAX_SERIES, registry.getSeriesCount());
+
+        registry.set("wjp.job.new", null, 3);
+        Assert.assertTrue(registry.getSeriesCount() < PrometheusRegistry.MAX_SERIES);
+        String output = render(registry);
+        Assert.assertTrue(output.contains("wjp_job_new 3\n"));
+        Assert.assertTrue(output.contains("wjp_job_old 2\n"));
+    }
+
+    @Test
+    public void testNameIsEitherGaugeOrHistogram() throws IOException {
+        PrometheusRegistry registry = new PrometheusRegistry();
+        registry.set("wjp.job.duration", null, 1);
+        registry.observe("wjp.job.duration", null, 2);
+        Assert.assertEquals(1, registry.getSeriesCount());
+        Assert.assertTrue(render(registry).contains("wjp_job_duration 1\n"));
+    }
+
+    @Test
+    public void testLabelValuesAreEscaped() {
+        Map<String, String> tags = new HashMap<>();
+        tags.put("p_message", "a \"quoted\"\nvalue");
+        Assert.assertEquals("p_message=\"a \\\"quoted\\\"\\nvalue\"", PrometheusRegistry.formatLabels(tags));
+    }
+
+    private String render(PrometheusRegistry registry) throws IOException {
+        StringWriter writer = new StringWriter();
+        registry.writeTo(writer);
+        return writer.toString();
+    }
+}
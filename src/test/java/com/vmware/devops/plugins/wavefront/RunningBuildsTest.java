@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RunningBuildsTest {
+
+    @Test
+    public void testCountsDropToZeroOnce() {
+        RunningBuilds builds = new RunningBuilds();
+        builds.started("a#1", "a", "linux", "1", 1000);
+        builds.started("a#2", "a", "linux", "2", 2000);
+        builds.started("b#1", "b", null, "1", 3000);
+
+        Map<String, Integer> jobs = builds.countByJob();
+        Assert.assertEquals(2, (int) jobs.get("a"));
+        Assert.assertEquals(1, (int) jobs.get("b"));
+        Assert.assertEquals(Collections.singletonMap("linux", 2), builds.countByLabel());
+
+        builds.completed("a#1");
+        builds.completed("a#2");
+        jobs = builds.countByJob();
+        Assert.assertEquals(0, (int) jobs.get("a"));
+        Assert.assertEquals(1, (int) jobs.get("b"));
+        Assert.assertEquals(Collections.singletonMap("linux", 0), builds.countByLabel());
+
+        Assert.assertEquals(Collections.singletonMap("b", 1), builds.countByJob());
+        Assert.assertTrue(builds.countByLabel().isEmpty());
+    }
+
+    @Test
+    public void testLongestRunningFirst() {
+        RunningBuilds builds = new RunningBuilds();
+        builds.started("a#2", "a", null, "2", 2000);
+        builds.started("a#1", "a", null, "1", 1000);
+        builds.started("b#1", "b", null, "1", 3000);
+
+        List<RunningBuilds.RunningBuild> longest = builds.getLongestRunning(2);
+        Assert.assertEquals(2, longest.size());
+        Assert.assertEquals("a#1", longest.get(0).getRunId());
+        Assert.assertEquals("a#2", longest.get(1).getRunId());
+        Assert.assertEquals(9000, longest.get(0).getElapsed(10000));
+    }
+
+    @Test
+    public void testOverdueBuildIsReportedOnce() {
+        RunningBuilds builds = new RunningBuilds();
+        builds.started("a#1", "a", null, "1", 0);
+        RunningBuilds.RunningBuild build = builds.getBuilds().iterator().next();
+        Assert.assertFalse(build.isOverdue(100000, 3));
+
+        build.setMedianDuration(1000);
+        Assert.assertFalse(build.isOverdue(3000, 3));
+        Assert.assertTrue(build.isOverdue(3001, 3));
+        Assert.assertFalse(build.isOverdue(3001, 0));
+        Assert.assertTrue(build.markReported());
+        Assert.assertFalse(build.markReported());
+    }
+
+    @Test
+    public void testMedian() {
+        Assert.assertEquals(-1, RunningBuilds.median(Collections.emptyList()));
+        Assert.assertEquals(20, RunningBuilds.median(Arrays.asList(30L, 10L, 20L)));
+        Assert.assertEquals(25, RunningBuilds.median(Arrays.asList(40L, 10L, 20L, 30L)));
+    }
+}
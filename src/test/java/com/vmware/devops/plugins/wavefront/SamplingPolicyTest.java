@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import hudson.model.Result;
+import hudson.model.Run;
+
+public class SamplingPolicyTest {
+
+    @Test
+    public void testOneInNBuildsIsSampled() {
+        SamplingPolicy policy = new SamplingPolicy(5, true);
+        Assert.assertTrue(policy.isSampled(mockRun(10, Result.SUCCESS)));
+        Assert.assertFalse(policy.isSampled(mockRun(11, Result.SUCCESS)));
+        Assert.assertEquals(5, policy.getEffectiveRate(mockRun(10, Result.SUCCESS)));
+    }
+
+    @Test
+    public void testNonSuccessfulBuildsAreAlwaysSampled() {
+        SamplingPolicy policy = new SamplingPolicy(7, true);
+        Assert.assertFalse(policy.isSampled(mockRun(10, Result.SUCCESS)));
+        Assert.assertTrue(policy.isSampled(mockRun(11, Result.FAILURE)));
+        Assert.assertEquals(1, policy.getEffectiveRate(mockRun(11, Result.FAILURE)));
+
+        Assert.assertFalse(new SamplingPolicy(5, false).isSampled(mockRun(11, Result.FAILURE)));
+    }
+
+    @Test
+    public void testInnermostFolderPolicyIsUsed() {
+        String policies = "team=10\nteam/prod/=1\ninvalid\nteam/pr=abc";
+        Assert.assertEquals(10, SamplingPolicy.forFolder(policies, "team/pr-job").getRate());
+        Assert.assertEquals(1, SamplingPolicy.forFolder(policies, "team/prod/deploy").getRate());
+        Assert.assertSame(SamplingPolicy.ALL, SamplingPolicy.forFolder(policies, "other/job"));
+        Assert.assertSame(SamplingPolicy.ALL, SamplingPolicy.forFolder("", "team/job"));
+    }
+
+    @Test
+    public void testRatesBelowOneAreRejected() {
+        Assert.assertEquals(1, new SamplingPolicy(0, true).getRate());
+        Assert.assertEquals(1, new SamplingPolicy(-5, false).getRate());
+        Assert.assertEquals(10, SamplingPolicy.forFolder("team=10\nteam/prod=0", "team/prod/job").getRate());
+
+        Assert.assertNull(SamplingPolicy.validate("team=10\n\nteam/prod/=1"));
+        Assert.assertNotNull(SamplingPolicy.validate("team=0"));
+        Assert.assertNotNull(SamplingPolicy.validate("team=-1"));
+        Assert.assertNotNull(SamplingPolicy.validate("team=abc"));
+        Assert.assertNotNull(SamplingPolicy.validate("team"));
+    }
+
+    private Run mockRun(int number, Result result) {
+        Run run = mock(Run.class);
+        when(run.getNumber()).thenReturn(number);
+        when(run.getResult()).thenReturn(result);
+        return run;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StageWaitTimesTest {
+
+    @Test
+    public void testWaitingIsAttributedToAllEnclosingStages() {
+        StageWaitTimes waitTimes = new StageWaitTimes();
+        waitTimes.record(Arrays.asList("inner", "outer"), StageWaitTimes.Reason.EXECUTOR, 300);
+        waitTimes.record(Collections.singletonList("outer"), StageWaitTimes.Reason.INPUT, 200);
+
+        StageWaitTimes.Breakdown inner = waitTimes.remove("inner", 1000);
+        Assert.assertEquals(300, inner.getWaiting(StageWaitTimes.Reason.EXECUTOR));
+        Assert.assertEquals(0, inner.getWaiting(StageWaitTimes.Reason.INPUT));
+        Assert.assertEquals(300, inner.getWaiting());
+        Assert.assertEquals(700, inner.getActive());
+
+        StageWaitTimes.Breakdown outer = waitTimes.remove("outer", 2000);
+        Assert.assertEquals(500, outer.getWaiting());
+        Assert.assertEquals(1500, outer.getActive());
+    }
+
+    @Test
+    public void testOverlappingWaitsAreCappedAtTheStageDuration() {
+        StageWaitTimes waitTimes = new StageWaitTimes();
+        waitTimes.record(Collections.singletonList("stage"), StageWaitTimes.Reason.EXECUTOR, 800);
+        waitTimes.record(Collections.singletonList("stage"), StageWaitTimes.Reason.EXECUTOR, 700);
+
+        StageWaitTimes.Breakdown breakdown = waitTimes.remove("stage", 1000);
+        Assert.assertEquals(1500, breakdown.getWaiting(StageWaitTimes.Reason.EXECUTOR));
+        Assert.assertEquals(1000, breakdown.getWaiting());
+        Assert.assertEquals(0, breakdown.getActive());
+    }
+
+    @Test
+    public void testStageWithoutWaiting() {
+        StageWaitTimes.Breakdown breakdown = new StageWaitTimes().remove("stage", 1000);
+        Assert.assertEquals(0, breakdown.getWaiting());
+        Assert.assertEquals(1000, breakdown.getActive());
+    }
+}
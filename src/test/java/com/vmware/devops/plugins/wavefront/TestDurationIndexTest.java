@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestDurationIndexTest {
+    private static final int TOLERANCE = 20;
+    private static final int REFRESH_BUILDS = 3;
+
+    @Test
+    public void testOnlyChangedDurationsAreSent() throws IOException {
+        File jobDir = Files.createTempDirectory("wavefront").toFile();
+        TestDurationIndex index = TestDurationIndex.load(jobDir, TOLERANCE, REFRESH_BUILDS);
+        Assert.assertTrue(index.isRefresh());
+        Assert.assertTrue(index.isChanged("a.Test.stable", 1000));
+        Assert.assertTrue(index.isChanged("a.Test.slower", 1000));
+        Assert.assertTrue(index.isChanged("a.Test.fast", 1));
+        index.save(jobDir);
+
+        index = TestDurationIndex.load(jobDir, TOLERANCE, REFRESH_BUILDS);
+        Assert.assertFalse(index.isRefresh());
+        Assert.assertFalse(index.isChanged("a.Test.stable", 1100));
+        Assert.assertTrue(index.isChanged("a.Test.slower", 1500));
+        Assert.assertFalse(index.isChanged("a.Test.fast", 9));
+        Assert.assertTrue(index.isChanged("a.Test.added", 10));
+        index.save(jobDir);
+
+        index = TestDurationIndex.load(jobDir, TOLERANCE, REFRESH_BUILDS);
+        // compared with the last sent duration, so slow drifts are sent eventually
+        Assert.assertTrue(index.isChanged("a.Test.stable", 1250));
+        Assert.assertFalse(index.isChanged("a.Test.slower", 1500));
+        index.save(jobDir);
+
+        index = TestDurationIndex.load(jobDir, TOLERANCE, REFRESH_BUILDS);
+        Assert.assertTrue(index.isRefresh());
+        Assert.assertTrue(index.isChanged("a.Test.slower", 1500));
+    }
+
+    @Test
+    public void testRemovedTestsAreForgotten() throws IOException {
+        File jobDir = Files.createTempDirectory("wavefront").toFile();
+        TestDurationIndex index = TestDurationIndex.load(jobDir, TOLERANCE, REFRESH_BUILDS);
+        index.isChanged("a.Test.removed", 1000);
+        index.isChanged("a.Test.kept", 1000);
+        index.save(jobDir);
+
+        index = TestDurationIndex.load(jobDir, TOLERANCE, REFRESH_BUILDS);
+        index.isChanged("a.Test.kept", 1000);
+        index.save(jobDir);
+
+        index = TestDurationIndex.load(jobDir, TOLERANCE, REFRESH_BUILDS);
+        Assert.assertTrue(index.isChanged("a.Test.removed", 1000));
+        Assert.assertFalse(index.isChanged("a.Test.kept", 1000));
+    }
+
+    @Test
+    public void testSaveLeavesOnlyTheIndex() throws IOException {
+        File jobDir = Files.createTempDirectory("wavefront").toFile();
+        TestDurationIndex first = TestDurationIndex.load(jobDir, TOLERANCE, REFRESH_BUILDS);
+        TestDurationIndex second = TestDurationIndex.load(jobDir, TOLERANCE, REFRESH_BUILDS);
+        first.isChanged("a.Test.first", 1000);
+        second.isChanged("a.Test.second", 1000);
+        first.save(jobDir);
+        second.save(jobDir);
+        Assert.assertArrayEquals(new String[]{TestDurationIndex.FILE_NAME}, jobDir.list());
+    }
+
+    @Test
+    public void testComparingAgainRecordsTheSameDecision() throws IOException {
+        File jobDir = Files.createTempDirectory("wavefront").toFile();
+        TestDurationIndex index = TestDurationIndex.load(jobDir, TOLERANCE, REFRESH_BUILDS);
+        index.isChanged("a.Test.stable", 1000);
+        index.isChanged("a.Test.slower", 1000);
+        index.save(jobDir);
+
+        // a junit step sends its tests while the build runs
+        TestDurationIndex step = TestDurationIndex.load(jobDir, TOLERANCE, REFRESH_BUILDS);
+        Assert.assertFalse(step.isChanged("a.Test.stable", 1100));
+        Assert.assertTrue(step.isChanged("a.Test.slower", 1500));
+
+        // the build compares them again when it completes
+        index = TestDurationIndex.load(jobDir, TOLERANCE, REFRESH_BUILDS);
+        Assert.assertFalse(index.isChanged("a.Test.stable", 1100));
+        Assert.assertTrue(index.isChanged("a.Test.slower", 1500));
+        index.save(jobDir);
+
+        index = TestDurationIndex.load(jobDir, TOLERANCE, REFRESH_BUILDS);
+        Assert.assertTrue(index.isChanged("a.Test.stable", 1250));
+        Assert.assertFalse(index.isChanged("a.Test.slower", 1600));
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestHistoryTest {
+    private static final int WINDOW = 10;
+    private static final int TOP = 2;
+
+    @Test
+    public void testFlakiness() {
+        Assert.assertEquals(0, TestHistory.getFlakiness(0b11, 0b01), 0);
+        // broken once and still failing
+        Assert.assertEquals(0, TestHistory.getFlakiness(0b1111, 0b0011), 0);
+        // pass, fail, pass, fail from the oldest run
+        Assert.assertEquals(1, TestHistory.getFlakiness(0b1111, 0b0101), 0);
+        // builds which didn't run the test are skipped
+        Assert.assertEquals(2.0 / 3, TestHistory.getFlakiness(0b11011, 0b01000), 0.0001);
+    }
+
+    @Test
+    public void testFlakyTestsOverBuilds() throws IOException {
+        File jobDir = Files.createTempDirectory("wavefront").toFile();
+        for (int build = 0; build < 6; build++) {
+            TestHistory history = TestHistory.load(jobDir, WINDOW, TOP);
+            history.record("a.Test.flaky", 100, build % 2 == 0);
+            history.record("a.Test.sometimes", 100, build == 3);
+            history.record("a.Test.broken", 100, build >= 3);
+            history.record("a.Test.stable", 100, false);
+            history.save(jobDir);
+            if (build == 5) {
+                Assert.assertEquals(2, history.getFlakyCount());
+                List<TestHistory.FlakyTest> top = history.getTopFlakyTests();
+                Assert.assertEquals(2, top.size());
+                Assert.assertEquals("a.Test.flaky", top.get(0).getName());
+                Assert.assertEquals(1, top.get(0).getScore(), 0);
+                Assert.assertEquals(3, top.get(0).getFailures());
+                Assert.assertEquals(6, top.get(0).getRuns());
+                Assert.assertEquals("a.Test.sometimes", top.get(1).getName());
+                Assert.assertEquals(0.4, top.get(1).getScore(), 0.0001);
+            }
+        }
+    }
+
+    @Test
+    public void testNewlySlowTests() throws IOException {
+        File jobDir = Files.createTempDirectory("wavefront").toFile();
+        int[] newlySlow = new int[8];
+        for (int build = 0; build < newlySlow.length; build++) {
+            TestHistory history = TestHistory.load(jobDir, WINDOW, TOP);
+            history.record("a.Test.slower", build >= 5 ? 1000 : 200, false);
+            history.record("a.Test.fast", build >= 5 ? 50 : 10, false);
+            history.save(jobDir);
+            newlySlow[build] = history.getNewlySlowCount();
+        }
+        Assert.assertArrayEquals(new int[] {0, 0, 0, 0, 0, 1, 0, 0}, newlySlow);
+    }
+
+    @Test
+    public void testWindowDropsTestsWhichStoppedRunning() throws IOException {
+        File jobDir = Files.createTempDirectory("wavefront").toFile();
+        TestHistory history = TestHistory.load(jobDir, 3, TOP);
+        history.record("a.Test.removed", 100, false);
+        history.save(jobDir);
+        long size = new File(jobDir, TestHistory.FILE_NAME).length();
+        for (int build = 0; build < 3; build++) {
+            TestHistory.load(jobDir, 3, TOP).save(jobDir);
+        }
+        Assert.assertTrue(new File(jobDir, TestHistory.FILE_NAME).length() < size);
+    }
+
+    @Test
+    public void testNewTestIsRecordedOncePerBuild() throws IOException {
+        File onceDir = Files.createTempDirectory("wavefront").toFile();
+        TestHistory history = TestHistory.load(onceDir, WINDOW, TOP);
+        history.record("a.Test.added", 100, false);
+        history.save(onceDir);
+
+        File twiceDir = Files.createTempDirectory("wavefront").toFile();
+        history = TestHistory.load(twiceDir, WINDOW, TOP);
+        history.record("a.Test.added", 100, false);
+        history.record("a.Test.added", 100, true);
+        history.save(twiceDir);
+        Assert.assertArrayEquals(new String[]{TestHistory.FILE_NAME}, twiceDir.list());
+        Assert.assertArrayEquals(Files.readAllBytes(new File(onceDir, TestHistory.FILE_NAME).toPath()),
+                Files.readAllBytes(new File(twiceDir, TestHistory.FILE_NAME).toPath()));
+    }
+}
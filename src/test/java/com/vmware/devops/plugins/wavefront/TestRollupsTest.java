@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestRollupsTest {
+
+    private static Map<String, TestRollups.Rollup> byName(Iterable<TestRollups.Rollup> rollups) {
+        Map<String, TestRollups.Rollup> result = new HashMap<>();
+        for (TestRollups.Rollup rollup : rollups) {
+            result.put(rollup.getName(), rollup);
+        }
+        return result;
+    }
+
+    @Test
+    public void testRollupsOfPackagesAndClasses() {
+        TestRollups rollups = new TestRollups(2);
+        rollups.add("com.example.api.ClientTest", 100, false);
+        rollups.add("com.example.api.ClientTest", 300, true);
+        rollups.add("com.example.ServerTest", 50, false);
+        rollups.add("org.other.OtherTest", 10, false);
+
+        Map<String, TestRollups.Rollup> packages = byName(rollups.getPackages());
+        Assert.assertEquals(4, packages.size());
+        TestRollups.Rollup com = packages.get("com");
+        Assert.assertEquals(3, com.getCount());
+        Assert.assertEquals(1, com.getFailCount());
+        Assert.assertEquals(450, com.getDuration(), 0);
+        Assert.assertEquals(300, com.getMaxDuration(), 0);
+        Assert.assertEquals(3, packages.get("com.example").getCount());
+        Assert.assertEquals(1, packages.get("org.other").getCount());
+        // deeper than the depth
+        Assert.assertNull(packages.get("com.example.api"));
+
+        Map<String, TestRollups.Rollup> classes = byName(rollups.getClasses());
+        Assert.assertEquals(3, classes.size());
+        Assert.assertEquals(2, classes.get("com.example.api.ClientTest").getCount());
+        Assert.assertEquals(400, classes.get("com.example.api.ClientTest").getDuration(), 0);
+    }
+
+    @Test
+    public void testClassesWithoutPackage() {
+        TestRollups rollups = new TestRollups(3);
+        rollups.add("DefaultPackageTest", 10, false);
+        rollups.add("a.ShallowTest", 10, true);
+
+        Map<String, TestRollups.Rollup> packages = byName(rollups.getPackages());
+        Assert.assertEquals(1, packages.size());
+        Assert.assertEquals(1, packages.get("a").getFailCount());
+        Assert.assertEquals(2, byName(rollups.getClasses()).size());
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TimerDistributionsTest {
+
+    @Test
+    public void testValuesAreFoldedPerTimerAndTags() {
+        TimerDistributions distributions = new TimerDistributions();
+        Map<String, String> tags = Collections.singletonMap("Job Name", "job");
+        for (int i = 0; i < 1000; i++) {
+            distributions.record("job#1", "step.loop", tags, 10 + (i % 2) * 0.01);
+        }
+        distributions.record("job#1", "step.other", tags, 250);
+
+        List<TimerDistributions.Entry> entries = distributions.drain("job#1");
+        Assert.assertEquals(2, entries.size());
+        for (TimerDistributions.Entry entry : entries) {
+            if (entry.getMetricName().equals("step.loop")) {
+                Assert.assertArrayEquals(new double[]{10}, entry.getValues(), 0);
+                Assert.assertArrayEquals(new int[]{1000}, entry.getCounts());
+            } else {
+                Assert.assertArrayEquals(new double[]{250}, entry.getValues(), 0);
+            }
+        }
+        Assert.assertTrue(distributions.drain("job#1").isEmpty());
+    }
+
+    @Test
+    public void testRoundingKeepsThreeSignificantDigits() {
+        Assert.assertEquals(1230, TimerDistributions.round(1234), 0);
+        Assert.assertEquals(1240, TimerDistributions.round(1236), 0);
+        Assert.assertEquals(0.0571, TimerDistributions.round(0.05712), 1e-12);
+        Assert.assertEquals(0, TimerDistributions.round(0), 0);
+    }
+}
@@ -31,14 +31,21 @@ import static org.mockito.Mockito.when;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -60,6 +67,7 @@ import hudson.plugins.jacoco.JacocoBuildAction;
 import hudson.plugins.jacoco.JacocoHealthReportThresholds;
 import hudson.plugins.jacoco.model.Coverage;
 import hudson.tasks.junit.CaseResult;
+import hudson.tasks.junit.SuiteResult;
 import hudson.tasks.junit.TestResult;
 import hudson.tasks.junit.TestResultAction;
 
@@ -124,7 +132,7 @@ public class WavefrontBuildListenerTest {
                 jobMetricPrefix + ".test_pipeline.parallel.thread-2",
                 jobMetricPrefix + ".test_pipeline.stage.last_stage",
                 jobMetricPrefix + ".step.metricname1",
-                jobMetricPrefix + ".step.metricname2"
+                jobMetricPrefix + ".step.metricname1.metricname2"
 
         ));
 
@@ -163,6 +171,211 @@ public class WavefrontBuildListenerTest {
     }
 
 
+    @Test
+    public void testStageWaitingTime() throws Exception {
+        WorkflowJob job = jenkinsRule.createProject(WorkflowJob.class, "Test Pipeline");
+        job.setDefinition(new CpsFlowDefinition("stage(\"Wait\") {\n" +
+                "   node {\n" +
+                "       sleep(time: 1, unit: \"SECONDS\")\n" +
+                "   }\n" +
+                "}", true));
+
+        jenkinsRule.buildAndAssertSuccess(job);
+        List<String> messages = proxy.terminate();
+        String stage = "\"" + jobMetricPrefix + ".test_pipeline.stage.wait";
+        boolean active = false;
+        double sleep = 0;
+        for (String message : messages) {
+            if (message == null) {
+                continue;
+            }
+            if (message.startsWith(stage + ".active\" ")) {
+                active = true;
+            } else if (message.startsWith(stage + ".waiting.sleep\" ")) {
+                sleep = Double.parseDouble(message.split(" ")[1]);
+            }
+        }
+        Assert.assertTrue("The active time is missing: " + messages, active);
+        Assert.assertTrue("The sleep time is missing: " + messages, sleep >= 1000);
+    }
+
+    @Test
+    public void testStepTypeDistributions() throws Exception {
+        WavefrontManagement.get().setEnableStepTypeMetrics(true);
+        WavefrontManagement.get().setSlowStepThreshold(0);
+        WorkflowJob job = jenkinsRule.createProject(WorkflowJob.class, "Test Pipeline");
+        job.setDefinition(new CpsFlowDefinition("stage(\"Build\") {\n" +
+                "   echo \"first\"\n" +
+                "   echo \"second\"\n" +
+                "}", true));
+
+        jenkinsRule.buildAndAssertSuccess(job);
+        List<String> messages = proxy.terminate();
+        String metricName = jobMetricPrefix + ".test_pipeline.step-type.echo";
+        boolean distribution = false;
+        boolean slowStep = false;
+        for (String message : messages) {
+            if (message == null || !message.contains("\"Stage-Name\"=\"build\"")) {
+                continue;
+            }
+            if (message.startsWith("!M") && message.contains("\"" + metricName + "\"")) {
+                distribution = true;
+            } else if (message.startsWith("\"" + jobMetricPrefix + ".test_pipeline.slow-step.echo\"")) {
+                slowStep = true;
+            }
+        }
+        Assert.assertTrue("The step type distribution is missing: " + messages, distribution);
+        Assert.assertTrue("The slow step is missing: " + messages, slowStep);
+    }
+
+    @Test
+    public void testCpsOverheadMetrics() throws Exception {
+        WorkflowJob job = jenkinsRule.createProject(WorkflowJob.class, "Test Pipeline");
+        job.setDefinition(new CpsFlowDefinition("stage(\"Build\") {\n" +
+                "   echo \"hello\"\n" +
+                "}", true));
+
+        jenkinsRule.buildAndAssertSuccess(job);
+        List<String> messages = proxy.terminate();
+        String prefix = "\"" + jobMetricPrefix + ".test_pipeline.cps.";
+        double flowNodes = 0;
+        boolean storageSize = false;
+        for (String message : messages) {
+            if (message == null || !message.contains("\"Durability\"=")) {
+                continue;
+            }
+            if (message.startsWith(prefix + "flow-nodes\" ")) {
+                flowNodes = Double.parseDouble(message.split(" ")[1]);
+            } else if (message.startsWith(prefix + "storage-size\" ")) {
+                storageSize = true;
+            }
+        }
+        Assert.assertTrue("The flow node count is missing: " + messages, flowNodes >= 5);
+        Assert.assertTrue("The storage size is missing: " + messages, storageSize);
+    }
+
+    @Test
+    public void testIncrementalTestMetrics() throws Exception {
+        WavefrontManagement.get().setEnableSendingJunitReportDataForAllJobs(true);
+        WavefrontManagement.get().setEnableIncrementalTestMetrics(true);
+        WorkflowJob job = jenkinsRule.createProject(WorkflowJob.class, "Test Pipeline");
+        for (String testName : Arrays.asList("first", "second")) {
+            jenkinsRule.jenkins.getWorkspaceFor(job).child("TEST-" + testName + ".xml").write(
+                    "<testsuite name=\"a.Test\"><testcase classname=\"a.Test\" name=\"" + testName
+                            + "\" time=\"1\"/></testsuite>", "UTF-8");
+        }
+        job.setDefinition(new CpsFlowDefinition("node {\n" +
+                "   junit 'TEST-first.xml'\n" +
+                "   junit 'TEST-second.xml'\n" +
+                "}", true));
+
+        WorkflowRun run = jenkinsRule.buildAndAssertSuccess(job);
+        List<String> messages = proxy.terminate();
+        String prefix = "\"" + jobMetricPrefix + ".junit.a.test.";
+        Map<String, Integer> counts = new HashMap<>();
+        for (String message : messages) {
+            if (message != null && message.startsWith(prefix) && message.contains("\"Test-Status\"=\"Passed\"")) {
+                counts.merge(message.substring(prefix.length(), message.indexOf('"', prefix.length())), 1,
+                        Integer::sum);
+            }
+        }
+        // each test is sent once, when its junit step ends or when the build completes
+        Assert.assertEquals(messages.toString(), 1, (int) counts.getOrDefault("first", 0));
+        Assert.assertEquals(messages.toString(), 1, (int) counts.getOrDefault("second", 0));
+        Assert.assertEquals(2, run.getAction(TestResultAction.class).getTotalCount());
+    }
+
+    @Test
+    public void testSendingPipelineTrace() throws Exception {
+        Entry<MockWavefrontProxy, Integer> tracingProxy = MockWavefrontProxy.initMockedWavefrontProxy(MIN_PORT_NUMBER,
+                MAX_PORT_NUMBER);
+        WavefrontManagement.get().setTracingPort(tracingProxy.getValue());
+        WavefrontManagement.get().setEnableSendingTraces(true);
+        WavefrontManagement.get().setEnableSendingStepSpans(true);
+        WavefrontMonitor.getInstance().setWavefrontSenderClosed(true);
+
+        WorkflowJob job = jenkinsRule.createProject(WorkflowJob.class, "Test Pipeline");
+        job.setDefinition(new CpsFlowDefinition("node {\n" +
+                "   stage(\"Build\") {\n" +
+                "       parallel(\n" +
+                "           \"Thread-1\": { echo \"hello\" },\n" +
+                "           \"Thread-2\": {})\n" +
+                "   }\n" +
+                "}", true));
+
+        WorkflowRun run = jenkinsRule.buildAndAssertSuccess(job);
+        proxy.terminate();
+        List<String> messages = tracingProxy.getKey().terminate();
+        Pattern span = Pattern.compile("^\"([^\"]+)\" .*spanId=(\\S+)(?: parent=(\\S+))?");
+        Map<String, String> spanIds = new HashMap<>();
+        Map<String, String> parentIds = new HashMap<>();
+        for (String message : messages) {
+            Matcher matcher = message == null ? null : span.matcher(message);
+            if (matcher != null && matcher.find()) {
+                spanIds.put(matcher.group(1), matcher.group(2));
+                parentIds.put(matcher.group(1), matcher.group(3));
+            }
+        }
+        UUID rootSpanId = TraceBuilder.spanId(run.getExternalizableId(), null);
+        Assert.assertEquals(rootSpanId.toString(), spanIds.get("test_pipeline"));
+        Assert.assertNull(parentIds.get("test_pipeline"));
+        Assert.assertEquals(rootSpanId.toString(), parentIds.get("Build"));
+        Assert.assertEquals(spanIds.get("Build"), parentIds.get("Thread-1"));
+        Assert.assertEquals(spanIds.get("Build"), parentIds.get("Thread-2"));
+        Assert.assertEquals(spanIds.get("Thread-1"), parentIds.get("echo"));
+    }
+
+    @Test
+    public void testTimedCallDistribution() throws Exception {
+        WorkflowJob job = jenkinsRule.createProject(WorkflowJob.class, "Test Pipeline");
+        job.setDefinition(new CpsFlowDefinition("node {\n" +
+                "  for (int i = 0; i < 5; i++) {\n" +
+                "    wavefrontTimedCall(metricName: \"loop\", tags: \"kind=unit\", distribution: true) {\n" +
+                "    }\n" +
+                "  }\n" +
+                "}", true));
+
+        jenkinsRule.buildAndAssertSuccess(job);
+        List<String> messages = proxy.terminate();
+        boolean found = false;
+        for (String message : messages) {
+            if (message.startsWith("!M") && message.contains("\"" + jobMetricPrefix + ".step.loop\"")
+                    && message.contains("\"kind\"=\"unit\"")) {
+                found = true;
+            }
+        }
+        Assert.assertTrue("The timer distribution is missing: " + messages, found);
+    }
+
+    @Test
+    public void testCustomMetricSteps() throws Exception {
+        WorkflowJob job = jenkinsRule.createProject(WorkflowJob.class, "Test Pipeline");
+        job.setDefinition(new CpsFlowDefinition("node {\n" +
+                "  wavefrontGauge(name: \"artifact.size\", value: 1234, tags: \"kind=jar\")\n" +
+                "  wavefrontCounter(name: \"cache.hits\", value: 3)\n" +
+                "  wavefrontSendMetrics(metrics: [\"benchmark.score=97.5\", \"invalid\"])\n" +
+                "}", true));
+
+        jenkinsRule.buildAndAssertSuccess(job);
+        List<String> messages = proxy.terminate();
+        boolean gauge = false;
+        boolean counter = false;
+        boolean batch = false;
+        for (String message : messages) {
+            if (message.startsWith("\"" + jobMetricPrefix + ".custom.artifact.size\" 1234.0")
+                    && message.contains("\"kind\"=\"jar\"")) {
+                gauge = true;
+            } else if (message.startsWith("\"\u2206" + jobMetricPrefix + ".custom.cache.hits\" 3.0")) {
+                counter = true;
+            } else if (message.startsWith("\"" + jobMetricPrefix + ".custom.benchmark.score\" 97.5")) {
+                batch = true;
+            }
+        }
+        Assert.assertTrue("The gauge is missing: " + messages, gauge);
+        Assert.assertTrue("The counter is missing: " + messages, counter);
+        Assert.assertTrue("The batched metric is missing: " + messages, batch);
+    }
+
     @Test
     public void testSendingSpecificJobParametersToWavefront() throws Exception {
         List<String> expected = new ArrayList<>(Arrays.asList(
@@ -329,7 +542,7 @@ public class WavefrontBuildListenerTest {
 
         TestResultAction action = mock(TestResultAction.class);
         when(action.getResult()).thenReturn(actionResult);
-        when(actionResult.getFailedTests()).thenReturn(failedTests);
+        doReturn(mockSuites(failedTests)).when(actionResult).getSuites();
         when(action.getSkipCount()).thenReturn(10);
         when(action.getFailCount()).thenReturn(10);
         when(action.getTotalCount()).thenReturn(100);
@@ -357,8 +570,10 @@ public class WavefrontBuildListenerTest {
         ));
         TestResult actionResult = mock(TestResult.class);
         when(actionResult.getDuration()).thenReturn(14f);
-        doReturn(mockTestResults("test.java.com.vmware.devops.wavefront.testingSendingMetricsSkippedTest", 7f)).when(actionResult).getSkippedTests();
-        doReturn(mockTestResults("test.java.com.vmware.devops.wavefront.testingSendingMetricsPassedTest", 7f)).when(actionResult).getPassedTests();
+        List<CaseResult> tests = new ArrayList<>();
+        tests.add(mockTestResult("test.java.com.vmware.devops.wavefront.testingSendingMetricsSkippedTest", 7f, true));
+        tests.add(mockTestResult("test.java.com.vmware.devops.wavefront.testingSendingMetricsPassedTest", 7f, false));
+        doReturn(mockSuites(tests)).when(actionResult).getSuites();
 
         List<CaseResult> failedTests = new ArrayList<>();
         TestResultAction action = mock(TestResultAction.class);
@@ -475,13 +690,19 @@ public class WavefrontBuildListenerTest {
         return failedTests;
     }
 
-    private List<hudson.tasks.test.TestResult> mockTestResults(String testName, float testDuration) {
-        List<hudson.tasks.test.TestResult> tests = new ArrayList<>();
-        hudson.tasks.test.TestResult result = mock(hudson.tasks.test.TestResult.class);
+    private CaseResult mockTestResult(String testName, float testDuration, boolean skipped) {
+        CaseResult result = mock(CaseResult.class);
         when(result.getFullDisplayName()).thenReturn(testName);
         when(result.getDuration()).thenReturn(testDuration);
-        tests.add(result);
-        return tests;
+        when(result.isSkipped()).thenReturn(skipped);
+        when(result.isPassed()).thenReturn(!skipped);
+        return result;
+    }
+
+    private List<SuiteResult> mockSuites(List<CaseResult> cases) {
+        SuiteResult suite = mock(SuiteResult.class);
+        when(suite.getCases()).thenReturn(cases);
+        return Collections.singletonList(suite);
     }
 
     private Run getRun() {
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront.sink;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FileReplayerTest {
+
+    @Test
+    public void testCancelStopsReplayToUnresponsiveProxy() throws Exception {
+        File file = File.createTempFile("metrics", ".wf");
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            for (int i = 0; i < 500000; i++) {
+                writer.write("wjp.metric " + i + " source=localhost\n");
+            }
+        }
+        // accepts the connection but never reads, so the socket buffers fill up and the writes block
+        try (ServerSocket proxy = new ServerSocket(0);
+             Socket ignored = startReplay(file, proxy)) {
+            FileReplayer replay = FileReplayer.getCurrent();
+            Thread.sleep(500);
+            Assert.assertFalse(replay.isFinished());
+
+            replay.cancel();
+            long deadline = System.currentTimeMillis() + 10000;
+            while (!replay.isFinished() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            Assert.assertTrue(replay.isFinished());
+            Assert.assertTrue(replay.isCancelled());
+            Assert.assertNull(replay.getError());
+            Assert.assertTrue(file.exists());
+        } finally {
+            Files.delete(file.toPath());
+        }
+    }
+
+    private static Socket startReplay(File file, ServerSocket proxy) throws IOException {
+        Assert.assertTrue(FileReplayer.start(Collections.singletonList(file), "localhost", proxy.getLocalPort(),
+                1e9, true));
+        return proxy.accept();
+    }
+}
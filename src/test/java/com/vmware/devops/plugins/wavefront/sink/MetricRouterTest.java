@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront.sink;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetricRouterTest {
+
+    @Test
+    public void testFullQueueDoesNotBlockPublishing() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        TestSink sink = new TestSink(10, release);
+        MetricRouter router = new MetricRouter();
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 2000; i++) {
+            router.publish(MetricPoint.metric("metric", i, 1000L, "host", null), Collections.singletonList(sink));
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+
+        MetricRouter.SinkQueue queue = router.getQueue(sink);
+        Assert.assertTrue(queue.getDropped() >= 2000 - 10 - MetricRouter.BATCH_SIZE);
+        Assert.assertEquals(0, queue.getSpilled());
+        release.countDown();
+        Assert.assertTrue(sink.awaitPoints(2000 - (int) queue.getDropped()));
+    }
+
+    @Test
+    public void testSlowSinkDoesNotHoldUpOthers() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        TestSink slow = new TestSink(2, release);
+        TestSink fast = new TestSink(100, null);
+        MetricRouter router = new MetricRouter();
+
+        for (int i = 0; i < 20; i++) {
+            router.publish(MetricPoint.metric("metric", i, 1000L, "host", null), Arrays.asList(slow, fast));
+        }
+
+        Assert.assertTrue(fast.awaitPoints(20));
+        Assert.assertTrue(router.getQueue(slow).getDropped() > 0);
+        Assert.assertEquals(0, router.getQueue(fast).getDropped());
+        release.countDown();
+        Assert.assertTrue(slow.awaitPoints(20 - (int) router.getQueue(slow).getDropped()));
+    }
+
+    @Test
+    public void testPointIsSharedAcrossSinks() throws Exception {
+        TestSink first = new TestSink(10, null);
+        TestSink second = new TestSink(10, null);
+        MetricPoint point = MetricPoint.metric("metric", 1, 1000L, "host", null);
+        new MetricRouter().publish(point, Arrays.asList(first, second));
+
+        Assert.assertTrue(first.awaitPoints(1));
+        Assert.assertTrue(second.awaitPoints(1));
+        Assert.assertSame(first.getPoints().get(0).getLine(), second.getPoints().get(0).getLine());
+    }
+
+    @Test
+    public void testDisabledSinkIsSkipped() {
+        TestSink disabled = new TestSink(10, null) {
+            @Override
+            public boolean isEnabled() {
+                return false;
+            }
+        };
+        MetricRouter router = new MetricRouter();
+        router.publish(MetricPoint.metric("metric", 1, 1000L, "host", null), Collections.singletonList(disabled));
+        Assert.assertTrue(router.getQueues().isEmpty());
+    }
+
+    @Test
+    public void testShutdownDrainsWithinTimeout() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        TestSink slow = new TestSink(100, release);
+        TestSink fast = new TestSink(100, null);
+        MetricRouter router = new MetricRouter();
+        for (int i = 0; i < 5; i++) {
+            router.publish(MetricPoint.metric("metric", i, 1000L, "host", null), Arrays.asList(slow, fast));
+        }
+
+        long start = System.currentTimeMillis();
+        router.shutdown(500);
+        Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+        Assert.assertEquals(5, fast.getPoints().size());
+        Assert.assertTrue(fast.isClosed());
+
+        router.publish(MetricPoint.metric("metric", 1, 1000L, "host", null), Collections.singletonList(fast));
+        Assert.assertEquals(5, fast.getPoints().size());
+        release.countDown();
+    }
+
+    @Test
+    public void testBatchInFlightIsReturnedAtDeadline() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        TestSink blocked = new TestSink(100, release);
+        MetricRouter router = new MetricRouter();
+        for (int i = 0; i < 5; i++) {
+            router.publish(MetricPoint.metric("metric", i, 1000L, "host", null), Collections.singletonList(blocked));
+        }
+        MetricRouter.SinkQueue queue = router.getQueue(blocked);
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (queue.getQueued() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        queue.stop();
+        List<MetricPoint> left = queue.awaitDrained(System.currentTimeMillis() + 200);
+        Assert.assertEquals(5, left.size());
+        release.countDown();
+    }
+
+    private static class TestSink extends MetricSink {
+        private final int capacity;
+        private final CountDownLatch release;
+        private final List<MetricPoint> points = new ArrayList<>();
+        private volatile boolean closed;
+
+        TestSink(int capacity, CountDownLatch release) {
+            this.capacity = capacity;
+            this.release = release;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "test";
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return true;
+        }
+
+        @Override
+        public int getQueueCapacity() {
+            return capacity;
+        }
+
+        @Override
+        public void write(List<MetricPoint> batch) {
+            if (release != null) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            synchronized (this) {
+                points.addAll(batch);
+                notifyAll();
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        boolean isClosed() {
+            return closed;
+        }
+
+        synchronized List<MetricPoint> getPoints() {
+            return new ArrayList<>(points);
+        }
+
+        synchronized boolean awaitPoints(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+            while (points.size() < count && System.currentTimeMillis() < deadline) {
+                wait(100);
+            }
+            return points.size() >= count;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LineProtocolTest {
+
+    @Test
+    public void testMetricLine() {
+        Map<String, String> tags = new LinkedHashMap<>();
+        tags.put("Build Number", "12");
+        tags.put("Status", "SUCCESS");
+        Assert.assertEquals("\"wjp.job.my-job\" 42.0 1000 source=\"host\" \"Build-Number\"=\"12\" \"Status\"=\"SUCCESS\"",
+                LineProtocol.metricLine("wjp.job.my job", 42, 1000L, "host", tags));
+        Assert.assertEquals("\"wjp.system-cpu\" 0.5 source=\"host\"",
+                LineProtocol.metricLine("wjp.system-cpu", 0.5, null, "host", null));
+    }
+
+    @Test
+    public void testDeltaCounterLine() {
+        Assert.assertEquals("\"\u2206wjp.job.app.builds.count\" 3.0 source=\"host\"",
+                LineProtocol.deltaCounterLine("wjp.job.app.builds.count", 3, "host", null));
+        Assert.assertEquals("\"\u2206count\" 1.0 source=\"host\"",
+                LineProtocol.deltaCounterLine("\u2206count", 1, "host", null));
+    }
+
+    @Test
+    public void testDistributionLine() {
+        Assert.assertEquals("!M 1000 #3 1.5 #1 20.0 \"wjp.job.step.loop\" source=\"host\"",
+                LineProtocol.distributionLine("wjp.job.step.loop", new double[]{1.5, 20}, new int[]{3, 1}, 1000L,
+                        "host", null));
+    }
+
+    @Test
+    public void testEventLine() {
+        Map<String, String> annotations = new LinkedHashMap<>();
+        annotations.put("severity", "warn");
+        annotations.put("details", "heap=\"95%\"");
+        Assert.assertEquals("@Event 1000 1001 \"Load shedding\" severity=\"warn\" details=\"heap=\\\"95%\\\"\" host=\"host\"",
+                LineProtocol.eventLine("Load shedding", 1000, 1001, "host", annotations));
+    }
+
+    @Test
+    public void testSpanLine() {
+        UUID traceId = UUID.fromString("00000000-0000-0000-0000-000000000001");
+        UUID spanId = UUID.fromString("00000000-0000-0000-0000-000000000002");
+        Map<String, String> tags = new LinkedHashMap<>();
+        tags.put("application", "Jenkins");
+        Assert.assertEquals("\"Stage: build\" source=\"host\" traceId=" + traceId + " spanId=" + spanId
+                        + " parent=" + traceId + " \"application\"=\"Jenkins\" 1000 250",
+                LineProtocol.spanLine("Stage: build", 1000, 250, "host", traceId, spanId, traceId, tags));
+        Assert.assertEquals("\"job\" source=\"host\" traceId=" + traceId + " spanId=" + spanId + " 1000 250",
+                LineProtocol.spanLine("job", 1000, 250, "host", traceId, spanId, null, null));
+    }
+
+    @Test
+    public void testEmptyTagValuesAreSkipped() {
+        Map<String, String> tags = new LinkedHashMap<>();
+        tags.put("p_empty", "");
+        Assert.assertEquals("\"name\" 1.0 source=\"host\"", LineProtocol.metricLine("name", 1, null, "host", tags));
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront.util;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LongDoubleMapTest {
+
+    @Test
+    public void testPutAndGet() {
+        LongDoubleMap map = new LongDoubleMap(0);
+        for (long key = 1; key <= 1000; key++) {
+            map.put(key * 31, key / 2.0);
+        }
+        map.put(31, 42);
+        Assert.assertEquals(1000, map.size());
+        Assert.assertEquals(42, map.get(31), 0);
+        Assert.assertEquals(500, map.get(31000), 0);
+        Assert.assertTrue(Double.isNaN(map.get(32)));
+    }
+
+    @Test
+    public void testKeys() {
+        LongDoubleMap map = new LongDoubleMap(2);
+        map.put(-5, 1);
+        map.put(Long.MAX_VALUE, 2);
+        map.put(7, 3);
+        long[] keys = map.keys();
+        Arrays.sort(keys);
+        Assert.assertArrayEquals(new long[] {-5, 7, Long.MAX_VALUE}, keys);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetricFilterTest {
+    private static final String RULES = "allow wjp.job.prod/*.stage.*\n"
+            + "deny *.stage.*\n"
+            + "deny regex:.*\\.jacoco\\..*\\.maximum\n"
+            + "deny wjp.job.junit.* Test-Status=Passed\n";
+
+    @Test
+    public void testFirstMatchingRuleWins() {
+        MetricFilter filter = MetricFilter.compile(RULES);
+        Assert.assertTrue(filter.isAllowed("wjp.job.prod/app.stage.build", null));
+        Assert.assertFalse(filter.isAllowed("wjp.job.dev/app.stage.build", null));
+        Assert.assertFalse(filter.isAllowed("wjp.job.app.jacoco.line-coverage.maximum", null));
+        Assert.assertTrue(filter.isAllowed("wjp.job.app.jacoco.line-coverage", null));
+        Assert.assertTrue(filter.isAllowed("wjp.job.app", null));
+    }
+
+    @Test
+    public void testTagConditions() {
+        MetricFilter filter = MetricFilter.compile(RULES);
+        Map<String, String> tags = new HashMap<>();
+        tags.put("Build Number", "1");
+        tags.put("Test Status", "Passed");
+        Assert.assertFalse(filter.isAllowed("wjp.job.junit.com.example.test", tags));
+        tags.put("Test Status", "Failed");
+        Assert.assertTrue(filter.isAllowed("wjp.job.junit.com.example.test", tags));
+    }
+
+    @Test
+    public void testCategories() {
+        MetricFilter filter = MetricFilter.compile(RULES);
+        Assert.assertFalse(filter.isCategoryAllowed("wjp.job.dev/app.stage."));
+        Assert.assertTrue(filter.isCategoryAllowed("wjp.job.prod/app.stage."));
+        Assert.assertTrue(filter.isCategoryAllowed("wjp.job.app.jacoco."));
+        // tag conditions never deny a whole category
+        Assert.assertTrue(filter.isCategoryAllowed("wjp.job.junit."));
+
+        MetricFilter combined = MetricFilter.compile("deny *.jacoco.*").and(filter);
+        Assert.assertFalse(combined.isCategoryAllowed("wjp.job.app.jacoco."));
+        Assert.assertFalse(combined.isAllowed("wjp.job.dev/app.stage.build", null));
+    }
+
+    @Test
+    public void testInvalidRules() {
+        Assert.assertNull(MetricFilter.validate(RULES));
+        Assert.assertNotNull(MetricFilter.validate("deny regex:(["));
+        Assert.assertNotNull(MetricFilter.validate("drop *"));
+        Assert.assertSame(MetricFilter.ALLOW_ALL, MetricFilter.compile("drop *"));
+    }
+
+    @Test
+    public void testGroupsOfRegexRules() {
+        MetricFilter filter = MetricFilter.compile("allow regex:(wjp)\\.(job)\\.keep.*\n"
+                + "deny regex:wjp\\.(?:job)\\..*\n"
+                + "deny regex:(?<=x)y");
+        Assert.assertTrue(filter.isAllowed("wjp.job.keep.this", null));
+        Assert.assertFalse(filter.isAllowed("wjp.job.drop.this", null));
+        Assert.assertTrue(filter.isAllowed("other", null));
+
+        Assert.assertNotNull(MetricFilter.validate("deny regex:(?<r0>a)"));
+        Assert.assertNotNull(MetricFilter.validate("deny regex:(a)\\1"));
+        Assert.assertNotNull(MetricFilter.validate("deny regex:(?<a>a)\\k<a>"));
+        Assert.assertNull(MetricFilter.validate("deny regex:a\\\\1"));
+        Assert.assertSame(MetricFilter.ALLOW_ALL, MetricFilter.compile("deny regex:(?<r0>a)"));
+    }
+
+    @Test
+    public void testNameRegexDoesNotMatchTags() {
+        MetricFilter filter = MetricFilter.compile("deny regex:wjp\\.job.*Passed\n"
+                + "deny wjp.other.* Test-Status=Failed");
+        Map<String, String> tags = new HashMap<>();
+        tags.put("Test Status", "Passed");
+        Assert.assertTrue(filter.isAllowed("wjp.job.test", tags));
+        Assert.assertFalse(filter.isAllowed("wjp.job.testPassed", tags));
+
+        tags.put("Test Status", "Passed\nTest-Status=Failed");
+        Assert.assertTrue(filter.isAllowed("wjp.other.test", tags));
+    }
+
+    @Test
+    public void testCategoriesOfRegexAlternations() {
+        MetricFilter filter = MetricFilter.compile("deny regex:jenkins\\.job\\.x\\.stage|jenkins\\.job\\.y.*");
+        Assert.assertFalse(filter.isAllowed("jenkins.job.x.stage", null));
+        Assert.assertTrue(filter.isAllowed("jenkins.job.x.stage.build", null));
+        Assert.assertTrue(filter.isCategoryAllowed("jenkins.job.x.stage."));
+        Assert.assertFalse(filter.isAllowed("jenkins.job.y.stage.build", null));
+
+        filter = MetricFilter.compile("deny regex:jenkins\\.job\\.(?:x|y)\\..*");
+        Assert.assertFalse(filter.isCategoryAllowed("jenkins.job.x.stage."));
+        Assert.assertTrue(filter.isCategoryAllowed("jenkins.job.z.stage."));
+    }
+}
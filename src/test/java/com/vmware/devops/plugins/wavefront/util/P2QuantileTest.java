@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront.util;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class P2QuantileTest {
+
+    @Test
+    public void testFewValues() {
+        P2Quantile median = new P2Quantile(0.5);
+        Assert.assertTrue(Double.isNaN(median.getValue()));
+        median.add(30);
+        median.add(10);
+        median.add(20);
+        Assert.assertEquals(20, median.getValue(), 0);
+        Assert.assertEquals(3, median.getCount());
+    }
+
+    @Test
+    public void testMedianOfUniformValues() {
+        P2Quantile median = new P2Quantile(0.5);
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            median.add(random.nextDouble() * 1000);
+        }
+        Assert.assertEquals(500, median.getValue(), 20);
+    }
+
+    @Test
+    public void testHighQuantileIgnoresOrder() {
+        P2Quantile p90 = new P2Quantile(0.9);
+        for (int i = 1000; i > 0; i--) {
+            p90.add(i);
+        }
+        Assert.assertEquals(900, p90.getValue(), 20);
+    }
+}
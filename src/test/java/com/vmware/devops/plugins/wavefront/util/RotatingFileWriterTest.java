@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2019 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.vmware.devops.plugins.wavefront.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RotatingFileWriterTest {
+    private static final long HOUR = 3600 * 1000L;
+
+    @Test
+    public void testWrittenLinesAreReadable() throws IOException {
+        File directory = Files.createTempDirectory("wavefront").toFile();
+        RotatingFileWriter writer = new RotatingFileWriter(directory, "metrics-", Long.MAX_VALUE, HOUR, 10);
+        writer.write(Arrays.asList("\"a\" 1.0 source=\"host\"", "\"b\" 2.0 source=\"host\""), 0);
+        writer.write(Collections.singletonList("\"c\" 3.0 source=\"host\""), 1000);
+        writer.close();
+
+        List<File> files = RotatingFileWriter.listFiles(directory, "metrics-");
+        Assert.assertEquals(1, files.size());
+        Assert.assertEquals(Arrays.asList("\"a\" 1.0 source=\"host\"", "\"b\" 2.0 source=\"host\"",
+                "\"c\" 3.0 source=\"host\""), readLines(files.get(0)));
+    }
+
+    @Test
+    public void testRotationByAgeAndRetention() throws IOException {
+        File directory = Files.createTempDirectory("wavefront").toFile();
+        RotatingFileWriter writer = new RotatingFileWriter(directory, "metrics-", Long.MAX_VALUE, HOUR, 3);
+        for (int i = 0; i < 5; i++) {
+            writer.write(Collections.singletonList("\"m\" " + i + ".0 source=\"host\""), i * HOUR);
+        }
+        writer.close();
+
+        List<File> files = RotatingFileWriter.listFiles(directory, "metrics-");
+        Assert.assertEquals(3, files.size());
+        Assert.assertEquals(Collections.singletonList("\"m\" 2.0 source=\"host\""), readLines(files.get(0)));
+        Assert.assertEquals(Collections.singletonList("\"m\" 4.0 source=\"host\""), readLines(files.get(2)));
+    }
+
+    @Test
+    public void testRotationBySize() throws IOException {
+        File directory = Files.createTempDirectory("wavefront").toFile();
+        RotatingFileWriter writer = new RotatingFileWriter(directory, "metrics-", 1, HOUR, 10);
+        writer.write(Collections.singletonList("\"a\" 1.0 source=\"host\""), 0);
+        writer.write(Collections.singletonList("\"b\" 1.0 source=\"host\""), 0);
+        writer.close();
+
+        List<File> files = RotatingFileWriter.listFiles(directory, "metrics-");
+        Assert.assertEquals(2, files.size());
+        Assert.assertEquals(Collections.singletonList("\"b\" 1.0 source=\"host\""), readLines(files.get(1)));
+    }
+
+    private static List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(file.toPath())), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+}